@@ -6,16 +6,23 @@ import com.xuxueli.crawler.parser.PageParser;
 import com.xuxueli.crawler.proxy.ProxyMaker;
 import com.xuxueli.crawler.rundata.RunData;
 import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+import com.xuxueli.crawler.rundata.strategy.RunDataCheckpoint;
+import com.xuxueli.crawler.thread.CrawlerPipeline;
 import com.xuxueli.crawler.thread.CrawlerThread;
+import com.xuxueli.crawler.util.UrlCanonicalizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  xxl crawler
@@ -25,23 +32,60 @@ import java.util.concurrent.TimeUnit;
 public class XxlCrawler {
     private static Logger logger = LoggerFactory.getLogger(XxlCrawler.class);
 
+    private static final int THREAD_COUNT_MAX = 1000;                               // 平台线程数量上限
+    private static final long FINISH_POLL_MILLIS = 1000;                            // 终止检测轮询间隔，毫秒
+
     // run data
     private volatile RunData runData = new LocalRunData();                          // 运行时数据模型
+    private final RunData countingRunData = new CountingRunData();                  // 运行时数据模型视图，新增URL计入待完成数量
+    private RunDataCheckpoint checkpoint;                                           // 运行数据快照
 
     // run conf
     private volatile RunConf runConf = new RunConf();                               // 运行时配置
 
     // thread
-    private int threadCount = 1;                                                    // 爬虫线程数量
-    private ExecutorService crawlers = Executors.newCachedThreadPool();             // 爬虫线程池
+    private int threadCount = 1;                                                    // 爬虫线程数量；虚拟线程模式下为并发上限
+    private boolean virtualThread = false;                                          // 虚拟线程模式
+    private ExecutorService crawlers;                                               // 爬虫线程池
     private List<CrawlerThread> crawlerThreads = new CopyOnWriteArrayList<CrawlerThread>();     // 爬虫线程引用镜像
 
+    // pipeline
+    private boolean pipeline = false;                                               // 分阶段流水线模式
+    private int parseThreadCount;                                                   // 流水线 parse 阶段线程数
+    private int outputThreadCount;                                                  // 流水线 output 阶段线程数
+    private int pipelineQueueSize;                                                  // 流水线阶段间队列容量
+    private volatile CrawlerPipeline crawlerPipeline;
+
+    // finish
+    private final AtomicLong pendingNum = new AtomicLong(0);                       // 待采集 + 采集中URL数量
+    private final AtomicInteger inflightNum = new AtomicInteger(0);                // 本节点已领取、未完成的URL数量
+    private final AtomicLong takeNum = new AtomicLong(0);                          // 本节点累计领取URL数量
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private Thread finishMonitor;                                                   // 终止检测轮询线程
+    private Runnable finishCallback;                                                // 采集完成回调
+    private FutureTask<Void> finishFuture;                                          // 采集完成通知
+
     // ---------------------- get ----------------------
 
+    /**
+     * 运行数据，即 setRunData 传入的实例
+     *
+     * @return RunData
+     */
     public RunData getRunData() {
         return runData;
     }
 
+    /**
+     * 运行数据视图：经此新增的URL计入待完成URL数量；爬虫运行期间（如 PageParser 中）新增URL须经此视图或 addUrls 写入，
+     * 直接写入 getRunData 的URL不计入，此时由轮询检测终止
+     *
+     * @return RunData
+     */
+    public RunData getCountingRunData() {
+        return countingRunData;
+    }
+
     public RunConf getRunConf() {
         return runConf;
     }
@@ -62,6 +106,51 @@ public class XxlCrawler {
             return this;
         }
 
+        /**
+         * 运行数据快照：周期性增量持久化运行数据至本地目录，异常终止后可从最近快照恢复；仅支持 "LocalRunData" 系列运行数据；
+         *
+         * 需在 setRunData 之后、setUrls 之前调用，种子URL将基于已恢复的URL池去重；
+         *
+         * @param checkpointDir     快照目录
+         * @param intervalSeconds   增量日志刷盘间隔，秒
+         * @param resume            true=从最近快照恢复、false=清理历史快照重新开始
+         * @return Builder
+         */
+        public Builder setCheckpoint(String checkpointDir, int intervalSeconds, boolean resume){
+            return setCheckpoint(checkpointDir, intervalSeconds, RunDataCheckpoint.SNAPSHOT_ROUNDS_DEFAULT, resume);
+        }
+
+        /**
+         * 运行数据快照，同 setCheckpoint(checkpointDir, intervalSeconds, resume)，并设置全量快照间隔
+         *
+         * @param checkpointDir     快照目录
+         * @param intervalSeconds   增量日志刷盘间隔，秒
+         * @param snapshotRounds    每间隔多少轮增量日志，生成一次全量快照；越小恢复越快，快照开销越大
+         * @param resume            true=从最近快照恢复、false=清理历史快照重新开始
+         * @return Builder
+         */
+        public Builder setCheckpoint(String checkpointDir, int intervalSeconds, int snapshotRounds, boolean resume){
+            if (!(crawler.runData instanceof LocalRunData)) {
+                throw new RuntimeException("xxl crawler checkpoint only support LocalRunData.");
+            }
+            crawler.checkpoint = new RunDataCheckpoint((LocalRunData) crawler.runData, checkpointDir, intervalSeconds, snapshotRounds);
+            crawler.checkpoint.init(resume);
+            return this;
+        }
+
+        /**
+         * URL规范化：URL入队前按规则规范化（如主机名小写、移除默认端口、片段、跟踪参数等），避免同一页面被重复采集；
+         *
+         * 需在 setUrls 之前调用，种子URL同样将被规范化；
+         *
+         * @param urlCanonicalizer
+         * @return Builder
+         */
+        public Builder setUrlCanonicalizer(UrlCanonicalizer urlCanonicalizer){
+            crawler.runConf.setUrlCanonicalizer(urlCanonicalizer);
+            return this;
+        }
+
         /**
          * 待爬的URL列表
          *
@@ -70,9 +159,11 @@ public class XxlCrawler {
          */
         public Builder setUrls(String... urls) {
             if (urls!=null && urls.length>0) {
+                List<String> seedUrls = new ArrayList<String>(urls.length);
                 for (String url: urls) {
-                    crawler.runData.addUrl(url);
+                    seedUrls.add(crawler.runConf.canonicalUrl(url));
                 }
+                crawler.runData.addUrls(seedUrls);
             }
             return this;
         }
@@ -210,6 +301,17 @@ public class XxlCrawler {
             return this;
         }
 
+        /**
+         * 响应体大小上限，字节，按解压后大小计算，超出时页面加载失败，避免超大页面或压缩炸弹占满内存；小于等于0时不限制
+         *
+         * @param maxBodySize
+         * @return Builder
+         */
+        public Builder setMaxBodySize(int maxBodySize){
+            crawler.runConf.setMaxBodySize(maxBodySize);
+            return this;
+        }
+
         /**
          * 停顿时间，爬虫线程处理完页面之后进行主动停顿，避免过于频繁被拦截；
          *
@@ -257,6 +359,47 @@ public class XxlCrawler {
             return this;
         }
 
+        /**
+         * 虚拟线程模式：运行时支持虚拟线程（JDK21+）时，每个爬虫线程以虚拟线程运行，阻塞于网络IO时不占用平台线程，
+         * 此时 threadCount 作为并发上限，可设置为数万；运行时不支持时回退为平台线程池
+         *
+         * @param virtualThread
+         * @return Builder
+         */
+        public Builder setVirtualThread(boolean virtualThread) {
+            crawler.virtualThread = virtualThread;
+            return this;
+        }
+
+        /**
+         * 分阶段流水线模式：页面处理拆分为 fetch（加载页面）、parse（提取子链接与PageVo）、output（输出PageVo）三个阶段，
+         * 阶段间以有界队列衔接并背压，网络IO与CPU计算并行重叠；fetch 阶段线程数即 threadCount
+         *
+         * @param parseThreadCount      parse 阶段线程数，CPU密集，小于1时取CPU核数
+         * @param outputThreadCount     output 阶段线程数，小于1时取1
+         * @param queueSize             阶段间队列容量，小于1时取 parse 阶段线程数的2倍
+         * @return Builder
+         */
+        public Builder setPipeline(int parseThreadCount, int outputThreadCount, int queueSize) {
+            crawler.pipeline = true;
+            crawler.parseThreadCount = parseThreadCount>0 ? parseThreadCount : Runtime.getRuntime().availableProcessors();
+            crawler.outputThreadCount = outputThreadCount>0 ? outputThreadCount : 1;
+            crawler.pipelineQueueSize = queueSize>0 ? queueSize : crawler.parseThreadCount * 2;
+            return this;
+        }
+
+        // finish
+        /**
+         * 采集完成回调：全部URL采集完成或主动终止时执行一次
+         *
+         * @param finishCallback
+         * @return Builder
+         */
+        public Builder setFinishCallback(Runnable finishCallback) {
+            crawler.finishCallback = finishCallback;
+            return this;
+        }
+
         public XxlCrawler build() {
             return crawler;
         }
@@ -279,7 +422,7 @@ public class XxlCrawler {
         if (runConf == null) {
             throw new RuntimeException("xxl crawler runConf can not be empty.");
         }
-        if (threadCount<1 || threadCount>1000) {
+        if (threadCount<1 || (!virtualThread && threadCount>THREAD_COUNT_MAX)) {
             throw new RuntimeException("xxl crawler threadCount invalid, threadCount : " + threadCount);
         }
         if (runConf.getPageLoader() == null) {
@@ -290,53 +433,265 @@ public class XxlCrawler {
         }
 
         logger.info(">>>>>>>>>>> xxl crawler start ...");
-        for (int i = 0; i < threadCount; i++) {
-            CrawlerThread crawlerThread = new CrawlerThread(this);
-            crawlerThreads.add(crawlerThread);
+        finishFuture = new FutureTask<Void>(finishCallback!=null?finishCallback:new Runnable() {
+            @Override
+            public void run() {
+                // no callback
+            }
+        }, null);
+        pendingNum.set(runData.getUrlNum());
+        if (checkpoint != null) {
+            checkpoint.start();
         }
-        for (CrawlerThread crawlerThread: crawlerThreads) {
-            crawlers.execute(crawlerThread);
+        startFinishMonitor();
+
+        int crawlerCount = threadCount;
+        crawlers = virtualThread ? newVirtualThreadExecutor() : null;
+        if (crawlers == null) {
+            if (virtualThread) {
+                logger.warn(">>>>>>>>>>> xxl crawler virtual thread not supported by runtime, fallback to platform thread.");
+                crawlerCount = Math.min(threadCount, THREAD_COUNT_MAX);
+            }
+            crawlers = Executors.newCachedThreadPool();
+        }
+        try {
+            if (pipeline) {
+                crawlerPipeline = new CrawlerPipeline(this, crawlerCount, parseThreadCount, outputThreadCount, pipelineQueueSize);
+                crawlerPipeline.start(crawlers);
+            } else {
+                for (int i = 0; i < crawlerCount; i++) {
+                    CrawlerThread crawlerThread = new CrawlerThread(this);
+                    crawlerThreads.add(crawlerThread);
+                }
+                for (CrawlerThread crawlerThread: crawlerThreads) {
+                    crawlers.execute(crawlerThread);
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            if (!stopped.get()) {
+                throw e;
+            }
+            logger.info(">>>>>>>>>>> xxl crawler finished while starting threads, rest threads not started.");     // e.g. small site with high threadCount
         }
         crawlers.shutdown();
 
         if (sync) {
-            try {
-                while (!crawlers.awaitTermination(5, TimeUnit.SECONDS)) {
-                    logger.info(">>>>>>>>>>> xxl crawler still running ...");
-                }
-            } catch (InterruptedException e) {
-                logger.error(e.getMessage(), e);
-            }
+            awaitFinish();
         }
     }
 
     /**
-     * 尝试终止
+     * virtual thread per task executor, by reflection to keep running on older runtime
+     *
+     * @return ExecutorService, null if not supported
      */
-    public void tryFinish(){
-        boolean isRunning = false;
-        for (CrawlerThread crawlerThread: crawlerThreads) {
-            if (crawlerThread.isRunning()) {
-                isRunning = true;
-                break;
-            }
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
         }
-        boolean isEnd = runData.getUrlNum()==0 && !isRunning;
-        if (isEnd) {
+    }
+
+    /**
+     * 采集完成通知，可用于异步启动后等待采集完成；需在 start 之后获取
+     *
+     * @return Future
+     */
+    public Future<Void> getFinishFuture() {
+        return finishFuture;
+    }
+
+    /**
+     * 阻塞等待采集完成
+     */
+    public void awaitFinish() {
+        try {
+            finishFuture.get();
+        } catch (InterruptedException e) {
+            logger.error(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            logger.error(">>>>>>>>>>> xxl crawler finishCallback error.", e.getCause());
+        }
+    }
+
+    // ---------------------- url ----------------------
+
+    /**
+     * 领取URL，计入本节点采集中URL数量；须与 finishUrl 成对调用
+     *
+     * @return String   null if run data has nothing to lease now (shared run data)
+     */
+    public String getUrl() {
+        String link = runData.getUrl();
+        if (link != null) {
+            inflightNum.incrementAndGet();
+            takeNum.incrementAndGet();
+        }
+        return link;
+    }
+
+    /**
+     * 新增URL，计入待完成URL数量；爬虫线程须在 finishUrl 父页面之前调用，确保待完成数量不会提前归零
+     *
+     * @param links
+     * @param parentLink
+     * @return int
+     */
+    public int addUrls(Collection<String> links, String parentLink) {
+        return countingRunData.addUrls(links, parentLink);
+    }
+
+    /**
+     * 完成URL：确认运行数据，待完成URL数量归零时检测终止
+     *
+     * 仅本地运行数据（LocalRunData 系列）按计数终止，其全部URL均经本节点新增；其他运行数据（共享运行数据、自定义运行数据）
+     * 由 getUrl 返回空时 tryFinish 终止，或由轮询线程检测本节点无采集中URL且 getUrlNum 为0时终止
+     *
+     * @param link
+     */
+    public void finishUrl(String link) {
+        runData.finishUrl(link);
+        int inflight = inflightNum.decrementAndGet();
+        if (pendingNum.decrementAndGet()==0 && runData instanceof LocalRunData
+                && inflight==0 && runData.getUrlNum()==0) {         // links added around the counting view are left to finish monitor
             logger.info(">>>>>>>>>>> xxl crawler is finished.");
             stop();
         }
     }
 
+    /**
+     * 尝试终止：运行数据领取URL返回空（多节点共享运行数据时，表示全部节点均已完成）时调用
+     */
+    public void tryFinish(){
+        if (inflightNum.get()==0 && runData.getUrlNum()==0) {
+            logger.info(">>>>>>>>>>> xxl crawler is finished.");
+            stop();
+        }
+    }
+
+    /**
+     * 终止检测轮询：本节点无采集中URL、运行数据 getUrlNum 为0，且连续两轮之间未领取新URL时终止；
+     * 适用于 getUrl 阻塞等待、不会返回空的运行数据（如自定义的 Redis/DB 运行数据），与原有的线程空闲检测一致
+     */
+    private void startFinishMonitor() {
+        finishMonitor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long idleTakeNum = -1;      // takeNum of last idle round, -1 if last round was busy
+                while (!stopped.get()) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(FINISH_POLL_MILLIS);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    try {
+                        long currentTakeNum = takeNum.get();
+                        boolean idle = inflightNum.get()==0 && runData.getUrlNum()==0;
+                        if (idle && currentTakeNum==idleTakeNum) {
+                            logger.info(">>>>>>>>>>> xxl crawler is finished.");
+                            stop();
+                            break;
+                        }
+                        idleTakeNum = idle ? currentTakeNum : -1;
+                    } catch (Throwable e) {
+                        logger.error(">>>>>>>>>>> xxl crawler finish monitor error.", e);
+                        idleTakeNum = -1;
+                    }
+                }
+            }
+        }, "xxl-crawler-finish-monitor");
+        finishMonitor.setDaemon(true);
+        finishMonitor.start();
+    }
+
     /**
      * 终止
      */
     public void stop(){
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
         for (CrawlerThread crawlerThread: crawlerThreads) {
             crawlerThread.toStop();
         }
-        crawlers.shutdownNow();
+        if (crawlerPipeline != null) {
+            crawlerPipeline.toStop();
+        }
+        if (crawlers != null) {
+            crawlers.shutdownNow();
+        }
+        if (finishMonitor!=null && finishMonitor!=Thread.currentThread()) {
+            finishMonitor.interrupt();
+        }
+        if (checkpoint != null) {
+            checkpoint.stop();
+        }
+        if (runData instanceof Closeable) {
+            try {
+                ((Closeable) runData).close();      // e.g. PartitionRunData, stop its server
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
         logger.info(">>>>>>>>>>> xxl crawler stop.");
+
+        if (finishFuture != null) {
+            boolean interrupted = Thread.interrupted();     // stop may run on a crawler thread, just interrupted by shutdownNow
+            finishFuture.run();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // ---------------------- counting run data ----------------------
+
+    /**
+     * run data view, every added link is counted as pending
+     */
+    private class CountingRunData extends RunData {
+
+        @Override
+        public boolean addUrl(String link) {
+            return count(runData.addUrl(link));
+        }
+
+        @Override
+        public boolean addUrl(String link, String parentLink) {
+            return count(runData.addUrl(link, parentLink));
+        }
+
+        @Override
+        public int addUrls(Collection<String> links, String parentLink) {
+            int addNum = runData.addUrls(links, parentLink);
+            if (addNum > 0) {
+                pendingNum.addAndGet(addNum);
+            }
+            return addNum;
+        }
+
+        private boolean count(boolean added) {
+            if (added) {
+                pendingNum.incrementAndGet();
+            }
+            return added;
+        }
+
+        @Override
+        public String getUrl() {
+            return runData.getUrl();
+        }
+
+        @Override
+        public void finishUrl(String link) {
+            runData.finishUrl(link);
+        }
+
+        @Override
+        public int getUrlNum() {
+            return runData.getUrlNum();
+        }
     }
 
 }
@@ -0,0 +1,92 @@
+package com.xuxueli.crawler.loader;
+
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * async page loader
+ *
+ * 异步页面加载：发起请求后立即返回，加载完成后回调；少量IO线程即可驱动大量并发请求，无需每个请求占用一个线程；
+ *
+ * 分阶段流水线模式（XxlCrawler.Builder.setPipeline）下，fetch 阶段将异步发起请求，threadCount 即并发请求上限；
+ * 其他场景下，同步 load 方法将阻塞等待异步加载完成。
+ *
+ * 回调返回未解析的页面响应，DOM解析推迟至首次访问页面文档时，不占用IO线程。
+ */
+public abstract class AsyncPageLoader extends PageLoader {
+    private static Logger logger = LoggerFactory.getLogger(AsyncPageLoader.class);
+
+    /**
+     * load callback, invoked exactly once per load, usually on io thread: blocking in it delays other requests of the same io thread
+     */
+    public interface Callback {
+
+        /**
+         * @param pageResponse  page response, status and content type are not validated
+         */
+        void onSuccess(PageResponse pageResponse);
+
+        /**
+         * @param e     load error
+         */
+        void onFail(Throwable e);
+
+    }
+
+    /**
+     * load page async
+     *
+     * @param pageRequest
+     * @param callback
+     */
+    public abstract void loadAsync(PageRequest pageRequest, Callback callback);
+
+    /**
+     * load page, block until async load complete
+     *
+     * @param pageRequest
+     * @return Document, null if load fail, or status / content type invalid
+     */
+    @Override
+    public Document load(PageRequest pageRequest) {
+        return parse(pageRequest, loadResponse(pageRequest));
+    }
+
+    /**
+     * load page response, block until async load complete
+     *
+     * @param pageRequest
+     * @return PageResponse, null if load fail
+     */
+    @Override
+    public PageResponse loadResponse(final PageRequest pageRequest) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final PageResponse[] result = new PageResponse[1];
+        loadAsync(pageRequest, new Callback() {
+            @Override
+            public void onSuccess(PageResponse pageResponse) {
+                result[0] = pageResponse;
+                latch.countDown();
+            }
+            @Override
+            public void onFail(Throwable e) {
+                logger.error(">>>>>>>>>>> xxl-crawler load fail, url : " + pageRequest.getUrl(), e);
+                latch.countDown();
+            }
+        });
+
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return result[0];
+    }
+
+}
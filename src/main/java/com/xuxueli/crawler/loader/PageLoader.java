@@ -1,7 +1,11 @@
 package com.xuxueli.crawler.loader;
 
+import com.xuxueli.crawler.exception.XxlCrawlerException;
 import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
 import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * page loader
@@ -9,6 +13,7 @@ import org.jsoup.nodes.Document;
  * @author xuxueli 2017-12-28 00:27:30
  */
 public abstract class PageLoader {
+    private static Logger logger = LoggerFactory.getLogger(PageLoader.class);
 
     /**
      * load page
@@ -18,4 +23,41 @@ public abstract class PageLoader {
      */
     public abstract Document load(PageRequest pageRequest);
 
+    /**
+     * load page response: raw body, status and headers, document parsed on first access; status and content type are not validated
+     *
+     * 默认包装 load 方法已解析的页面；基于HTTP的加载器应覆盖此方法，以便在DOM解析前按状态码、内容类型过滤。
+     *
+     * @param pageRequest
+     * @return PageResponse, null if load fail
+     */
+    public PageResponse loadResponse(PageRequest pageRequest) {
+        Document html = load(pageRequest);
+        return html!=null ? new PageResponse(pageRequest.getUrl(), html) : null;
+    }
+
+    /**
+     * valid status and content type same as jsoup, then parse; for loaders implementing load by loadResponse
+     *
+     * @param pageRequest
+     * @param pageResponse
+     * @return Document, null if load fail, response invalid, or body decode fail
+     */
+    protected Document parse(PageRequest pageRequest, PageResponse pageResponse) {
+        if (pageResponse == null) {
+            return null;
+        }
+        if (!pageResponse.isValid()) {
+            logger.error(">>>>>>>>>>> xxl-crawler load fail, status : {}, contentType : {}, url : {}",
+                    pageResponse.getStatus(), pageResponse.getContentType(), pageRequest.getUrl());
+            return null;
+        }
+        try {
+            return pageResponse.getHtml();
+        } catch (XxlCrawlerException e) {
+            logger.error(">>>>>>>>>>> xxl-crawler load fail, {}", e.getMessage());
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,511 @@
+package com.xuxueli.crawler.loader.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.loader.PageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * cached page loader
+ *
+ * 条件请求缓存装饰器：包装其他HTTP页面加载器，将带 ETag / Last-Modified 的响应压缩保存至本地磁盘缓存；
+ * 重复采集时携带 If-None-Match / If-Modified-Since 发起条件请求，服务端返回 304 时直接使用缓存响应，页面未变更时无需重复下载响应体；
+ *
+ *      缓存范围：GET请求，状态码200，且响应包含 ETag 或 Last-Modified，"Cache-Control: no-store" 与 "Vary: *" 除外；
+ *      缓存文件：每个URL（含GET请求参数、Cookie）一个文件，响应体压缩存储；
+ *      Vary：保存 Vary 所列请求头的取值，再次请求时取值不同视为未命中，发起普通请求并覆盖缓存；
+ *      重新验证：304 响应携带的 ETag、Last-Modified、Cache-Control、Expires 合并至缓存，后续条件请求使用最新校验字段；
+ *      容量限制：缓存总大小上限（maxSize），超出时按最近最少使用淘汰，仅命中（304）时刷新访问顺序；重启后按文件修改时间恢复访问顺序；
+ *
+ * 被包装的页面加载器需覆盖 "loadResponse" 返回原始响应（如 JsoupPageLoader、PooledHttpPageLoader、NioHttpPageLoader）。
+ */
+public class CachedPageLoader extends PageLoader {
+    private static Logger logger = LoggerFactory.getLogger(CachedPageLoader.class);
+
+    private static final int MAGIC = 0x58434850;        // "XCHP"
+    private static final byte VERSION = 2;
+    private static final String FILE_SUFFIX = ".cache";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String[] REVALIDATE_HEADERS = {"ETag", "Last-Modified", "Cache-Control", "Expires"};     // merged from 304
+
+    private final PageLoader pageLoader;
+    private final File cacheDir;
+    private final long maxSize;
+
+    private final LinkedHashMap<String, Long> fileIndex = new LinkedHashMap<String, Long>(16, 0.75f, true);     // file name -> file size, access order
+    private long size = 0;
+    private final AtomicLong hitNum = new AtomicLong(0);
+
+    /**
+     * @param cacheDir      缓存目录
+     */
+    public CachedPageLoader(String cacheDir) {
+        this(new JsoupPageLoader(), cacheDir, 256 * 1024 * 1024);
+    }
+
+    /**
+     * @param pageLoader    被包装的页面加载器
+     * @param cacheDir      缓存目录
+     * @param maxSize       缓存总大小上限，字节
+     */
+    public CachedPageLoader(PageLoader pageLoader, String cacheDir, long maxSize) {
+        if (pageLoader == null) {
+            throw new XxlCrawlerException("CachedPageLoader pageLoader can not be null.");
+        }
+        if (cacheDir==null || cacheDir.trim().length()==0) {
+            throw new XxlCrawlerException("CachedPageLoader cacheDir can not be empty.");
+        }
+        if (maxSize < 1) {
+            throw new XxlCrawlerException("CachedPageLoader maxSize invalid, maxSize : " + maxSize);
+        }
+        this.pageLoader = pageLoader;
+        this.cacheDir = new File(cacheDir);
+        this.maxSize = maxSize;
+
+        if (!this.cacheDir.exists() && !this.cacheDir.mkdirs()) {
+            throw new XxlCrawlerException("CachedPageLoader cacheDir create fail, cacheDir : " + cacheDir);
+        }
+        loadIndex();
+    }
+
+    /**
+     * @return long, total size of cache files
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return long, num of responses served from cache
+     */
+    public long getHitNum() {
+        return hitNum.get();
+    }
+
+    // ---------------------- load ----------------------
+
+    @Override
+    public Document load(PageRequest pageRequest) {
+        return parse(pageRequest, loadResponse(pageRequest));
+    }
+
+    @Override
+    public PageResponse loadResponse(PageRequest pageRequest) {
+        if (pageRequest.isIfPost()) {
+            return pageLoader.loadResponse(pageRequest);
+        }
+
+        String key = cacheKey(pageRequest);
+        String fileName = fileName(key);
+        Entry entry = read(fileName, key);
+        if (entry!=null && !entry.varyKey.equals(varyKey(pageRequest, entry.getHeader("Vary")))) {
+            entry = null;       // cached for other values of Vary headers
+        }
+
+        // conditional request
+        PageResponse pageResponse = pageLoader.loadResponse(entry!=null ? conditionalRequest(pageRequest, entry) : pageRequest);
+        if (pageResponse == null) {
+            return null;
+        }
+        if (pageResponse.getStatus()==304 && entry!=null) {
+            hitNum.incrementAndGet();
+            Entry revalidated = entry.revalidate(pageResponse);
+            if (revalidated == null) {
+                touch(fileName);
+            } else if (cacheable(revalidated.getHeader("Cache-Control"), revalidated.getHeader("Vary"))) {
+                write(fileName, revalidated);
+                entry = revalidated;
+            } else {
+                remove(fileName);
+                entry = revalidated;
+            }
+            return new PageResponse(pageRequest.getUrl(), entry.finalUrl, 200, entry.headers, entry.body, pageRequest.getMaxBodySize());
+        }
+
+        if (cacheable(pageResponse)) {
+            write(fileName, new Entry(key, varyKey(pageRequest, pageResponse.getHeader("Vary")),
+                    pageResponse.getFinalUrl(), pageResponse.getHeaders(), pageResponse.getRawBody()));     // compressed as received
+        }
+        return pageResponse;
+    }
+
+    private PageRequest conditionalRequest(PageRequest pageRequest, Entry entry) {
+        Map<String, String> headerMap = new HashMap<String, String>();
+        if (pageRequest.getHeaderMap() != null) {
+            headerMap.putAll(pageRequest.getHeaderMap());
+        }
+        String etag = entry.getHeader("ETag");
+        if (etag != null) {
+            headerMap.put("If-None-Match", etag);
+        }
+        String lastModified = entry.getHeader("Last-Modified");
+        if (lastModified != null) {
+            headerMap.put("If-Modified-Since", lastModified);
+        }
+
+        PageRequest conditional = new PageRequest(pageRequest.getUrl(),
+                pageRequest.getParamMap(),
+                pageRequest.getCookieMap(),
+                headerMap,
+                pageRequest.getUserAgent(),
+                pageRequest.getReferrer(),
+                pageRequest.isIfPost(),
+                pageRequest.getTimeoutMillis(),
+                pageRequest.isValidateTLSCertificates(),
+                pageRequest.getProxy());
+        conditional.setMaxBodySize(pageRequest.getMaxBodySize());
+        return conditional;
+    }
+
+    private static boolean cacheable(PageResponse pageResponse) {
+        if (pageResponse.getStatus() != 200) {
+            return false;
+        }
+        if (pageResponse.getHeader("ETag")==null && pageResponse.getHeader("Last-Modified")==null) {
+            return false;
+        }
+        return cacheable(pageResponse.getHeader("Cache-Control"), pageResponse.getHeader("Vary"));
+    }
+
+    private static boolean cacheable(String cacheControl, String vary) {
+        if (cacheControl!=null && cacheControl.toLowerCase().contains("no-store")) {
+            return false;
+        }
+        return !(vary!=null && vary.trim().equals("*"));
+    }
+
+    /**
+     * request values of headers named by Vary, "name=value" lines sorted by name; empty if no Vary
+     */
+    private static String varyKey(PageRequest pageRequest, String vary) {
+        if (vary==null || vary.trim().length()==0) {
+            return "";
+        }
+        TreeMap<String, String> varyMap = new TreeMap<String, String>();
+        for (String name: vary.split(",")) {
+            name = name.trim().toLowerCase();
+            if (name.length() == 0) {
+                continue;
+            }
+            String value = null;
+            if ("user-agent".equals(name)) {
+                value = pageRequest.getUserAgent();
+            } else if ("referer".equals(name)) {
+                value = pageRequest.getReferrer();
+            } else if ("cookie".equals(name)) {
+                value = cookieKey(pageRequest);
+            }
+            if (pageRequest.getHeaderMap() != null) {
+                for (Map.Entry<String, String> header: pageRequest.getHeaderMap().entrySet()) {
+                    if (name.equalsIgnoreCase(header.getKey())) {
+                        value = header.getValue();      // explicit header wins
+                    }
+                }
+            }
+            varyMap.put(name, value!=null ? value : "");
+        }
+
+        StringBuilder varyKey = new StringBuilder();
+        for (Map.Entry<String, String> item: varyMap.entrySet()) {
+            varyKey.append(item.getKey()).append('=').append(item.getValue()).append('\n');
+        }
+        return varyKey.toString();
+    }
+
+    // ---------------------- cache entry ----------------------
+
+    private static class Entry {
+        private final String key;
+        private final String varyKey;
+        private final String finalUrl;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        Entry(String key, String varyKey, String finalUrl, Map<String, List<String>> headers, byte[] body) {
+            this.key = key;
+            this.varyKey = varyKey;
+            this.finalUrl = finalUrl;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        /**
+         * merge validators and freshness headers of 304 response
+         *
+         * @return Entry, updated copy; null if nothing changed
+         */
+        Entry revalidate(PageResponse notModified) {
+            Map<String, List<String>> merged = null;
+            for (String name: REVALIDATE_HEADERS) {
+                String value = notModified.getHeader(name);
+                if (value==null || value.equals(getHeader(name))) {
+                    continue;
+                }
+                if (merged == null) {
+                    merged = new LinkedHashMap<String, List<String>>(headers);
+                }
+                for (Iterator<String> iterator = merged.keySet().iterator(); iterator.hasNext(); ) {
+                    if (name.equalsIgnoreCase(iterator.next())) {
+                        iterator.remove();
+                    }
+                }
+                merged.put(name, Collections.singletonList(value));
+            }
+            return merged!=null ? new Entry(key, varyKey, finalUrl, merged, body) : null;
+        }
+
+        String getHeader(String name) {
+            for (Map.Entry<String, List<String>> header: headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && header.getValue().size()>0) {
+                    return header.getValue().get(0);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * read cache file, delete it if broken
+     *
+     * @return Entry, null if absent, or key not match
+     */
+    private Entry read(String fileName, String key) {
+        synchronized (this) {
+            if (!fileIndex.containsKey(fileName)) {     // access order is touched only on hit
+                return null;
+            }
+        }
+        File file = new File(cacheDir, fileName);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt()!=MAGIC || in.readByte()!=VERSION) {
+                    throw new IOException("cache file invalid, file : " + file.getPath());
+                }
+                in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(in)));
+                String entryKey = readString(in);
+                if (!key.equals(entryKey)) {
+                    return null;        // hash collision
+                }
+                String varyKey = readString(in);
+                String finalUrl = readString(in);
+                int headerNum = in.readInt();
+                Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+                for (int i = 0; i < headerNum; i++) {
+                    String name = readString(in);
+                    int valueNum = in.readInt();
+                    List<String> values = new ArrayList<String>(valueNum);
+                    for (int j = 0; j < valueNum; j++) {
+                        values.add(readString(in));
+                    }
+                    headers.put(name, values);
+                }
+                byte[] body = new byte[in.readInt()];
+                in.readFully(body);
+                return new Entry(entryKey, varyKey, finalUrl, headers, body);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            logger.warn(">>>>>>>>>>> xxl-crawler CachedPageLoader read fail, file : {}, error : {}", file.getPath(), e.getMessage());
+            remove(fileName);
+            return null;
+        }
+    }
+
+    /**
+     * write tmp file and rename, then evict least recently used files beyond maxSize
+     */
+    private void write(String fileName, Entry entry) {
+        File file = new File(cacheDir, fileName);
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(fileName, TMP_SUFFIX, cacheDir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.flush();
+
+                DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out);
+                DataOutputStream entryOut = new DataOutputStream(new BufferedOutputStream(deflaterOut));
+                writeString(entryOut, entry.key);
+                writeString(entryOut, entry.varyKey);
+                writeString(entryOut, entry.finalUrl);
+                entryOut.writeInt(entry.headers.size());
+                for (Map.Entry<String, List<String>> header: entry.headers.entrySet()) {
+                    writeString(entryOut, header.getKey());
+                    entryOut.writeInt(header.getValue().size());
+                    for (String value: header.getValue()) {
+                        writeString(entryOut, value);
+                    }
+                }
+                entryOut.writeInt(entry.body.length);
+                entryOut.write(entry.body);
+                entryOut.flush();
+                deflaterOut.finish();
+            } finally {
+                out.close();
+            }
+
+            long fileSize = tmpFile.length();
+            if (fileSize > maxSize) {
+                deleteFile(tmpFile);
+                return;
+            }
+            synchronized (this) {
+                if (!tmpFile.renameTo(file)) {
+                    deleteFile(file);       // rename can not replace on some platforms
+                    if (!tmpFile.renameTo(file)) {
+                        throw new IOException("cache file rename fail, file : " + file.getPath());
+                    }
+                }
+                Long oldSize = fileIndex.put(fileName, fileSize);
+                size += fileSize - (oldSize!=null ? oldSize : 0);
+                evict();
+            }
+        } catch (IOException e) {
+            logger.warn(">>>>>>>>>>> xxl-crawler CachedPageLoader write fail, file : {}, error : {}", file.getPath(), e.getMessage());
+            if (tmpFile != null) {
+                deleteFile(tmpFile);
+            }
+        }
+    }
+
+    /**
+     * refresh access order and file modified time, on hit
+     */
+    private void touch(String fileName) {
+        synchronized (this) {
+            if (fileIndex.get(fileName) == null) {
+                return;     // evicted meanwhile
+            }
+        }
+        File file = new File(cacheDir, fileName);
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            logger.debug(">>>>>>>>>>> xxl-crawler CachedPageLoader touch fail, file : {}", file.getPath());
+        }
+    }
+
+    private synchronized void remove(String fileName) {
+        Long fileSize = fileIndex.remove(fileName);
+        if (fileSize != null) {
+            size -= fileSize;
+        }
+        deleteFile(new File(cacheDir, fileName));
+    }
+
+    /**
+     * evict least recently used files, keep the newest one
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = fileIndex.entrySet().iterator();
+        while (size>maxSize && fileIndex.size()>1 && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            size -= eldest.getValue();
+            deleteFile(new File(cacheDir, eldest.getKey()));
+        }
+    }
+
+    /**
+     * index cache files by last modified time, clean tmp files of interrupted writes
+     */
+    private synchronized void loadIndex() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> cacheFiles = new ArrayList<File>();
+        for (File file: files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                cacheFiles.add(file);
+            } else if (file.getName().endsWith(TMP_SUFFIX)) {
+                deleteFile(file);
+            }
+        }
+        Collections.sort(cacheFiles, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long diff = o1.lastModified() - o2.lastModified();
+                return diff<0 ? -1 : (diff>0 ? 1 : 0);
+            }
+        });
+        for (File file: cacheFiles) {
+            fileIndex.put(file.getName(), file.length());
+            size += file.length();
+        }
+        evict();
+    }
+
+    // ---------------------- util ----------------------
+
+    /**
+     * url with GET params, and cookies: pages may differ by session without "Vary: Cookie"
+     */
+    private static String cacheKey(PageRequest pageRequest) {
+        String key = pageRequest.getUrl();
+        if (pageRequest.getParamMap()!=null && !pageRequest.getParamMap().isEmpty()) {
+            key += (key.indexOf('?')>-1 ? "&" : "?") + HttpCodec.encodeParams(new TreeMap<String, String>(pageRequest.getParamMap()));
+        }
+        String cookieKey = cookieKey(pageRequest);
+        if (cookieKey != null) {
+            key += "\n" + cookieKey;
+        }
+        return key;
+    }
+
+    /**
+     * cookies sorted by name, null if none
+     */
+    private static String cookieKey(PageRequest pageRequest) {
+        if (pageRequest.getCookieMap()==null || pageRequest.getCookieMap().isEmpty()) {
+            return null;
+        }
+        return HttpCodec.encodeParams(new TreeMap<String, String>(pageRequest.getCookieMap()));
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder fileName = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (byte b: digest) {
+                fileName.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return fileName.append(FILE_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new XxlCrawlerException(e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value!=null ? value : "").getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn(">>>>>>>>>>> xxl-crawler CachedPageLoader file delete fail, file : {}", file.getPath());
+        }
+    }
+
+}
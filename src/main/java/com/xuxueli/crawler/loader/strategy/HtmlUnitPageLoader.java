@@ -2,13 +2,19 @@ package com.xuxueli.crawler.loader.strategy;
 
 import com.gargoylesoftware.htmlunit.HttpMethod;
 import com.gargoylesoftware.htmlunit.ProxyConfig;
+import com.gargoylesoftware.htmlunit.TopLevelWindow;
 import com.gargoylesoftware.htmlunit.WebClient;
 import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import com.gargoylesoftware.htmlunit.util.Cookie;
 import com.gargoylesoftware.htmlunit.util.NameValuePair;
+import com.gargoylesoftware.htmlunit.util.WebConnectionWrapper;
+import com.xuxueli.crawler.exception.XxlCrawlerException;
 import com.xuxueli.crawler.loader.PageLoader;
 import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.util.ResourceFilter;
 import com.xuxueli.crawler.util.UrlUtil;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -19,33 +25,99 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
 
 /**
  * htmlunit page loader
  *
+ * WebClient 池化复用：WebClient 创建代价高（JS引擎、Cookie管理、连接状态等），池中维护预先配置的 WebClient，页面加载时借出、结束后归还复用，同时保留其JS/CSS资源缓存；
+ *
+ *      容量：池大小（poolSize）即并发渲染上限，超出时等待归还；WebClient 按需创建；默认构造不限制，池随并发采集线程数增长，与池化前行为一致；
+ *      重置：归还时清除页面、后台JS任务、弹出窗口与Cookie，避免页面间状态串扰；
+ *      回收：WebClient 累计加载一定页面数（recyclePageNum）后关闭并重建，避免长期运行的内存泄漏；加载异常的 WebClient 直接关闭；
+ *
+ * 资源拦截：设置 ResourceFilter 后，页面引用的子资源请求前按URL规则与推断类型拦截，响应后按实际 Content-Type 再次校验，被拦截的资源以空响应（204）代替；
+ *
  * @author xuxueli 2018-02-06 19:41:39
  */
 public class HtmlUnitPageLoader extends PageLoader {
     private static Logger logger = LoggerFactory.getLogger(HtmlUnitPageLoader.class);
 
+    private final int recyclePageNum;
+    private final ResourceFilter resourceFilter;
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledWebClient> idleClients = new LinkedBlockingDeque<PooledWebClient>();
+    private volatile boolean closed = false;
+
+    public HtmlUnitPageLoader() {
+        this(Integer.MAX_VALUE, 100);       // no cap, bounded by crawler threadCount
+    }
+
+    /**
+     * @param poolSize          WebClient 池大小，即并发渲染上限
+     * @param recyclePageNum    WebClient 累计加载页面数上限，达到后关闭并重建
+     */
+    public HtmlUnitPageLoader(int poolSize, int recyclePageNum) {
+        this(poolSize, recyclePageNum, null);
+    }
+
+    /**
+     * @param poolSize          WebClient 池大小，即并发渲染上限
+     * @param recyclePageNum    WebClient 累计加载页面数上限，达到后关闭并重建
+     * @param resourceFilter    子资源拦截规则，为空时不拦截
+     */
+    public HtmlUnitPageLoader(int poolSize, int recyclePageNum, ResourceFilter resourceFilter) {
+        if (poolSize<1 || recyclePageNum<1) {
+            throw new XxlCrawlerException("HtmlUnitPageLoader param invalid, poolSize/recyclePageNum : " + poolSize + "/" + recyclePageNum);
+        }
+        this.recyclePageNum = recyclePageNum;
+        this.resourceFilter = resourceFilter;
+        this.permits = new Semaphore(poolSize);
+    }
+
+    /**
+     * close idle WebClients, borrowed ones are closed when returned
+     */
+    public void close() {
+        closed = true;
+        PooledWebClient pooledClient;
+        while ((pooledClient = idleClients.pollFirst()) != null) {
+            pooledClient.webClient.close();
+        }
+    }
+
+    /**
+     * idle WebClient num
+     *
+     * @return int
+     */
+    public int getIdleNum() {
+        return idleClients.size();
+    }
+
     @Override
     public Document load(PageRequest pageRequest) {
         if (!UrlUtil.isUrl(pageRequest.getUrl())) {
             return null;
         }
 
-        WebClient webClient = new WebClient();
+        PooledWebClient pooledClient;
+        try {
+            pooledClient = borrow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        boolean broken = true;
         try {
+            WebClient webClient = pooledClient.webClient;
             WebRequest webRequest = new WebRequest(new URL(pageRequest.getUrl()));
 
             // 请求设置
-            webClient.getOptions().setUseInsecureSSL(true);
-            webClient.getOptions().setJavaScriptEnabled(true);
-            webClient.getOptions().setCssEnabled(false);
-            webClient.getOptions().setThrowExceptionOnScriptError(false);
-            webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
-            webClient.getOptions().setDoNotTrackEnabled(false);
             webClient.getOptions().setUseInsecureSSL(!pageRequest.isValidateTLSCertificates());
 
             if (pageRequest.getParamMap() != null && !pageRequest.getParamMap().isEmpty()) {
@@ -73,11 +145,13 @@ public class HtmlUnitPageLoader extends PageLoader {
             webClient.setJavaScriptTimeout(pageRequest.getTimeoutMillis());
             webClient.waitForBackgroundJavaScript(pageRequest.getTimeoutMillis());
 
-            // 代理
+            // 代理，复用的 WebClient 需显式重置
             if (pageRequest.getProxy() != null) {
                 InetSocketAddress address = (InetSocketAddress) pageRequest.getProxy().address();
                 boolean isSocks = pageRequest.getProxy().type() == Proxy.Type.SOCKS;
                 webClient.getOptions().setProxyConfig(new ProxyConfig(address.getHostName(), address.getPort(), isSocks));
+            } else {
+                webClient.getOptions().setProxyConfig(new ProxyConfig());
             }
 
             // 发出请求
@@ -86,21 +160,153 @@ public class HtmlUnitPageLoader extends PageLoader {
             } else {
                 webRequest.setHttpMethod(HttpMethod.GET);
             }
+            if (pooledClient.filterConnection != null) {
+                pooledClient.filterConnection.pageRequest = webRequest;
+            }
             HtmlPage page = webClient.getPage(webRequest);
 
             String pageAsXml = page.asXml();
+            broken = false;
             if (pageAsXml != null) {
                 Document html = Jsoup.parse(pageAsXml);
                 return html;
             }
-        } catch (IOException e) {
+        } catch (Exception e) {
             logger.error(e.getMessage(), e);
         } finally {
-            if (webClient != null) {
-                webClient.close();
-            }
+            giveBack(pooledClient, broken);
         }
         return null;
     }
 
-}
\ No newline at end of file
+    // ---------------------- pool ----------------------
+
+    private static class PooledWebClient {
+        private final WebClient webClient;
+        private final FilterWebConnection filterConnection;
+        private int pageNum = 0;
+
+        PooledWebClient(WebClient webClient, FilterWebConnection filterConnection) {
+            this.webClient = webClient;
+            this.filterConnection = filterConnection;
+        }
+    }
+
+    /**
+     * borrow idle WebClient, or create one; wait while all are in use
+     */
+    private PooledWebClient borrow() throws InterruptedException {
+        permits.acquire();
+        try {
+            PooledWebClient pooledClient = idleClients.pollFirst();
+            return pooledClient!=null ? pooledClient : createWebClient();
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * reset and return to pool; close if broken, recycled or pool closed
+     */
+    private void giveBack(PooledWebClient pooledClient, boolean broken) {
+        try {
+            pooledClient.pageNum++;
+            if (!broken && !closed && pooledClient.pageNum<recyclePageNum && reset(pooledClient.webClient)) {
+                idleClients.offerFirst(pooledClient);       // LIFO, warm caches reused first
+            } else {
+                pooledClient.webClient.close();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledWebClient createWebClient() {
+        WebClient webClient = new WebClient();
+        webClient.getOptions().setJavaScriptEnabled(true);
+        webClient.getOptions().setCssEnabled(false);
+        webClient.getOptions().setThrowExceptionOnScriptError(false);
+        webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
+        webClient.getOptions().setDoNotTrackEnabled(false);
+        FilterWebConnection filterConnection = resourceFilter!=null ? new FilterWebConnection(webClient, resourceFilter) : null;
+        return new PooledWebClient(webClient, filterConnection);
+    }
+
+    /**
+     * clear page, background js jobs, popup windows and cookies; keep resource cache
+     *
+     * @return boolean, false if reset fail
+     */
+    private boolean reset(WebClient webClient) {
+        try {
+            webClient.getCurrentWindow().getJobManager().removeAllJobs();
+            webClient.getPage("about:blank");
+            for (TopLevelWindow window: new ArrayList<TopLevelWindow>(webClient.getTopLevelWindows())) {
+                if (window != webClient.getCurrentWindow()) {
+                    window.close();
+                }
+            }
+            webClient.getCookieManager().clearCookies();
+            return true;
+        } catch (Exception e) {
+            logger.warn(">>>>>>>>>>> xxl-crawler HtmlUnitPageLoader WebClient reset fail, error : {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // ---------------------- resource filter ----------------------
+
+    /**
+     * intercept sub resource requests of page, blocked ones replaced by empty response
+     */
+    private static class FilterWebConnection extends WebConnectionWrapper {
+        private final ResourceFilter resourceFilter;
+        private volatile WebRequest pageRequest;        // page itself, never blocked
+
+        FilterWebConnection(WebClient webClient, ResourceFilter resourceFilter) {
+            super(webClient);
+            this.resourceFilter = resourceFilter;
+        }
+
+        @Override
+        public WebResponse getResponse(WebRequest request) throws IOException {
+            if (request == pageRequest) {
+                return super.getResponse(request);
+            }
+            String url = request.getUrl().toExternalForm();
+            if (!resourceFilter.accept(url)) {
+                return blocked(request);
+            }
+            WebResponse response = super.getResponse(request);
+            if (!resourceFilter.accept(url, response.getContentType())) {
+                response.cleanUp();
+                return blocked(request);
+            }
+            return response;
+        }
+
+        /**
+         * narrow "throws Exception" inherited from AutoCloseable: closing the wrapped connection is not interruptible,
+         * and an InterruptedException must not be swallowed by try-with-resources of callers
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        private static WebResponse blocked(WebRequest request) {
+            logger.debug(">>>>>>>>>>> xxl-crawler HtmlUnitPageLoader resource blocked, url : {}", request.getUrl());
+            return new WebResponse(new WebResponseData(new byte[0], 204, "No Content", new ArrayList<NameValuePair>()), request, 0);
+        }
+    }
+
+}
@@ -0,0 +1,410 @@
+package com.xuxueli.crawler.loader.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.*;
+
+/**
+ * http codec, shared by http page loaders: request encoding, incremental response parsing, redirect and page response
+ */
+class HttpCodec {
+
+    static final int REDIRECT_MAX = 5;
+
+    // ---------------------- request ----------------------
+
+    /**
+     * encode request head and body
+     *
+     * @param pageRequest       header, cookie, userAgent, referrer
+     * @param target            url to request
+     * @param post
+     * @param body              form body of post
+     * @param cookieMap         cookies, including ones set by redirects
+     * @param absoluteTarget    absolute request target, for http proxy
+     * @param keepAlive         persistent connection
+     * @return byte[]
+     */
+    static byte[] encodeRequest(PageRequest pageRequest, URL target, boolean post, byte[] body, Map<String, String> cookieMap, boolean absoluteTarget, boolean keepAlive) {
+        String path = target.getFile()!=null && target.getFile().length()>0 ? target.getFile() : "/";
+        int port = target.getPort();
+        Map<String, String> headerMap = pageRequest.getHeaderMap()!=null ? pageRequest.getHeaderMap() : Collections.<String, String>emptyMap();
+
+        StringBuilder head = new StringBuilder(256);
+        head.append(post ? "POST " : "GET ").append(absoluteTarget ? target.toString() : path).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(target.getHost()).append(port>-1 && port!=target.getDefaultPort() ? ":" + port : "").append("\r\n");
+        if (pageRequest.getUserAgent() != null) {
+            head.append("User-Agent: ").append(pageRequest.getUserAgent()).append("\r\n");
+        }
+        if (pageRequest.getReferrer() != null) {
+            head.append("Referer: ").append(pageRequest.getReferrer()).append("\r\n");
+        }
+        if (!containsIgnoreCase(headerMap, "Accept")) {
+            head.append("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n");
+        }
+        if (!containsIgnoreCase(headerMap, "Accept-Encoding")) {
+            head.append("Accept-Encoding: gzip, deflate\r\n");     // body kept compressed, decompressed while parsing
+        }
+        head.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+        if (cookieMap!=null && !cookieMap.isEmpty()) {
+            head.append("Cookie: ");
+            boolean first = true;
+            for (Map.Entry<String, String> cookie: cookieMap.entrySet()) {
+                head.append(first ? "" : "; ").append(cookie.getKey()).append('=').append(cookie.getValue());
+                first = false;
+            }
+            head.append("\r\n");
+        }
+        for (Map.Entry<String, String> header: headerMap.entrySet()) {
+            String name = header.getKey();
+            if ("Host".equalsIgnoreCase(name) || "Connection".equalsIgnoreCase(name)
+                    || "Content-Length".equalsIgnoreCase(name)) {
+                continue;       // controlled by loader
+            }
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (post) {
+            head.append("Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n");
+            head.append("Content-Length: ").append(body!=null ? body.length : 0).append("\r\n");
+        }
+        head.append("\r\n");
+
+        byte[] headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+        if (!post || body==null) {
+            return headBytes;
+        }
+        byte[] request = Arrays.copyOf(headBytes, headBytes.length + body.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+        return request;
+    }
+
+    // ---------------------- response ----------------------
+
+    /**
+     * redirect url of response, and keep cookies it sets
+     *
+     * @param url
+     * @param response
+     * @param cookieMap
+     * @return String, null if not redirect
+     */
+    static String redirectUrl(String url, ResponseParser response, Map<String, String> cookieMap) throws MalformedURLException {
+        int status = response.getStatus();
+        String location = response.getHeader("Location");
+        if (!(status>=300 && status<400 && status!=304 && location!=null)) {
+            return null;
+        }
+        for (String setCookie: response.getHeaders("Set-Cookie")) {
+            int eq = setCookie.indexOf('=');
+            if (eq > 0) {
+                int end = setCookie.indexOf(';');
+                cookieMap.put(setCookie.substring(0, eq).trim(), setCookie.substring(eq + 1, end>eq ? end : setCookie.length()).trim());
+            }
+        }
+        return new URL(new URL(url), location).toString();
+    }
+
+    /**
+     * page response of final response, status and content type are validated by caller; body kept as received, compressed or not
+     *
+     * @param pageRequest   origin page request
+     * @param url           final url, base uri of document
+     * @param response
+     * @return PageResponse
+     */
+    static PageResponse response(PageRequest pageRequest, String url, ResponseParser response) {
+        return new PageResponse(pageRequest.getUrl(), url, response.getStatus(), response.getHeaderMap(), response.getBody(), pageRequest.getMaxBodySize());
+    }
+
+    /**
+     * incremental http response parser: status line, headers, and body of content-length / chunked / close-delimited
+     *
+     * body on the wire, compressed or not, is limited by maxBodySize
+     */
+    static class ResponseParser {
+        private static final int HEAD_MAX = 64 * 1024;
+        private static final int CHUNK_SIZE = 0, CHUNK_DATA = 1, CHUNK_DATA_END = 2, CHUNK_TRAILER = 3;
+
+        private final ByteArrayOutputStream head = new ByteArrayOutputStream(1024);
+        private int headTail = 0;               // last 4 bytes of head
+        private boolean headDone = false;
+        private int status;
+        private String version;
+        private final Map<String, List<String>> headers = new HashMap<String, List<String>>();
+        private long contentLength = -1;
+        private boolean chunked = false;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream(16 * 1024);
+        private final int maxBodySize;          // limit of body on the wire, not limited if not greater than 0
+
+        private int chunkState = CHUNK_SIZE;
+        private long chunkRemaining;
+        private final StringBuilder chunkLine = new StringBuilder();
+
+        ResponseParser(int maxBodySize) {
+            this.maxBodySize = maxBodySize;
+        }
+
+        /**
+         * @return boolean  true if response complete
+         */
+        boolean feed(byte[] bytes, int offset, int length) throws IOException {
+            return feed(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        /**
+         * @return boolean  true if response complete
+         */
+        boolean feed(ByteBuffer buffer) throws IOException {
+            while (!headDone) {
+                if (!buffer.hasRemaining()) {
+                    return false;
+                }
+                byte b = buffer.get();
+                head.write(b);
+                headTail = (headTail << 8) | (b & 0xff);
+                if (head.size() > HEAD_MAX) {
+                    throw new IOException("response head too large.");
+                }
+                if (endsWithBlankLine()) {
+                    parseHead();
+                    if (status>=100 && status<200) {
+                        resetHead();        // interim response, e.g. "100 Continue"
+                        continue;
+                    }
+                    headDone = true;
+                    if (status==204 || status==304 || contentLength==0) {
+                        return true;
+                    }
+                }
+            }
+
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return chunked ? feedChunked(bytes) : feedBody(bytes, 0, bytes.length);
+        }
+
+        boolean finishOnClose() {
+            return headDone && !chunked && contentLength<0;
+        }
+
+        private boolean feedBody(byte[] bytes, int offset, int length) throws IOException {
+            if (contentLength >= 0) {
+                length = (int) Math.min(length, contentLength - body.size());
+            }
+            writeBody(bytes, offset, length);
+            return contentLength>=0 && body.size()>=contentLength;
+        }
+
+        private void writeBody(byte[] bytes, int offset, int length) throws IOException {
+            if (maxBodySize>0 && body.size()+length>maxBodySize) {
+                throw new IOException("response body too large, maxBodySize : " + maxBodySize);
+            }
+            body.write(bytes, offset, length);
+        }
+
+        private boolean feedChunked(byte[] bytes) throws IOException {
+            int i = 0;
+            while (i < bytes.length) {
+                if (chunkState == CHUNK_DATA) {
+                    int num = (int) Math.min(chunkRemaining, bytes.length - i);
+                    writeBody(bytes, i, num);
+                    i += num;
+                    chunkRemaining -= num;
+                    if (chunkRemaining == 0) {
+                        chunkState = CHUNK_DATA_END;
+                    }
+                    continue;
+                }
+
+                char c = (char) (bytes[i++] & 0xff);
+                if (c != '\n') {
+                    if (c != '\r') {
+                        chunkLine.append(c);
+                    }
+                    continue;
+                }
+                String line = chunkLine.toString().trim();
+                chunkLine.setLength(0);
+                if (chunkState == CHUNK_SIZE) {
+                    int ext = line.indexOf(';');
+                    try {
+                        chunkRemaining = Long.parseLong(ext>-1 ? line.substring(0, ext).trim() : line, 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("chunk size invalid : " + line);
+                    }
+                    chunkState = chunkRemaining>0 ? CHUNK_DATA : CHUNK_TRAILER;
+                } else if (chunkState == CHUNK_DATA_END) {
+                    chunkState = CHUNK_SIZE;
+                } else if (line.length() == 0) {
+                    return true;        // end of trailer
+                }
+            }
+            return false;
+        }
+
+        private boolean endsWithBlankLine() {
+            return headTail==0x0d0a0d0a || (headTail & 0xffff)==0x0a0a;      // "\r\n\r\n" or "\n\n"
+        }
+
+        private void parseHead() throws IOException {
+            String[] lines = new String(head.toByteArray(), StandardCharsets.ISO_8859_1).split("\r?\n");
+            String[] statusLine = lines[0].split(" ", 3);
+            if (statusLine.length<2 || !statusLine[0].startsWith("HTTP/")) {
+                throw new IOException("status line invalid : " + lines[0]);
+            }
+            version = statusLine[0];
+            try {
+                status = Integer.parseInt(statusLine[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IOException("status line invalid : " + lines[0]);
+            }
+
+            headers.clear();
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    String name = lines[i].substring(0, colon).trim().toLowerCase();
+                    List<String> values = headers.get(name);
+                    if (values == null) {
+                        values = new ArrayList<String>(1);
+                        headers.put(name, values);
+                    }
+                    values.add(lines[i].substring(colon + 1).trim());
+                }
+            }
+
+            String transferEncoding = getHeader("Transfer-Encoding");
+            chunked = transferEncoding!=null && transferEncoding.toLowerCase().contains("chunked");
+            String length = getHeader("Content-Length");
+            if (!chunked && length!=null) {
+                try {
+                    contentLength = Long.parseLong(length);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Content-Length invalid : " + length);
+                }
+                if (maxBodySize>0 && contentLength>maxBodySize && status!=204 && status!=304) {
+                    throw new IOException("response body too large, maxBodySize : " + maxBodySize + ", Content-Length : " + contentLength);
+                }
+            }
+        }
+
+        private void resetHead() {
+            head.reset();
+            headTail = 0;
+            headers.clear();
+            contentLength = -1;
+            chunked = false;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        byte[] getBody() {
+            return body.toByteArray();
+        }
+
+        /**
+         * connection reusable after this response: persistent by version and "Connection" header, and body delimited by length
+         */
+        boolean isKeepAlive() {
+            String connection = getHeader("Connection");
+            boolean persistent = "HTTP/1.1".equals(version)
+                    ? !(connection!=null && connection.toLowerCase().contains("close"))
+                    : connection!=null && connection.toLowerCase().contains("keep-alive");
+            return persistent && (chunked || contentLength>=0 || status==204 || status==304);
+        }
+
+        String getHeader(String name) {
+            List<String> values = headers.get(name.toLowerCase());
+            return values!=null && values.size()>0 ? values.get(0) : null;
+        }
+
+        List<String> getHeaders(String name) {
+            List<String> values = headers.get(name.toLowerCase());
+            return values!=null ? values : Collections.<String>emptyList();
+        }
+
+        Map<String, List<String>> getHeaderMap() {
+            return headers;
+        }
+    }
+
+    // ---------------------- tls ----------------------
+
+    private static volatile SSLContext trustAllContext;
+
+    /**
+     * @param validateTLS   false: trust all certificates
+     * @return SSLContext
+     */
+    static SSLContext sslContext(boolean validateTLS) throws IOException {
+        try {
+            if (validateTLS) {
+                return SSLContext.getDefault();
+            }
+            if (trustAllContext == null) {
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[]{new X509TrustManager() {
+                    @Override
+                    public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                    }
+                    @Override
+                    public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                    }
+                    @Override
+                    public X509Certificate[] getAcceptedIssuers() {
+                        return new X509Certificate[0];
+                    }
+                }}, null);
+                trustAllContext = sslContext;
+            }
+            return trustAllContext;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("init ssl fail, error : " + e.getMessage());
+        }
+    }
+
+    // ---------------------- util ----------------------
+
+    static String encodeParams(Map<String, String> paramMap) {
+        StringBuilder query = new StringBuilder();
+        try {
+            for (Map.Entry<String, String> param: paramMap.entrySet()) {
+                if (query.length() > 0) {
+                    query.append('&');
+                }
+                query.append(URLEncoder.encode(param.getKey(), "UTF-8")).append('=')
+                        .append(URLEncoder.encode(param.getValue()!=null ? param.getValue() : "", "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new XxlCrawlerException(e.getMessage());
+        }
+        return query.toString();
+    }
+
+    static boolean containsIgnoreCase(Map<String, String> map, String name) {
+        for (String key: map.keySet()) {
+            if (name.equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
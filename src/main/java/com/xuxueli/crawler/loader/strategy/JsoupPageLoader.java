@@ -2,6 +2,7 @@ package com.xuxueli.crawler.loader.strategy;
 
 import com.xuxueli.crawler.loader.PageLoader;
 import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
 import com.xuxueli.crawler.util.JsoupUtil;
 import org.jsoup.nodes.Document;
 
@@ -17,4 +18,9 @@ public class JsoupPageLoader extends PageLoader {
         return JsoupUtil.load(pageRequest);
     }
 
+    @Override
+    public PageResponse loadResponse(PageRequest pageRequest) {
+        return JsoupUtil.loadResponse(pageRequest);
+    }
+
 }
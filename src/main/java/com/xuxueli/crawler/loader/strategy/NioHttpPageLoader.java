@@ -0,0 +1,884 @@
+package com.xuxueli.crawler.loader.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.loader.AsyncPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLParameters;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * nio http page loader
+ *
+ * 基于NIO的异步HTTP页面加载器：少量事件循环线程（Selector）驱动全部连接，并发请求数不受线程数限制；
+ *
+ *      协议：HTTP/1.1，每个请求独立连接（Connection: close），支持 Content-Length / chunked / 连接关闭 三种响应体边界；
+ *      https：TLS握手及加解密（SSLEngine）在事件循环线程中进行，支持TLS证书校验开关；
+ *      代理：HTTP代理（https 经 "CONNECT" 隧道）、SOCKS5代理（无认证，或经 Authenticator 提供用户名密码），握手均在事件循环线程中进行；
+ *      重定向：自动跟随，最多5次；301/302/303 转为GET请求；
+ *      压缩：声明支持 gzip / deflate，响应体以压缩形式保存，解析时边解压边读取；响应体大小受 maxBodySize 限制；
+ *      请求：支持 PageRequest 全部参数（请求参数、Cookie、Header、UserAgent、Referrer、POST、超时、TLS证书校验、代理）；
+ *      DNS ：域名解析为阻塞操作，在独立线程池中执行（至多 resolveThreadCount 个线程，默认64），不占用事件循环线程及调用方线程；
+ *      超时：timeoutMillis 为单次加载的总时限，自调用 loadAsync 起计算，包含DNS解析排队、连接、握手、读写及重定向；
+ *
+ * 异步回调返回未解析的页面响应，事件循环线程不做DOM解析；同步 load 方法中，响应状态码非2xx/3xx、或内容类型非文本/XML时加载失败，与 "JsoupPageLoader" 保持一致。
+ */
+public class NioHttpPageLoader extends AsyncPageLoader {
+    private static Logger logger = LoggerFactory.getLogger(NioHttpPageLoader.class);
+
+    private static final int TIMEOUT_CHECK_MILLIS = 100;
+
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger(0);
+    private final ExecutorService resolveExecutor;          // DNS解析，有界
+    private final Set<Exchange> resolvingSet = Collections.newSetFromMap(new ConcurrentHashMap<Exchange, Boolean>());     // 等待或正在DNS解析，超时由首个事件循环检测
+    private volatile boolean closed = false;
+
+    public NioHttpPageLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param ioThreadCount     事件循环线程数，建议与CPU核数一致
+     */
+    public NioHttpPageLoader(int ioThreadCount) {
+        this(ioThreadCount, 64);
+    }
+
+    /**
+     * @param ioThreadCount         事件循环线程数，建议与CPU核数一致
+     * @param resolveThreadCount    DNS解析线程池的线程数上限
+     */
+    public NioHttpPageLoader(int ioThreadCount, int resolveThreadCount) {
+        if (ioThreadCount < 1) {
+            throw new XxlCrawlerException("NioHttpPageLoader ioThreadCount invalid, ioThreadCount : " + ioThreadCount);
+        }
+        if (resolveThreadCount < 1) {
+            throw new XxlCrawlerException("NioHttpPageLoader resolveThreadCount invalid, resolveThreadCount : " + resolveThreadCount);
+        }
+        resolveExecutor = newBoundedExecutor(resolveThreadCount, "xxl-crawler-nio-loader-resolve-");
+        eventLoops = new EventLoop[ioThreadCount];
+        for (int i = 0; i < ioThreadCount; i++) {
+            try {
+                eventLoops[i] = new EventLoop(i);
+            } catch (IOException e) {
+                close();
+                throw new XxlCrawlerException("NioHttpPageLoader start fail, error : " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * at most threadCount daemon threads, idle ones time out; tasks beyond are queued
+     */
+    private static ExecutorService newBoundedExecutor(int threadCount, final String threadPrefix) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger index = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, threadPrefix + index.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * close event loops, inflight loads fail
+     */
+    public void close() {
+        closed = true;
+        for (EventLoop eventLoop: eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.wakeup();
+            }
+        }
+        if (resolveExecutor != null) {
+            resolveExecutor.shutdownNow();
+        }
+        IOException error = new IOException("NioHttpPageLoader closed.");
+        for (Exchange exchange: resolvingSet) {
+            if (resolvingSet.remove(exchange)) {
+                exchange.fail(error);
+            }
+        }
+    }
+
+    /**
+     * resolve host, blocking, called in resolve pool; may be overridden, e.g. by a dns cache
+     *
+     * @param host
+     * @return InetAddress
+     */
+    protected InetAddress resolve(String host) throws UnknownHostException {
+        return InetAddress.getByName(host);
+    }
+
+    // ---------------------- load ----------------------
+
+    @Override
+    public void loadAsync(PageRequest pageRequest, Callback callback) {
+        if (closed) {
+            callback.onFail(new IOException("NioHttpPageLoader closed."));
+            return;
+        }
+        if (!UrlUtil.isUrl(pageRequest.getUrl())) {
+            callback.onFail(new MalformedURLException("url invalid, url : " + pageRequest.getUrl()));
+            return;
+        }
+
+        String url = pageRequest.getUrl();
+        byte[] body = null;
+        if (pageRequest.getParamMap()!=null && !pageRequest.getParamMap().isEmpty()) {
+            String query = HttpCodec.encodeParams(pageRequest.getParamMap());
+            if (pageRequest.isIfPost()) {
+                body = query.getBytes(StandardCharsets.UTF_8);
+            } else {
+                url += (url.indexOf('?')>-1 ? "&" : "?") + query;
+            }
+        }
+        Map<String, String> cookieMap = new LinkedHashMap<String, String>();
+        if (pageRequest.getCookieMap() != null) {
+            cookieMap.putAll(pageRequest.getCookieMap());
+        }
+        long deadline = pageRequest.getTimeoutMillis()>0 ? System.currentTimeMillis() + pageRequest.getTimeoutMillis() : Long.MAX_VALUE;
+
+        start(new Exchange(pageRequest, url, pageRequest.isIfPost(), body, cookieMap, 0, deadline, callback));
+    }
+
+    /**
+     * start exchange, called by loadAsync and on redirect (event loop thread): dns is resolved in resolve pool
+     */
+    private void start(final Exchange exchange) {
+        final InetSocketAddress unresolved;
+        try {
+            URL target = new URL(exchange.url);
+            boolean https = "https".equalsIgnoreCase(target.getProtocol());
+            if (!https && !"http".equalsIgnoreCase(target.getProtocol())) {
+                throw new MalformedURLException("protocol not supported, url : " + exchange.url);
+            }
+            Proxy proxy = exchange.pageRequest.getProxy();
+            Proxy.Type proxyType = proxy!=null ? proxy.type() : Proxy.Type.DIRECT;
+            if (proxyType == Proxy.Type.DIRECT) {
+                unresolved = InetSocketAddress.createUnresolved(target.getHost(), target.getPort()>-1 ? target.getPort() : target.getDefaultPort());
+            } else {
+                unresolved = (InetSocketAddress) proxy.address();       // target host is resolved by proxy
+            }
+            exchange.prepare(target, https, proxyType);
+        } catch (IOException e) {
+            exchange.fail(e);
+            return;
+        } catch (RuntimeException e) {
+            exchange.fail(e);
+            return;
+        }
+
+        if (!unresolved.isUnresolved()) {
+            connect(exchange, unresolved);
+            return;
+        }
+        resolvingSet.add(exchange);
+        try {
+            resolveExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (exchange.isDone()) {
+                        return;     // timed out while queued
+                    }
+                    InetSocketAddress address;
+                    try {
+                        address = new InetSocketAddress(resolve(unresolved.getHostString()), unresolved.getPort());
+                    } catch (UnknownHostException e) {
+                        if (resolvingSet.remove(exchange)) {
+                            exchange.fail(e);
+                        }
+                        return;
+                    }
+                    if (resolvingSet.remove(exchange)) {
+                        connect(exchange, address);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (resolvingSet.remove(exchange)) {
+                exchange.fail(new IOException("NioHttpPageLoader closed."));
+            }
+        }
+    }
+
+    private void connect(Exchange exchange, InetSocketAddress address) {
+        exchange.address = address;
+        eventLoops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % eventLoops.length].submit(exchange);
+    }
+
+    /**
+     * fail exchanges waiting for dns beyond deadline
+     */
+    private void checkResolving(long now) {
+        for (Exchange exchange: resolvingSet) {
+            if (exchange.deadline<now && resolvingSet.remove(exchange)) {
+                exchange.fail(new SocketTimeoutException("resolve timed out, url : " + exchange.url));
+            }
+        }
+    }
+
+    // ---------------------- event loop ----------------------
+
+    private class EventLoop implements Runnable {
+        private final int index;
+        private final Selector selector;
+        private final Queue<Exchange> pendingQueue = new ConcurrentLinkedQueue<Exchange>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);      // loop confined
+        private long lastTimeoutCheck = System.currentTimeMillis();
+
+        EventLoop(int index) throws IOException {
+            this.index = index;
+            selector = Selector.open();
+            Thread thread = new Thread(this, "xxl-crawler-nio-loader-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(Exchange exchange) {
+            pendingQueue.add(exchange);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try {
+                    selector.select(TIMEOUT_CHECK_MILLIS);
+
+                    Exchange exchange;
+                    while ((exchange = pendingQueue.poll()) != null) {
+                        exchange.open(selector, readBuffer);
+                    }
+
+                    Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                    while (keyIterator.hasNext()) {
+                        SelectionKey key = keyIterator.next();
+                        keyIterator.remove();
+                        ((Exchange) key.attachment()).handle(key, readBuffer);
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now - lastTimeoutCheck >= TIMEOUT_CHECK_MILLIS) {
+                        lastTimeoutCheck = now;
+                        for (SelectionKey key: selector.keys()) {
+                            Exchange item = (Exchange) key.attachment();
+                            if (item.deadline < now) {
+                                item.fail(new SocketTimeoutException("timed out, url : " + item.url));
+                            }
+                        }
+                        if (index == 0) {
+                            checkResolving(now);
+                        }
+                    }
+                } catch (Throwable e) {
+                    logger.error(">>>>>>>>>>> xxl-crawler NioHttpPageLoader event loop error.", e);
+                }
+            }
+
+            // closed
+            IOException error = new IOException("NioHttpPageLoader closed.");
+            for (SelectionKey key: selector.keys()) {
+                ((Exchange) key.attachment()).fail(error);
+            }
+            Exchange exchange;
+            while ((exchange = pendingQueue.poll()) != null) {
+                exchange.fail(error);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    // ---------------------- exchange ----------------------
+
+    private static final int CONNECT = 0, TUNNEL = 1, SOCKS_METHOD = 2, SOCKS_AUTH = 3, SOCKS_CONNECT = 4, HANDSHAKE = 5, REQUEST = 6, RESPONSE = 7;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * one request and its response, on a dedicated connection; stages run on event loop:
+     * connect -> proxy handshake (CONNECT tunnel / SOCKS5) -> tls handshake -> request -> response
+     */
+    private class Exchange {
+        private final PageRequest pageRequest;
+        private final String url;
+        private final boolean post;
+        private final byte[] body;
+        private final Map<String, String> cookieMap;
+        private final int redirectNum;
+        private final long deadline;            // of the whole load, redirects included
+        private final Callback callback;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        private URL target;
+        private boolean https;
+        private Proxy.Type proxyType;
+        private volatile InetSocketAddress address;     // set by resolve thread, read by event loop
+        private ByteBuffer requestBuffer;
+
+        // connection, event loop confined
+        private SocketChannel channel;
+        private SelectionKey key;
+        private int stage = CONNECT;
+        private ByteBuffer netIn;               // write mode, raw bytes read: proxy replies, tls records
+        private ByteBuffer netOut;              // read mode, raw bytes to write
+        private SSLEngine engine;
+        private ByteBuffer appIn;               // write mode, decrypted bytes
+
+        // response
+        private final HttpCodec.ResponseParser response;
+
+        Exchange(PageRequest pageRequest, String url, boolean post, byte[] body, Map<String, String> cookieMap, int redirectNum, long deadline, Callback callback) {
+            this.pageRequest = pageRequest;
+            this.url = url;
+            this.post = post;
+            this.body = body;
+            this.cookieMap = cookieMap;
+            this.redirectNum = redirectNum;
+            this.deadline = deadline;
+            this.callback = callback;
+            this.response = new HttpCodec.ResponseParser(pageRequest.getMaxBodySize());
+        }
+
+        boolean isDone() {
+            return done.get();
+        }
+
+        void prepare(URL target, boolean https, Proxy.Type proxyType) {
+            this.target = target;
+            this.https = https;
+            this.proxyType = proxyType;
+            this.requestBuffer = ByteBuffer.wrap(HttpCodec.encodeRequest(pageRequest, target, post, body, cookieMap,
+                    proxyType==Proxy.Type.HTTP && !https, false));       // absolute target for plain http proxy, tunnel otherwise
+        }
+
+        void open(Selector selector, ByteBuffer readBuffer) {
+            if (isDone()) {
+                return;
+            }
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.connect(address);
+                key = channel.register(selector, 0, this);
+                process(readBuffer);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void handle(SelectionKey key, ByteBuffer readBuffer) {
+            if (isDone() || !key.isValid()) {
+                return;
+            }
+            try {
+                process(readBuffer);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * run stages until waiting for io, interest ops set for the awaited one
+         */
+        private void process(ByteBuffer readBuffer) throws IOException {
+            while (!isDone()) {
+                if (netOut!=null && netOut.hasRemaining()) {
+                    channel.write(netOut);
+                    if (netOut.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+
+                switch (stage) {
+                    case CONNECT:
+                        if (!channel.finishConnect()) {
+                            key.interestOps(SelectionKey.OP_CONNECT);
+                            return;
+                        }
+                        connected();
+                        break;
+                    case TUNNEL:
+                    case SOCKS_METHOD:
+                    case SOCKS_AUTH:
+                    case SOCKS_CONNECT:
+                        if (!proxyReply() && !readNet()) {
+                            return;
+                        }
+                        break;
+                    case HANDSHAKE:
+                        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                        if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                            runTasks();
+                        } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                            wrap(EMPTY);
+                        } else if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                            if (!unwrap() && !readNet()) {
+                                return;
+                            }
+                        } else {
+                            stage = REQUEST;
+                        }
+                        break;
+                    case REQUEST:
+                        if (engine == null) {
+                            netOut = requestBuffer;
+                            stage = RESPONSE;
+                        } else if (requestBuffer.hasRemaining()) {
+                            wrap(requestBuffer);
+                        } else {
+                            stage = RESPONSE;
+                        }
+                        break;
+                    default:
+                        if (engine == null) {
+                            readResponse(readBuffer);
+                            return;
+                        }
+                        if (!readTlsResponse()) {
+                            return;
+                        }
+                        break;
+                }
+            }
+        }
+
+        private void connected() throws IOException {
+            if (proxyType==Proxy.Type.HTTP && https) {
+                String authority = target.getHost() + ":" + port();
+                netOut = ByteBuffer.wrap(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                netIn = ByteBuffer.allocate(1024);
+                stage = TUNNEL;
+            } else if (proxyType == Proxy.Type.SOCKS) {
+                netOut = ByteBuffer.wrap(new byte[]{5, 2, 0, 2});      // no auth, username/password
+                netIn = ByteBuffer.allocate(1024);
+                stage = SOCKS_METHOD;
+            } else {
+                proxied();
+            }
+        }
+
+        private void proxied() throws IOException {
+            if (https) {
+                startTls();
+            } else {
+                stage = REQUEST;
+            }
+        }
+
+        private int port() {
+            return target.getPort()>-1 ? target.getPort() : target.getDefaultPort();
+        }
+
+        // ---------------------- proxy ----------------------
+
+        /**
+         * consume proxy reply from netIn
+         *
+         * @return boolean  false if reply incomplete
+         */
+        private boolean proxyReply() throws IOException {
+            netIn.flip();
+            if (stage == TUNNEL) {
+                int headEnd = -1;
+                for (int i = netIn.position(); i+3 < netIn.limit(); i++) {
+                    if (netIn.get(i)=='\r' && netIn.get(i+1)=='\n' && netIn.get(i+2)=='\r' && netIn.get(i+3)=='\n') {
+                        headEnd = i + 4;
+                        break;
+                    }
+                }
+                if (headEnd < 0) {
+                    return awaitReply();
+                }
+                byte[] head = new byte[headEnd - netIn.position()];
+                netIn.get(head);
+                netIn.compact();        // tunnel bytes after head, if any, are kept for tls
+                String statusLine = new String(head, StandardCharsets.ISO_8859_1);
+                statusLine = statusLine.substring(0, statusLine.indexOf("\r\n"));
+                String[] items = statusLine.split(" ");
+                if (items.length<2 || !"200".equals(items[1])) {
+                    throw new IOException("proxy tunnel fail, target : " + target.getHost() + ":" + port() + ", response : " + statusLine);
+                }
+                proxied();
+                return true;
+            }
+
+            if (stage == SOCKS_METHOD) {
+                if (netIn.remaining() < 2) {
+                    return awaitReply();
+                }
+                byte version = netIn.get();
+                byte method = netIn.get();
+                netIn.compact();
+                if (version != 5) {
+                    throw new IOException("socks proxy version not supported, version : " + version);
+                }
+                if (method == 0) {
+                    socksConnect();
+                } else if (method == 2) {
+                    socksAuth();
+                } else {
+                    throw new IOException("socks proxy authentication method not supported, method : " + (method & 0xff));
+                }
+                return true;
+            }
+
+            if (stage == SOCKS_AUTH) {
+                if (netIn.remaining() < 2) {
+                    return awaitReply();
+                }
+                netIn.get();
+                byte authStatus = netIn.get();
+                netIn.compact();
+                if (authStatus != 0) {
+                    throw new IOException("socks proxy authentication fail.");
+                }
+                socksConnect();
+                return true;
+            }
+
+            // SOCKS_CONNECT: version, reply, reserved, address type, bound address, bound port
+            if (netIn.remaining() < 5) {
+                return awaitReply();
+            }
+            int base = netIn.position();
+            int addressType = netIn.get(base + 3);
+            int addressLength = addressType==1 ? 4 : (addressType==4 ? 16 : 1 + (netIn.get(base + 4) & 0xff));
+            if (netIn.remaining() < 4 + addressLength + 2) {
+                return awaitReply();
+            }
+            int reply = netIn.get(base + 1);
+            netIn.position(base + 4 + addressLength + 2);
+            netIn.compact();
+            if (reply != 0) {
+                throw new IOException("socks proxy connect fail, target : " + target.getHost() + ":" + port() + ", reply : " + reply);
+            }
+            proxied();
+            return true;
+        }
+
+        private boolean awaitReply() {
+            netIn.compact();
+            return false;
+        }
+
+        private void socksAuth() throws IOException {
+            InetSocketAddress proxyAddress = address;
+            PasswordAuthentication auth = Authenticator.requestPasswordAuthentication(proxyAddress.getHostString(), proxyAddress.getAddress(), proxyAddress.getPort(),
+                    "SOCKS5", "SOCKS authentication", null);
+            if (auth == null) {
+                throw new IOException("socks proxy authentication required, no credentials by Authenticator.");
+            }
+            byte[] user = auth.getUserName().getBytes(StandardCharsets.ISO_8859_1);
+            byte[] password = new String(auth.getPassword()).getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer request = ByteBuffer.allocate(3 + user.length + password.length);
+            request.put((byte) 1).put((byte) user.length).put(user).put((byte) password.length).put(password);
+            request.flip();
+            netOut = request;
+            stage = SOCKS_AUTH;
+        }
+
+        private void socksConnect() {
+            byte[] host = target.getHost().getBytes(StandardCharsets.ISO_8859_1);      // resolved by proxy
+            int port = port();
+            ByteBuffer request = ByteBuffer.allocate(7 + host.length);
+            request.put((byte) 5).put((byte) 1).put((byte) 0).put((byte) 3).put((byte) host.length).put(host)
+                    .put((byte) (port >> 8)).put((byte) port);
+            request.flip();
+            netOut = request;
+            stage = SOCKS_CONNECT;
+        }
+
+        // ---------------------- tls ----------------------
+
+        private void startTls() throws IOException {
+            boolean validateTLS = pageRequest.isValidateTLSCertificates();
+            engine = HttpCodec.sslContext(validateTLS).createSSLEngine(target.getHost(), port());
+            engine.setUseClientMode(true);
+            if (validateTLS) {
+                SSLParameters sslParameters = engine.getSSLParameters();
+                sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                engine.setSSLParameters(sslParameters);
+            }
+
+            int packetSize = engine.getSession().getPacketBufferSize();
+            ByteBuffer tunnelBytes = netIn;
+            netIn = ByteBuffer.allocate(packetSize);
+            if (tunnelBytes != null) {
+                tunnelBytes.flip();
+                netIn = ensure(netIn, tunnelBytes.remaining());
+                netIn.put(tunnelBytes);
+            }
+            netOut = ByteBuffer.allocate(packetSize);
+            netOut.flip();
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            engine.beginHandshake();
+            stage = HANDSHAKE;
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        /**
+         * encrypt src into netOut, called when netOut is drained
+         */
+        private void wrap(ByteBuffer src) throws IOException {
+            while (true) {
+                netOut.compact();
+                SSLEngineResult result;
+                try {
+                    result = engine.wrap(src, netOut);
+                } finally {
+                    netOut.flip();
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.max(engine.getSession().getPacketBufferSize(), netOut.capacity() * 2));
+                    bigger.put(netOut);
+                    bigger.flip();
+                    netOut = bigger;
+                    continue;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new EOFException("tls closed, url : " + url);
+                }
+                return;
+            }
+        }
+
+        /**
+         * decrypt from netIn into appIn
+         *
+         * @return boolean  false if more bytes needed from channel
+         */
+        private boolean unwrap() throws IOException {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    netIn = ensure(netIn, Math.max(engine.getSession().getPacketBufferSize() - netIn.position(), 1));
+                    return false;
+                case BUFFER_OVERFLOW:
+                    appIn = ensure(appIn, Math.max(engine.getSession().getApplicationBufferSize(), appIn.remaining() + 1));
+                    return true;
+                case CLOSED:
+                    throw new EOFException("tls closed, url : " + url);
+                default:
+                    return result.bytesConsumed()>0 || result.bytesProduced()>0;
+            }
+        }
+
+        /**
+         * @return boolean  false if waiting for io, or done
+         */
+        private boolean readTlsResponse() throws IOException {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+                return true;
+            }
+            if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrap(EMPTY);        // e.g. key update
+                return true;
+            }
+
+            boolean unwrapped;
+            try {
+                unwrapped = unwrap();
+            } catch (EOFException e) {
+                closed();           // close_notify
+                return false;
+            }
+            if (appIn.position() > 0) {
+                appIn.flip();
+                boolean complete = response.feed(appIn);
+                appIn.clear();
+                if (complete) {
+                    complete();
+                    return false;
+                }
+            }
+            if (unwrapped) {
+                return true;
+            }
+
+            netIn = ensure(netIn, 1);
+            int readNum = channel.read(netIn);
+            if (readNum < 0) {
+                closed();
+                return false;
+            }
+            if (readNum == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                return false;
+            }
+            return true;
+        }
+
+        // ---------------------- read ----------------------
+
+        /**
+         * read into netIn
+         *
+         * @return boolean  false if nothing to read yet, waiting for OP_READ
+         */
+        private boolean readNet() throws IOException {
+            netIn = ensure(netIn, 1);
+            int readNum = channel.read(netIn);
+            if (readNum < 0) {
+                throw new EOFException("connection closed, url : " + url);
+            }
+            if (readNum == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                return false;
+            }
+            return true;
+        }
+
+        private void readResponse(ByteBuffer readBuffer) throws IOException {
+            while (true) {
+                readBuffer.clear();
+                int readNum = channel.read(readBuffer);
+                if (readNum < 0) {
+                    closed();
+                    return;
+                }
+                if (readNum == 0) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                readBuffer.flip();
+                if (response.feed(readBuffer)) {
+                    complete();
+                    return;
+                }
+            }
+        }
+
+        private void closed() throws IOException {
+            if (!response.finishOnClose()) {
+                throw new IOException("connection closed before response complete, url : " + url);
+            }
+            complete();
+        }
+
+        private void complete() {
+            closeChannel();
+            try {
+                // redirect
+                String redirectUrl = HttpCodec.redirectUrl(url, response, cookieMap);
+                if (redirectUrl != null) {
+                    if (redirectNum >= HttpCodec.REDIRECT_MAX) {
+                        throw new IOException("too many redirects, url : " + pageRequest.getUrl());
+                    }
+                    int status = response.getStatus();
+                    boolean keepPost = post && (status==307 || status==308);
+                    if (done.compareAndSet(false, true)) {
+                        start(new Exchange(pageRequest, redirectUrl, keepPost, keepPost ? body : null, cookieMap, redirectNum + 1, deadline, callback));
+                    }
+                    return;
+                }
+
+                succeed(HttpCodec.response(pageRequest, url, response));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void succeed(PageResponse pageResponse) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                callback.onSuccess(pageResponse);
+            } catch (Throwable e) {
+                logger.error(">>>>>>>>>>> xxl-crawler NioHttpPageLoader callback error.", e);
+            }
+        }
+
+        void fail(Throwable error) {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            closeChannel();
+            try {
+                callback.onFail(error);
+            } catch (Throwable e) {
+                logger.error(">>>>>>>>>>> xxl-crawler NioHttpPageLoader callback error.", e);
+            }
+        }
+
+        private void closeChannel() {
+            if (key != null) {
+                key.cancel();
+            }
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    // ---------------------- buffer ----------------------
+
+    /**
+     * buffer in write mode with at least minRemaining space
+     */
+    private static ByteBuffer ensure(ByteBuffer buffer, int minRemaining) {
+        if (buffer.remaining() >= minRemaining) {
+            return buffer;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + minRemaining));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+}
@@ -0,0 +1,451 @@
+package com.xuxueli.crawler.loader.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.loader.PageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * pooled http page loader
+ *
+ * 连接复用的HTTP页面加载器：按路由（协议 + 主机 + 端口 + 代理）维护持久连接池，同一站点的请求复用已建立的TCP/TLS连接，避免每个页面重复握手；
+ *
+ *      连接池：空闲连接总数上限（maxIdleNum）；单主机连接数上限（maxPerHost，含使用中连接，超出时等待）；空闲超时淘汰（idleTimeoutMillis，同时遵循服务端 Keep-Alive timeout）；
+ *      请求：支持 PageRequest 全部参数（请求参数、Cookie、Header、UserAgent、Referrer、POST、超时、TLS证书校验、HTTP/SOCKS代理）；
+ *      重定向：自动跟随，最多5次；301/302/303 转为GET请求；
+ *      压缩：声明支持 gzip / deflate，响应体以压缩形式保存，解析时边解压边读取；响应体大小受 maxBodySize 限制；
+ *
+ * 复用的空闲连接可能已被服务端关闭，此时GET请求自动以新连接重试。
+ */
+public class PooledHttpPageLoader extends PageLoader {
+    private static Logger logger = LoggerFactory.getLogger(PooledHttpPageLoader.class);
+
+    private final int maxIdleNum;
+    private final int maxPerHost;
+    private final long idleTimeoutMillis;
+
+    private final ConcurrentMap<String, Route> routeMap = new ConcurrentHashMap<String, Route>();
+    private final AtomicInteger idleNum = new AtomicInteger(0);
+    private final ScheduledExecutorService evictor;
+
+    public PooledHttpPageLoader() {
+        this(256, 8, 30000);
+    }
+
+    /**
+     * @param maxIdleNum            空闲连接总数上限
+     * @param maxPerHost            单主机连接数上限，含使用中连接
+     * @param idleTimeoutMillis     空闲连接超时时间，毫秒，超时后关闭
+     */
+    public PooledHttpPageLoader(int maxIdleNum, int maxPerHost, long idleTimeoutMillis) {
+        if (maxIdleNum<0 || maxPerHost<1 || idleTimeoutMillis<1) {
+            throw new XxlCrawlerException("PooledHttpPageLoader param invalid, maxIdleNum/maxPerHost/idleTimeoutMillis : "
+                    + maxIdleNum + "/" + maxPerHost + "/" + idleTimeoutMillis);
+        }
+        this.maxIdleNum = maxIdleNum;
+        this.maxPerHost = maxPerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "xxl-crawler-pooled-loader-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long evictInterval = Math.max(100, Math.min(idleTimeoutMillis / 2, 5000));
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evict();
+            }
+        }, evictInterval, evictInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * close all idle connections, and stop evictor
+     */
+    public void close() {
+        evictor.shutdownNow();
+        for (Route route: routeMap.values()) {
+            PooledConnection connection;
+            while ((connection = route.idleDeque.pollFirst()) != null) {
+                idleNum.decrementAndGet();
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * idle connection num, of all routes
+     *
+     * @return int
+     */
+    public int getIdleNum() {
+        return idleNum.get();
+    }
+
+    // ---------------------- load ----------------------
+
+    @Override
+    public Document load(PageRequest pageRequest) {
+        return parse(pageRequest, loadResponse(pageRequest));
+    }
+
+    @Override
+    public PageResponse loadResponse(PageRequest pageRequest) {
+        if (!UrlUtil.isUrl(pageRequest.getUrl())) {
+            return null;
+        }
+        try {
+            return execute(pageRequest);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private PageResponse execute(PageRequest pageRequest) throws IOException {
+        String url = pageRequest.getUrl();
+        boolean post = pageRequest.isIfPost();
+        byte[] body = null;
+        if (pageRequest.getParamMap()!=null && !pageRequest.getParamMap().isEmpty()) {
+            String query = HttpCodec.encodeParams(pageRequest.getParamMap());
+            if (post) {
+                body = query.getBytes(StandardCharsets.UTF_8);
+            } else {
+                url += (url.indexOf('?')>-1 ? "&" : "?") + query;
+            }
+        }
+        Map<String, String> cookieMap = new LinkedHashMap<String, String>();
+        if (pageRequest.getCookieMap() != null) {
+            cookieMap.putAll(pageRequest.getCookieMap());
+        }
+
+        for (int redirectNum = 0; ; redirectNum++) {
+            HttpCodec.ResponseParser response = exchange(pageRequest, new URL(url), post, body, cookieMap);
+
+            String redirectUrl = HttpCodec.redirectUrl(url, response, cookieMap);
+            if (redirectUrl == null) {
+                return HttpCodec.response(pageRequest, url, response);
+            }
+            if (redirectNum >= HttpCodec.REDIRECT_MAX) {
+                throw new IOException("too many redirects, url : " + pageRequest.getUrl());
+            }
+            int status = response.getStatus();
+            post = post && (status==307 || status==308);
+            body = post ? body : null;
+            url = redirectUrl;
+        }
+    }
+
+    /**
+     * one request on a pooled connection
+     */
+    private HttpCodec.ResponseParser exchange(PageRequest pageRequest, URL target, boolean post, byte[] body, Map<String, String> cookieMap) throws IOException {
+        boolean https = "https".equalsIgnoreCase(target.getProtocol());
+        Proxy proxy = pageRequest.getProxy()!=null ? pageRequest.getProxy() : Proxy.NO_PROXY;
+        int timeoutMillis = Math.max(pageRequest.getTimeoutMillis(), 0);
+        Route route = route(target, proxy, https && pageRequest.isValidateTLSCertificates());
+        byte[] request = HttpCodec.encodeRequest(pageRequest, target, post, body, cookieMap,
+                !https && proxy.type()==Proxy.Type.HTTP, true);
+
+        try {
+            route.acquire(timeoutMillis);
+        } catch (IOException e) {
+            route.unuse();
+            throw e;
+        }
+        try {
+            while (true) {
+                PooledConnection connection = route.pollIdle();
+                boolean reused = connection != null;
+                if (connection == null) {
+                    connection = connect(target, proxy, https, pageRequest.isValidateTLSCertificates(), timeoutMillis);
+                }
+
+                HttpCodec.ResponseParser response = new HttpCodec.ResponseParser(pageRequest.getMaxBodySize());
+                boolean received = false;
+                try {
+                    connection.socket.setSoTimeout(timeoutMillis);
+                    connection.out.write(request);
+                    connection.out.flush();
+
+                    byte[] buffer = new byte[16 * 1024];
+                    while (true) {
+                        int readNum = connection.in.read(buffer);
+                        if (readNum < 0) {
+                            if (!response.finishOnClose()) {
+                                throw new EOFException("connection closed before response complete, url : " + target);
+                            }
+                            connection.close();
+                            return response;
+                        }
+                        received = true;
+                        if (response.feed(buffer, 0, readNum)) {
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                    if (reused && !received && !post) {
+                        continue;       // idle connection closed by server, retry on another one
+                    }
+                    throw e;
+                }
+
+                if (response.isKeepAlive()) {
+                    route.release(connection, keepAliveMillis(response));
+                } else {
+                    connection.close();
+                }
+                return response;
+            }
+        } finally {
+            route.permits.release();
+            route.unuse();
+        }
+    }
+
+    /**
+     * idle time allowed by "Keep-Alive: timeout=N", capped by idleTimeoutMillis
+     */
+    private long keepAliveMillis(HttpCodec.ResponseParser response) {
+        String keepAlive = response.getHeader("Keep-Alive");
+        if (keepAlive != null) {
+            for (String item: keepAlive.split(",")) {
+                item = item.trim();
+                if (item.startsWith("timeout=")) {
+                    try {
+                        long serverMillis = Long.parseLong(item.substring("timeout=".length()).trim()) * 1000 - 500;     // close before server does
+                        return Math.max(0, Math.min(serverMillis, idleTimeoutMillis));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return idleTimeoutMillis;
+    }
+
+    // ---------------------- connect ----------------------
+
+    private PooledConnection connect(URL target, Proxy proxy, boolean https, boolean validateTLS, int timeoutMillis) throws IOException {
+        String host = target.getHost();
+        int port = target.getPort()>-1 ? target.getPort() : target.getDefaultPort();
+
+        Socket socket;
+        if (proxy.type() == Proxy.Type.SOCKS) {
+            socket = new Socket(proxy);
+            socket.connect(InetSocketAddress.createUnresolved(host, port), timeoutMillis);     // resolved by proxy
+        } else if (proxy.type() == Proxy.Type.HTTP) {
+            InetSocketAddress proxyAddress = (InetSocketAddress) proxy.address();
+            socket = new Socket();
+            socket.connect(proxyAddress.isUnresolved() ? new InetSocketAddress(proxyAddress.getHostString(), proxyAddress.getPort()) : proxyAddress, timeoutMillis);
+        } else {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        }
+
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            if (https) {
+                if (proxy.type() == Proxy.Type.HTTP) {
+                    tunnel(socket, host, port);
+                }
+                SSLSocket sslSocket = (SSLSocket) HttpCodec.sslContext(validateTLS).getSocketFactory().createSocket(socket, host, port, true);
+                if (validateTLS) {
+                    SSLParameters sslParameters = sslSocket.getSSLParameters();
+                    sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                    sslSocket.setSSLParameters(sslParameters);
+                }
+                sslSocket.startHandshake();
+                socket = sslSocket;
+            }
+            return new PooledConnection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * https through http proxy: "CONNECT" tunnel
+     */
+    private static void tunnel(Socket socket, String host, int port) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(("CONNECT " + host + ":" + port + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+
+        // read head only, byte by byte: nothing of the tunnel may be consumed
+        InputStream in = socket.getInputStream();
+        StringBuilder head = new StringBuilder();
+        while (!(head.length()>=4 && head.substring(head.length() - 4).equals("\r\n\r\n"))) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("proxy closed tunnel, target : " + host + ":" + port);
+            }
+            head.append((char) b);
+        }
+        String statusLine = head.substring(0, head.indexOf("\r\n"));
+        String[] items = statusLine.split(" ");
+        if (items.length<2 || !"200".equals(items[1])) {
+            throw new IOException("proxy tunnel fail, target : " + host + ":" + port + ", response : " + statusLine);
+        }
+    }
+
+    // ---------------------- pool ----------------------
+
+    /**
+     * route of target, in use by caller until Route.unuse
+     */
+    private Route route(URL target, Proxy proxy, boolean validateTLS) {
+        int port = target.getPort()>-1 ? target.getPort() : target.getDefaultPort();
+        String key = target.getProtocol().toLowerCase() + "://" + target.getHost().toLowerCase() + ":" + port
+                + (proxy.type()!=Proxy.Type.DIRECT ? "|" + proxy : "")
+                + (validateTLS ? "|tls" : "");
+        while (true) {
+            Route route = routeMap.get(key);
+            if (route == null) {
+                Route newRoute = new Route(key);
+                route = routeMap.putIfAbsent(key, newRoute);
+                if (route == null) {
+                    route = newRoute;
+                }
+            }
+            if (route.use()) {
+                return route;
+            }
+            // dropped by evictor after lookup, look up again
+        }
+    }
+
+    /**
+     * close expired idle connections, and drop unused routes
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        for (Route route: routeMap.values()) {
+            for (PooledConnection connection: route.idleDeque) {
+                if (connection.expireTime<now && route.idleDeque.remove(connection)) {
+                    idleNum.decrementAndGet();
+                    connection.close();
+                }
+            }
+            if (route.drop(now)) {
+                routeMap.remove(route.key, route);
+            }
+        }
+    }
+
+    /**
+     * connections of one route: limit by permits, idle ones reused latest first
+     */
+    private class Route {
+        private final String key;
+        private final Semaphore permits = new Semaphore(maxPerHost);
+        private final ConcurrentLinkedDeque<PooledConnection> idleDeque = new ConcurrentLinkedDeque<PooledConnection>();
+        private volatile long lastUseTime = System.currentTimeMillis();
+        private int userNum = 0;            // callers between route() and unuse(), guarded by this
+        private boolean dropped = false;    // removed from routeMap, guarded by this
+
+        Route(String key) {
+            this.key = key;
+        }
+
+        synchronized boolean use() {
+            if (dropped) {
+                return false;
+            }
+            userNum++;
+            return true;
+        }
+
+        synchronized void unuse() {
+            userNum--;
+            lastUseTime = System.currentTimeMillis();
+        }
+
+        /**
+         * mark dropped if no user, no idle connection and unused for idleTimeoutMillis; a dropped route is never used again
+         */
+        synchronized boolean drop(long now) {
+            if (userNum==0 && idleDeque.isEmpty() && lastUseTime+idleTimeoutMillis<now) {
+                dropped = true;
+            }
+            return dropped;
+        }
+
+        void acquire(int timeoutMillis) throws IOException {
+            try {
+                if (!permits.tryAcquire(timeoutMillis>0 ? timeoutMillis : Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                    throw new SocketTimeoutException("wait for connection timeout, route : " + key);
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("wait for connection interrupted, route : " + key);
+            }
+            lastUseTime = System.currentTimeMillis();
+        }
+
+        PooledConnection pollIdle() {
+            PooledConnection connection;
+            while ((connection = idleDeque.pollFirst()) != null) {
+                idleNum.decrementAndGet();
+                if (connection.expireTime>=System.currentTimeMillis() && !connection.socket.isClosed()) {
+                    return connection;
+                }
+                connection.close();
+            }
+            return null;
+        }
+
+        void release(PooledConnection connection, long keepAliveMillis) {
+            if (keepAliveMillis<=0 || idleNum.incrementAndGet()>maxIdleNum) {
+                if (keepAliveMillis > 0) {
+                    idleNum.decrementAndGet();
+                }
+                connection.close();
+                return;
+            }
+            connection.expireTime = System.currentTimeMillis() + keepAliveMillis;
+            idleDeque.addFirst(connection);
+        }
+    }
+
+    private static class PooledConnection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private volatile long expireTime;
+
+        PooledConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -1,7 +1,9 @@
 package com.xuxueli.crawler.loader.strategy;
 
+import com.xuxueli.crawler.exception.XxlCrawlerException;
 import com.xuxueli.crawler.loader.PageLoader;
 import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.util.ResourceFilter;
 import com.xuxueli.crawler.util.UrlUtil;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -14,12 +16,31 @@ import org.openqa.selenium.remote.DesiredCapabilities;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
  * "selenisum + phantomjs" page loader
  *
+ * 浏览器会话池化复用：phantomjs 进程启动耗时较长，池中维护固定数量的长期会话，页面加载时借出、结束后归还复用；
+ *
+ *      容量：池大小（poolSize）即浏览器进程数上限，也是并发渲染上限，超出时等待归还；会话按需创建；默认不限制，与 "HtmlUnitPageLoader" 一致，进程数随并发采集线程数增长；
+ *      会话配置：是否校验https在进程启动时确定，借出时优先匹配配置相同的空闲会话，进程数已满时关闭其他配置的空闲会话；
+ *      代理：借出时按请求代理通过 "phantom.setProxy" 切换（仅在与会话当前代理不同时执行），代理不影响会话复用，适配 ProxyMaker 逐请求轮换代理；
+ *      健康检查：借出空闲会话前检查进程可用，不可用时重建；
+ *      重置：归还时清除Cookie、关闭多余窗口并打开空白页；
+ *      回收：会话累计加载一定页面数（recyclePageNum）后退出并重建，避免浏览器长期运行的内存泄漏；加载异常的会话直接退出；
+ *
+ * 资源拦截：设置 ResourceFilter 后，会话启动时注册 phantomjs "onResourceRequested" 回调，页面引用的子资源请求前按URL规则与URL后缀推断类型拦截（abort）；
+ * 回调在 phantomjs 中执行，URL规则按 JavaScript 正则解析，请使用两者兼容的写法；
+ *
  * // TODO, selenium not support feature like : paramMap、headerMap、userAgent、referrer、ifPost
  *
  * @author xuxueli 2018-10-16
@@ -28,8 +49,57 @@ public class SeleniumPhantomjsPageLoader extends PageLoader {
     private static Logger logger = LoggerFactory.getLogger(SeleniumPhantomjsPageLoader.class);
 
     private String driverPath;
+    private final int poolSize;
+    private final int recyclePageNum;
+    private final ResourceFilter resourceFilter;
+    private final Semaphore permits;
+    private final LinkedList<PooledDriver> idleDrivers = new LinkedList<PooledDriver>();      // head is the most recently returned
+    private int borrowedNum = 0;
+    private volatile boolean closed = false;
+
     public SeleniumPhantomjsPageLoader(String driverPath) {
+        this(driverPath, Integer.MAX_VALUE, 100);       // no cap, bounded by crawler threadCount
+    }
+
+    /**
+     * @param driverPath        phantomjs 执行路径
+     * @param poolSize          浏览器会话池大小，即 phantomjs 进程数上限
+     * @param recyclePageNum    会话累计加载页面数上限，达到后退出并重建
+     */
+    public SeleniumPhantomjsPageLoader(String driverPath, int poolSize, int recyclePageNum) {
+        this(driverPath, poolSize, recyclePageNum, null);
+    }
+
+    /**
+     * @param driverPath        phantomjs 执行路径
+     * @param poolSize          浏览器会话池大小，即 phantomjs 进程数上限
+     * @param recyclePageNum    会话累计加载页面数上限，达到后退出并重建
+     * @param resourceFilter    子资源拦截规则，为空时不拦截
+     */
+    public SeleniumPhantomjsPageLoader(String driverPath, int poolSize, int recyclePageNum, ResourceFilter resourceFilter) {
+        if (poolSize<1 || recyclePageNum<1) {
+            throw new XxlCrawlerException("SeleniumPhantomjsPageLoader param invalid, poolSize/recyclePageNum : " + poolSize + "/" + recyclePageNum);
+        }
         this.driverPath = driverPath;
+        this.poolSize = poolSize;
+        this.recyclePageNum = recyclePageNum;
+        this.resourceFilter = resourceFilter;
+        this.permits = new Semaphore(poolSize);
+    }
+
+    /**
+     * quit idle sessions, borrowed ones quit when returned
+     */
+    public void close() {
+        closed = true;
+        List<PooledDriver> drivers;
+        synchronized (this) {
+            drivers = new ArrayList<PooledDriver>(idleDrivers);
+            idleDrivers.clear();
+        }
+        for (PooledDriver pooledDriver: drivers) {
+            quit(pooledDriver.webDriver);
+        }
     }
 
     @Override
@@ -38,31 +108,36 @@ public class SeleniumPhantomjsPageLoader extends PageLoader {
             return null;
         }
 
-        // driver init
-        DesiredCapabilities dcaps = new DesiredCapabilities();
-        dcaps.setCapability(CapabilityType.ACCEPT_SSL_CERTS, !pageRequest.isValidateTLSCertificates());
-        dcaps.setCapability(CapabilityType.TAKES_SCREENSHOT, false);
-        dcaps.setCapability(CapabilityType.SUPPORTS_FINDING_BY_CSS, true);
-        dcaps.setJavascriptEnabled(true);
-        if (driverPath!=null && driverPath.trim().length()>0) {
-            dcaps.setCapability(PhantomJSDriverService.PHANTOMJS_EXECUTABLE_PATH_PROPERTY, driverPath);
+        PooledDriver pooledDriver;
+        try {
+            pooledDriver = borrow(pageRequest);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);        // driver start fail
+            return null;
         }
 
-        if (pageRequest.getProxy() != null) {
-            dcaps.setCapability(CapabilityType.ForSeleniumServer.AVOIDING_PROXY, true);
-            dcaps.setCapability(CapabilityType.ForSeleniumServer.ONLY_PROXYING_SELENIUM_TRAFFIC, true);
-            System.setProperty("http.nonProxyHosts", "localhost");
-            dcaps.setCapability(CapabilityType.PROXY, pageRequest.getProxy());
-        }
+        boolean broken = true;
+        try {
+            WebDriver webDriver = pooledDriver.webDriver;
 
-        /*dcaps.setBrowserName(BrowserType.CHROME);
-        dcaps.setVersion("70");
-        dcaps.setPlatform(Platform.WIN10);*/
+            // driver run
+            webDriver.manage().timeouts().implicitlyWait(pageRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            webDriver.manage().timeouts().pageLoadTimeout(pageRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            webDriver.manage().timeouts().setScriptTimeout(pageRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS);
 
-        WebDriver webDriver = new PhantomJSDriver(dcaps);
+            Proxy proxy = pageRequest.getProxy()!=null && pageRequest.getProxy().type()!=Proxy.Type.DIRECT ? pageRequest.getProxy() : null;
+            if (proxy!=null ? !proxy.equals(pooledDriver.proxy) : pooledDriver.proxy!=null) {
+                pooledDriver.proxy = null;          // unknown until applied
+                applyProxy(webDriver, proxy);
+                pooledDriver.proxy = proxy;
+            }
 
-        try {
-            // driver run
+            if (resourceFilter != null) {
+                ((PhantomJSDriver) webDriver).executePhantomJS(PAGE_URL_SCRIPT, pageRequest.getUrl());
+            }
             webDriver.get(pageRequest.getUrl());
 
             if (pageRequest.getCookieMap() != null && !pageRequest.getCookieMap().isEmpty()) {
@@ -71,11 +146,8 @@ public class SeleniumPhantomjsPageLoader extends PageLoader {
                 }
             }
 
-            webDriver.manage().timeouts().implicitlyWait(pageRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS);
-            webDriver.manage().timeouts().pageLoadTimeout(pageRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS);
-            webDriver.manage().timeouts().setScriptTimeout(pageRequest.getTimeoutMillis(), TimeUnit.MILLISECONDS);
-
             String pageSource = webDriver.getPageSource();
+            broken = false;
             if (pageSource != null) {
                 Document html = Jsoup.parse(pageSource);
                 return html;
@@ -83,11 +155,218 @@ public class SeleniumPhantomjsPageLoader extends PageLoader {
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         } finally {
-            if (webDriver != null) {
-                webDriver.quit();
-            }
+            giveBack(pooledDriver, broken);
         }
         return null;
     }
 
+    // ---------------------- pool ----------------------
+
+    private static class PooledDriver {
+        private final WebDriver webDriver;
+        private final String configKey;
+        private int pageNum = 0;
+        private Proxy proxy;                // proxy applied to session, null if direct
+
+        PooledDriver(WebDriver webDriver, String configKey) {
+            this.webDriver = webDriver;
+            this.configKey = configKey;
+        }
+    }
+
+    /**
+     * borrow healthy idle session of same config, or start one; wait while all are in use
+     */
+    private PooledDriver borrow(PageRequest pageRequest) throws InterruptedException {
+        permits.acquire();
+        String configKey = configKey(pageRequest);
+        try {
+            while (true) {
+                PooledDriver pooledDriver = null;
+                PooledDriver evictDriver = null;
+                synchronized (this) {
+                    for (Iterator<PooledDriver> iterator = idleDrivers.iterator(); iterator.hasNext(); ) {
+                        PooledDriver item = iterator.next();
+                        if (item.configKey.equals(configKey)) {
+                            iterator.remove();
+                            pooledDriver = item;
+                            break;
+                        }
+                    }
+                    if (pooledDriver==null && borrowedNum+idleDrivers.size()>=poolSize) {
+                        evictDriver = idleDrivers.pollLast();       // full, quit the least recently used of other config
+                    }
+                    borrowedNum++;
+                }
+                if (evictDriver != null) {
+                    quit(evictDriver.webDriver);
+                }
+
+                if (pooledDriver == null) {
+                    return new PooledDriver(createDriver(pageRequest), configKey);
+                }
+                if (isHealthy(pooledDriver.webDriver)) {
+                    return pooledDriver;
+                }
+                logger.warn(">>>>>>>>>>> xxl-crawler SeleniumPhantomjsPageLoader session unhealthy, restart it.");
+                quit(pooledDriver.webDriver);
+                synchronized (this) {
+                    borrowedNum--;
+                }
+            }
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                borrowedNum--;
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * reset and return to pool; quit if broken, recycled or pool closed
+     */
+    private void giveBack(PooledDriver pooledDriver, boolean broken) {
+        try {
+            pooledDriver.pageNum++;
+            boolean reuse = !broken && !closed && pooledDriver.pageNum<recyclePageNum && reset(pooledDriver.webDriver);
+            synchronized (this) {
+                borrowedNum--;
+                if (reuse) {
+                    idleDrivers.addFirst(pooledDriver);
+                }
+            }
+            if (!reuse) {
+                quit(pooledDriver.webDriver);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * start a session
+     *
+     * @param pageRequest   request that needs a new session, its tls validation is fixed for the session
+     * @return WebDriver
+     */
+    protected WebDriver createDriver(PageRequest pageRequest) {
+        // driver init
+        DesiredCapabilities dcaps = new DesiredCapabilities();
+        dcaps.setCapability(CapabilityType.ACCEPT_SSL_CERTS, !pageRequest.isValidateTLSCertificates());
+        dcaps.setCapability(CapabilityType.TAKES_SCREENSHOT, false);
+        dcaps.setCapability(CapabilityType.SUPPORTS_FINDING_BY_CSS, true);
+        dcaps.setJavascriptEnabled(true);
+        if (driverPath!=null && driverPath.trim().length()>0) {
+            dcaps.setCapability(PhantomJSDriverService.PHANTOMJS_EXECUTABLE_PATH_PROPERTY, driverPath);
+        }
+
+        /*dcaps.setBrowserName(BrowserType.CHROME);
+        dcaps.setVersion("70");
+        dcaps.setPlatform(Platform.WIN10);*/
+
+        PhantomJSDriver webDriver = new PhantomJSDriver(dcaps);
+        if (resourceFilter != null) {
+            try {
+                webDriver.executePhantomJS(FILTER_SCRIPT, resourceFilter.getAllowUrlRegexes(), resourceFilter.getDenyUrlRegexes(), resourceFilter.getDenySuffixes());
+            } catch (RuntimeException e) {
+                quit(webDriver);
+                throw e;
+            }
+        }
+        return webDriver;
+    }
+
+    /**
+     * switch proxy of a borrowed session, it applies to the whole phantomjs process
+     *
+     * @param webDriver
+     * @param proxy         null for direct
+     */
+    protected void applyProxy(WebDriver webDriver, Proxy proxy) {
+        if (proxy == null) {
+            ((PhantomJSDriver) webDriver).executePhantomJS(PROXY_SCRIPT, "", 0, "none");
+            return;
+        }
+        InetSocketAddress address = (InetSocketAddress) proxy.address();
+        ((PhantomJSDriver) webDriver).executePhantomJS(PROXY_SCRIPT, address.getHostString(), address.getPort(),
+                proxy.type()==Proxy.Type.SOCKS ? "socks5" : "http");
+    }
+
+    /**
+     * session config fixed at driver start: tls validation; proxy is applied per borrow
+     */
+    private static String configKey(PageRequest pageRequest) {
+        return String.valueOf(pageRequest.isValidateTLSCertificates());
+    }
+
+    private static boolean isHealthy(WebDriver webDriver) {
+        try {
+            webDriver.getWindowHandles();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * clear cookies, close extra windows and open blank page
+     *
+     * @return boolean, false if reset fail
+     */
+    private static boolean reset(WebDriver webDriver) {
+        try {
+            List<String> handles = new ArrayList<String>(webDriver.getWindowHandles());
+            for (int i = 1; i < handles.size(); i++) {
+                webDriver.switchTo().window(handles.get(i));
+                webDriver.close();
+            }
+            if (handles.size() > 1) {
+                webDriver.switchTo().window(handles.get(0));
+            }
+            webDriver.manage().deleteAllCookies();
+            webDriver.get("about:blank");
+            return true;
+        } catch (Exception e) {
+            logger.warn(">>>>>>>>>>> xxl-crawler SeleniumPhantomjsPageLoader session reset fail, error : {}", e.getMessage());
+            return false;
+        }
+    }
+
+    // ---------------------- resource filter ----------------------
+
+    /**
+     * run in phantomjs, "this" is the page; arguments: allow url regexes, deny url regexes, deny url suffixes
+     */
+    private static final String FILTER_SCRIPT =
+            "var page = this;" +
+            "function compile(list) { var regexes = []; for (var i = 0; i < list.length; i++) { regexes.push(new RegExp(list[i])); } return regexes; }" +
+            "function find(regexes, url) { for (var i = 0; i < regexes.length; i++) { if (regexes[i].test(url)) { return true; } } return false; }" +
+            "var allows = compile(arguments[0]), denies = compile(arguments[1]), suffixes = arguments[2];" +
+            "page.onResourceRequested = function (requestData, networkRequest) {" +
+            "  var url = requestData.url;" +
+            "  if (url == page.xxlPageUrl || find(allows, url)) { return; }" +
+            "  var path = url.split('#')[0].split('?')[0], dot = path.lastIndexOf('.');" +
+            "  var suffix = dot > path.lastIndexOf('/') ? path.substring(dot + 1).toLowerCase() : null;" +
+            "  if (find(denies, url) || (suffix != null && suffixes.indexOf(suffix) > -1)) { networkRequest.abort(); }" +
+            "};";
+
+    /**
+     * page itself, never blocked
+     */
+    private static final String PAGE_URL_SCRIPT = "this.xxlPageUrl = arguments[0];";
+
+    /**
+     * arguments: proxy host, port, type; empty host for direct
+     */
+    private static final String PROXY_SCRIPT = "phantom.setProxy(arguments[0], arguments[1], arguments[2]);";
+
+    private static void quit(WebDriver webDriver) {
+        try {
+            webDriver.quit();
+        } catch (Exception e) {
+            logger.warn(">>>>>>>>>>> xxl-crawler SeleniumPhantomjsPageLoader session quit fail, error : {}", e.getMessage());
+        }
+    }
+
 }
@@ -20,6 +20,7 @@ public class PageRequest {
     private int timeoutMillis;
     private boolean isValidateTLSCertificates;
     private Proxy proxy;
+    private int maxBodySize;            // 响应体大小上限，字节，解压后计算；小于等于0时不限制
 
     public PageRequest() {
     }
@@ -125,4 +126,12 @@ public class PageRequest {
     public void setProxy(Proxy proxy) {
         this.proxy = proxy;
     }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
 }
\ No newline at end of file
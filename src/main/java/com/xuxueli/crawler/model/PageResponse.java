@@ -0,0 +1,305 @@
+package com.xuxueli.crawler.model;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * page load result
+ *
+ * 单次请求的完整响应：原始响应体字节、状态码、响应头、最终URL（重定向后）、内容类型；
+ * 页面文档（Document）在首次访问时才解析，非页面（NonPageParser）与被状态码、内容类型过滤的响应无需DOM解析。
+ *
+ * 压缩传输（Content-Encoding: gzip / deflate）的响应体以压缩形式保存，访问时边解压边读取，解压后大小受 maxBodySize 限制。
+ */
+public class PageResponse {
+
+    private final String url;                               // 请求URL
+    private final String finalUrl;                          // 最终URL，重定向后；页面文档的 baseUri
+    private final int status;                               // 响应状态码
+    private final Map<String, List<String>> headers;        // 响应头，名称忽略大小写
+    private volatile byte[] body;                           // 原始响应体，可能为压缩数据；已解析页面时延迟序列化
+    private final int maxBodySize;                          // 响应体大小上限，字节，解压后计算；小于等于0时不限制
+
+    private volatile Document html;                         // 页面文档，延迟解析
+
+    /**
+     * @param url           请求URL
+     * @param finalUrl      最终URL，重定向后
+     * @param status        响应状态码
+     * @param headers       响应头
+     * @param body          原始响应体
+     */
+    public PageResponse(String url, String finalUrl, int status, Map<String, List<String>> headers, byte[] body) {
+        this(url, finalUrl, status, headers, body, 0);
+    }
+
+    /**
+     * @param url           请求URL
+     * @param finalUrl      最终URL，重定向后
+     * @param status        响应状态码
+     * @param headers       响应头
+     * @param body          原始响应体，按 Content-Encoding 压缩时保持压缩形式
+     * @param maxBodySize   响应体大小上限，字节，解压后计算；小于等于0时不限制
+     */
+    public PageResponse(String url, String finalUrl, int status, Map<String, List<String>> headers, byte[] body, int maxBodySize) {
+        this.url = url;
+        this.finalUrl = finalUrl!=null ? finalUrl : url;
+        this.status = status;
+        this.headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header: headers.entrySet()) {
+                if (header.getKey() != null) {
+                    this.headers.put(header.getKey(), Collections.unmodifiableList(new ArrayList<String>(header.getValue())));
+                }
+            }
+        }
+        this.body = body!=null ? body : new byte[0];
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 已解析页面，如 HtmlUnit、Selenium 等渲染方式加载，响应体为页面HTML
+     *
+     * @param url       请求URL
+     * @param html      页面文档
+     */
+    public PageResponse(String url, Document html) {
+        this.url = url;
+        this.finalUrl = html.location()!=null && html.location().length()>0 ? html.location() : url;
+        this.status = 200;
+        this.headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        this.headers.put("Content-Type", Collections.singletonList("text/html; charset=UTF-8"));
+        this.maxBodySize = 0;
+        this.html = html;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getFinalUrl() {
+        return finalUrl;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @param name  header name, ignore case
+     * @return String, first value; null if absent
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values!=null && values.size()>0 ? values.get(0) : null;
+    }
+
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    /**
+     * @return String, charset of content type; null if absent or unsupported
+     */
+    public String getCharset() {
+        String contentType = getContentType();
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.toLowerCase().indexOf("charset=");
+        if (index < 0) {
+            return null;
+        }
+        String charset = contentType.substring(index + "charset=".length()).replace("\"", "").replace("'", "").trim();
+        int end = charset.indexOf(';');
+        charset = end>-1 ? charset.substring(0, end).trim() : charset;
+        try {
+            return Charset.isSupported(charset) ? charset : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return byte[], body as received, compressed if "Content-Encoding" is set
+     */
+    public byte[] getRawBody() {
+        byte[] body = this.body;
+        if (body == null) {
+            body = html.outerHtml().getBytes(StandardCharsets.UTF_8);
+            this.body = body;
+        }
+        return body;
+    }
+
+    /**
+     * @return byte[], body decompressed
+     */
+    public byte[] getBody() {
+        if (!isCompressed()) {
+            return getRawBody();
+        }
+        try {
+            InputStream in = getBodyStream();
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(getRawBody().length, 1024 * 1024) * 4);
+                byte[] buffer = new byte[8192];
+                int len;
+                while ((len = in.read(buffer)) > -1) {
+                    out.write(buffer, 0, len);
+                }
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new XxlCrawlerException("response body decode fail, url : " + url + ", error : " + e.getMessage());
+        }
+    }
+
+    /**
+     * body stream, decompressed while reading; read more than maxBodySize fails with IOException
+     *
+     * @return InputStream
+     */
+    public InputStream getBodyStream() throws IOException {
+        byte[] body = getRawBody();
+        InputStream in = new ByteArrayInputStream(body);
+        String encoding = getContentEncoding();
+        if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            in = new GZIPInputStream(in, 8192);
+        } else if ("deflate".equals(encoding)) {
+            boolean zlib = body.length>1 && (body[0] & 0x0f)==8 && (((body[0] & 0xff) << 8) | (body[1] & 0xff)) % 31 == 0;
+            in = new InflaterInputStream(in, new Inflater(!zlib), 8192);      // zlib wrapped, or raw deflate sent by some servers
+        }
+        return maxBodySize>0 ? new LimitedInputStream(in, maxBodySize) : in;
+    }
+
+    private String getContentEncoding() {
+        String encoding = getHeader("Content-Encoding");
+        return encoding!=null ? encoding.trim().toLowerCase() : null;
+    }
+
+    private boolean isCompressed() {
+        String encoding = getContentEncoding();
+        return "gzip".equals(encoding) || "x-gzip".equals(encoding) || "deflate".equals(encoding);
+    }
+
+    /**
+     * fail when more than limit bytes are read
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long readNum = 0;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b > -1) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int num = super.read(b, off, len);
+            if (num > 0) {
+                count(num);
+            }
+            return num;
+        }
+
+        private void count(int num) throws IOException {
+            readNum += num;
+            if (readNum > limit) {
+                throw new IOException("response body too large, maxBodySize : " + limit);
+            }
+        }
+    }
+
+    // ---------------------- valid ----------------------
+
+    /**
+     * @return boolean, status 2xx or 3xx, same as jsoup
+     */
+    public boolean isSuccess() {
+        return status>=200 && status<400;
+    }
+
+    /**
+     * @return boolean, content type absent, text or xml, same as jsoup
+     */
+    public boolean isTextContent() {
+        String contentType = getContentType();
+        if (contentType == null) {
+            return true;
+        }
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.matches("^application/(\\w+\\+)?xml.*");
+    }
+
+    /**
+     * @return boolean, parsable as page: success status and text content
+     */
+    public boolean isValid() {
+        return isSuccess() && isTextContent();
+    }
+
+    // ---------------------- view ----------------------
+
+    /**
+     * page source, decoded by charset of content type, default UTF-8; no dom parse
+     *
+     * @return String
+     */
+    public String getPageSource() {
+        if (body == null) {
+            return html.outerHtml();
+        }
+        String charset = getCharset();
+        return new String(getBody(), charset!=null ? Charset.forName(charset) : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * page document, parsed on first access, body decompressed while parsing; charset from content type, or detected from meta
+     *
+     * @return Document
+     */
+    public Document getHtml() {
+        Document html = this.html;
+        if (html == null) {
+            synchronized (this) {
+                html = this.html;
+                if (html == null) {
+                    try {
+                        html = Jsoup.parse(getBodyStream(), getCharset(), finalUrl);
+                    } catch (IOException e) {
+                        throw new XxlCrawlerException("response body decode fail, url : " + url + ", error : " + e.getMessage());
+                    }
+                    this.html = html;
+                }
+            }
+        }
+        return html;
+    }
+
+}
@@ -6,6 +6,7 @@ import com.xuxueli.crawler.parser.PageParser;
 import com.xuxueli.crawler.loader.strategy.JsoupPageLoader;
 import com.xuxueli.crawler.proxy.ProxyMaker;
 import com.xuxueli.crawler.util.RegexUtil;
+import com.xuxueli.crawler.util.UrlCanonicalizer;
 import com.xuxueli.crawler.util.UrlUtil;
 
 import java.util.*;
@@ -19,6 +20,7 @@ public class RunConf {
 
     private volatile boolean allowSpread = true;                                    // 允许扩散爬取，将会以现有URL为起点扩散爬取整站
     private Set<String> whiteUrlRegexs = Collections.synchronizedSet(new HashSet<String>());    // URL白名单正则，非空时进行URL白名单过滤页面
+    private volatile UrlCanonicalizer urlCanonicalizer;                             // URL规范化，非空时URL入队前进行规范化去重
     private PageLoader pageLoader = new JsoupPageLoader();                          // 页面下载器
     private PageParser pageParser;                                                  // 页面解析器
 
@@ -29,12 +31,24 @@ public class RunConf {
     private volatile String referrer;                                               // 请求Referrer
     private volatile boolean ifPost = false;                                        // 请求方式：true=POST请求、false=GET请求
     private volatile int timeoutMillis = XxlCrawlerConf.TIMEOUT_MILLIS_DEFAULT;     // 超时时间，毫秒
+    private volatile int maxBodySize = 0;                                           // 响应体大小上限，字节，解压后计算；小于等于0时不限制
     private volatile int pauseMillis = 0;                                           // 停顿时间，爬虫线程处理完页面之后进行主动停顿，避免过于频繁被拦截；
     private volatile ProxyMaker proxyMaker;                                         // 代理生成器
     private volatile int failRetryCount = 0;                                        // 失败重试次数，大于零时生效
     private volatile boolean isValidateTLSCertificates = true;                      // 是否验证https
 
     // util
+    /**
+     * canonical url, return origin link if canonicalizer not set
+     *
+     * @param link
+     * @return String
+     */
+    public String canonicalUrl(String link){
+        UrlCanonicalizer canonicalizer = urlCanonicalizer;
+        return canonicalizer!=null ? canonicalizer.canonicalize(link) : link;
+    }
+
     /**
      * valid url, include white url
      *
@@ -78,6 +92,14 @@ public class RunConf {
         this.whiteUrlRegexs = whiteUrlRegexs;
     }
 
+    public UrlCanonicalizer getUrlCanonicalizer() {
+        return urlCanonicalizer;
+    }
+
+    public void setUrlCanonicalizer(UrlCanonicalizer urlCanonicalizer) {
+        this.urlCanonicalizer = urlCanonicalizer;
+    }
+
     public PageLoader getPageLoader() {
         return pageLoader;
     }
@@ -150,6 +172,14 @@ public class RunConf {
         this.timeoutMillis = timeoutMillis;
     }
 
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
     public int getPauseMillis() {
         return pauseMillis;
     }
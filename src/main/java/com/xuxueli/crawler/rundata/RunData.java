@@ -1,5 +1,7 @@
 package com.xuxueli.crawler.rundata;
 
+import java.util.Collection;
+
 /**
  * run data
  *
@@ -15,13 +17,64 @@ public abstract class RunData {
      */
     public abstract boolean addUrl(String link);
 
+    /**
+     * add link, with parent link, used to track crawl depth
+     *
+     * @param link
+     * @param parentLink    null if seed
+     * @return boolean
+     */
+    public boolean addUrl(String link, String parentLink) {
+        return addUrl(link);
+    }
+
+    /**
+     * add links in batch, one frontier operation for all links of a page
+     *
+     * @param links
+     * @return int      num of links added
+     */
+    public int addUrls(Collection<String> links) {
+        return addUrls(links, null);
+    }
+
+    /**
+     * add links in batch, with parent link
+     *
+     * @param links
+     * @param parentLink    null if seed
+     * @return int          num of links added
+     */
+    public int addUrls(Collection<String> links, String parentLink) {
+        int addNum = 0;
+        if (links != null) {
+            for (String link: links) {
+                if (addUrl(link, parentLink)) {
+                    addNum++;
+                }
+            }
+        }
+        return addNum;
+    }
+
     /**
      * get link, remove from unVisitedUrlQueue and add to visitedUrlSet
      *
+     * lease model (optional): the link is only claimed, and it is requeued if not finished before the lease expires
+     *
      * @return String
      */
     public abstract String getUrl();
 
+    /**
+     * finish link, after it is processed (success or finally failed); ack its lease in lease model
+     *
+     * @param link
+     */
+    public void finishUrl(String link) {
+        // default do nothing
+    }
+
     /**
      * get url num
      *
@@ -0,0 +1,163 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.util.UrlUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * bloom filter run data
+ *
+ * 已记录URL池基于无锁BloomFilter实现，内存占用与URL长度无关；存在可控的误判率，误判的URL将被视为已采集而跳过。
+ */
+public class BloomRunData extends LocalRunData {
+
+    private final long expectedUrlNum;          // 预计URL数量
+    private final double falsePositiveRate;     // 期望误判率
+    private final long bitNum;                  // bit位数量
+    private final int hashNum;                  // hash函数数量
+
+    private final AtomicLongArray bits;
+    private final AtomicLong bitSetNum = new AtomicLong(0);     // 已置位bit数量
+
+    public BloomRunData(long expectedUrlNum, double falsePositiveRate) {
+        if (expectedUrlNum <= 0) {
+            throw new XxlCrawlerException("BloomRunData expectedUrlNum invalid, expectedUrlNum : " + expectedUrlNum);
+        }
+        if (falsePositiveRate<=0 || falsePositiveRate>=1) {
+            throw new XxlCrawlerException("BloomRunData falsePositiveRate invalid, falsePositiveRate : " + falsePositiveRate);
+        }
+        this.expectedUrlNum = expectedUrlNum;
+        this.falsePositiveRate = falsePositiveRate;
+
+        // m = -n*ln(p)/(ln2)^2, k = m/n*ln2
+        long bitNumTmp = (long) Math.ceil(-expectedUrlNum * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int wordNum = (int) Math.min(Integer.MAX_VALUE, (bitNumTmp + 63) >>> 6);
+        this.bitNum = (long) wordNum << 6;
+        this.hashNum = Math.max(1, (int) Math.round((double) bitNum / expectedUrlNum * Math.log(2)));
+        this.bits = new AtomicLongArray(wordNum);
+    }
+
+    /**
+     * 置位URL对应的全部bit，存在新置位bit时视为首次记录
+     *
+     * @param link
+     * @return boolean
+     */
+    @Override
+    protected boolean markSeen(String link) {
+        long hash = UrlUtil.fingerprint(link);
+        long hash1 = hash;
+        long hash2 = UrlUtil.mix64(hash) | 1;     // double hashing
+
+        boolean changed = false;
+        for (int i = 0; i < hashNum; i++) {
+            long bitIndex = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitNum;
+            int wordIndex = (int) (bitIndex >>> 6);
+            long mask = 1L << bitIndex;
+
+            while (true) {
+                long word = bits.get(wordIndex);
+                if ((word & mask) != 0) {
+                    break;
+                }
+                if (bits.compareAndSet(wordIndex, word, word | mask)) {
+                    bitSetNum.incrementAndGet();
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    protected void writeSeenIndex(DataOutputStream out) throws IOException {
+        out.writeLong(bitNum);
+        out.writeInt(hashNum);
+        for (int i = 0; i < bits.length(); i++) {
+            out.writeLong(bits.get(i));
+        }
+    }
+
+    @Override
+    protected void readSeenIndex(DataInputStream in) throws IOException {
+        long snapshotBitNum = in.readLong();
+        int snapshotHashNum = in.readInt();
+        if (snapshotBitNum!=bitNum || snapshotHashNum!=hashNum) {
+            throw new XxlCrawlerException("BloomRunData snapshot not match, expectedUrlNum or falsePositiveRate changed.");
+        }
+        for (int i = 0; i < bits.length(); i++) {
+            long word = bits.get(i) | in.readLong();
+            bits.set(i, word);
+        }
+        long bitSetNumTmp = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            bitSetNumTmp += Long.bitCount(bits.get(i));
+        }
+        bitSetNum.set(bitSetNumTmp);
+    }
+
+    // ---------------------- stat ----------------------
+
+    public long getExpectedUrlNum() {
+        return expectedUrlNum;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public long getBitNum() {
+        return bitNum;
+    }
+
+    public int getHashNum() {
+        return hashNum;
+    }
+
+    /**
+     * bit位占用字节数
+     *
+     * @return long
+     */
+    public long getMemoryBytes() {
+        return bitNum >>> 3;
+    }
+
+    /**
+     * 填充率，已置位bit占比
+     *
+     * @return double
+     */
+    public double getFillRatio() {
+        return (double) bitSetNum.get() / bitNum;
+    }
+
+    /**
+     * 当前填充率下的预估误判率
+     *
+     * @return double
+     */
+    public double getEstimatedFalsePositiveRate() {
+        return Math.pow(getFillRatio(), hashNum);
+    }
+
+    /**
+     * 预估已记录URL数量
+     *
+     * @return long
+     */
+    public long getEstimatedUrlNum() {
+        double fillRatio = getFillRatio();
+        if (fillRatio >= 1) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-((double) bitNum / hashNum) * Math.log(1 - fillRatio));
+    }
+
+}
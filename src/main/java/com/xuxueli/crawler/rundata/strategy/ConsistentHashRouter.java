@@ -0,0 +1,60 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.util.UrlUtil;
+
+import java.util.*;
+
+/**
+ * consistent hash router
+ *
+ * 一致性Hash路由：每个节点在Hash环上映射 virtualNum 个虚拟节点，key 路由至环上顺时针最近的节点；
+ * 节点增减时仅迁移相邻区间的 key，其余 key 的归属保持不变。
+ */
+public class ConsistentHashRouter {
+
+    private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+    private final List<String> nodes;
+
+    public ConsistentHashRouter(Collection<String> nodes) {
+        this(nodes, 160);
+    }
+
+    /**
+     * @param nodes         节点列表
+     * @param virtualNum    每个节点的虚拟节点数量，越大分布越均匀
+     */
+    public ConsistentHashRouter(Collection<String> nodes, int virtualNum) {
+        if (nodes==null || nodes.isEmpty()) {
+            throw new XxlCrawlerException("ConsistentHashRouter nodes can not be empty.");
+        }
+        if (virtualNum < 1) {
+            throw new XxlCrawlerException("ConsistentHashRouter virtualNum invalid, virtualNum : " + virtualNum);
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(nodes)));
+        for (String node: this.nodes) {
+            for (int i = 0; i < virtualNum; i++) {
+                ring.put(UrlUtil.fingerprint(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * route key to its node
+     *
+     * @param key
+     * @return String
+     */
+    public String route(String key) {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(UrlUtil.fingerprint(key));
+        if (entry == null) {
+            entry = ring.firstEntry();      // wrap around
+        }
+        return entry.getValue();
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+}
@@ -0,0 +1,381 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * disk spilling run data
+ *
+ * 待采集URL池仅在内存中保留有界的 "队头 + 队尾"，中间部分溢写至本地磁盘的只追加Segment文件，URL池规模受磁盘而非堆内存限制；
+ * 已记录URL池沿用 "FingerprintRunData" 的64位指纹表，保证整体内存占用可控。
+ *
+ * 出队顺序：队头 -> Segment文件（由旧到新） -> 队尾，保持FIFO广度优先。
+ *
+ * 磁盘读写不持有锁：队尾写满后在锁内换出，由新增线程在锁外写入Segment文件，写入完成前其URL仍保留在内存中可直接出队；
+ * Segment文件在锁外读取至队头；快照在锁内复制队头、队尾及Segment列表，随后在锁外读取Segment文件。
+ */
+public class DiskRunData extends FingerprintRunData {
+    private static Logger logger = LoggerFactory.getLogger(DiskRunData.class);
+
+    private static final String SEGMENT_PREFIX = "frontier-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int LINK_LENGTH_MAX = 16 * 1024;     // writeUTF limit is 64KB encoded
+
+    private final File segmentDir;              // Segment文件目录
+    private final int memoryCapacity;           // 队头、队尾各自的内存容量，同时也是单个Segment文件的URL数量
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private ArrayDeque<String> headQueue;
+    private ArrayList<String> tailQueue;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+    private Segment loadingSegment;             // 正在读取至队头的Segment，读取期间其他消费者等待
+    private long segmentUrlNum = 0;             // 已溢写URL数量（含正在读取的Segment）
+    private long segmentSeq = 0;
+
+    public DiskRunData(String segmentDir) {
+        this(segmentDir, 10000);
+    }
+
+    /**
+     * @param segmentDir        Segment文件目录
+     * @param memoryCapacity    队头、队尾各自的内存容量
+     */
+    public DiskRunData(String segmentDir, int memoryCapacity) {
+        if (segmentDir==null || segmentDir.trim().length()==0) {
+            throw new XxlCrawlerException("DiskRunData segmentDir can not be empty.");
+        }
+        if (memoryCapacity < 1) {
+            throw new XxlCrawlerException("DiskRunData memoryCapacity invalid, memoryCapacity : " + memoryCapacity);
+        }
+        this.segmentDir = new File(segmentDir);
+        this.memoryCapacity = memoryCapacity;
+        this.headQueue = new ArrayDeque<String>(memoryCapacity);
+        this.tailQueue = new ArrayList<String>(memoryCapacity);
+
+        if (!this.segmentDir.exists() && !this.segmentDir.mkdirs()) {
+            throw new XxlCrawlerException("DiskRunData segmentDir create fail, segmentDir : " + segmentDir);
+        }
+
+        // clean segment of last run, its seen-index is lost
+        File[] staleFiles = this.segmentDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (staleFiles != null) {
+            for (File staleFile: staleFiles) {
+                if (!staleFile.delete()) {
+                    logger.warn(">>>>>>>>>>> xxl-crawler DiskRunData stale segment delete fail: {}", staleFile.getPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * reject link too long for segment file, before it is marked seen and counted as added
+     */
+    @Override
+    protected boolean acceptUrl(String link) {
+        if (link.length() > LINK_LENGTH_MAX) {
+            logger.warn(">>>>>>>>>>> xxl-crawler DiskRunData link too long, ignored: {}", link.substring(0, 256));
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected void offerUrl(String link) {
+        Segment spilled;
+        lock.lock();
+        try {
+            spilled = appendUrl(link);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (spilled != null) {
+            writeSegment(spilled);
+        }
+    }
+
+    @Override
+    protected void offerUrls(List<String> links) {
+        List<Segment> spilledList = null;
+        lock.lock();
+        try {
+            for (String link: links) {
+                Segment spilled = appendUrl(link);
+                if (spilled != null) {
+                    if (spilledList == null) {
+                        spilledList = new ArrayList<Segment>();
+                    }
+                    spilledList.add(spilled);
+                }
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (spilledList != null) {
+            for (Segment spilled: spilledList) {
+                writeSegment(spilled);
+            }
+        }
+    }
+
+    /**
+     * append under lock; a full tailQueue is swapped out as a new segment, written by the caller after unlock
+     *
+     * @return Segment  spilled segment to write, null if none
+     */
+    private Segment appendUrl(String link) {
+        if (headQueue.size()<memoryCapacity && segments.isEmpty() && loadingSegment==null && tailQueue.isEmpty()) {
+            headQueue.add(link);        // fast path, frontier is small
+            return null;
+        }
+        tailQueue.add(link);
+        if (tailQueue.size() < memoryCapacity) {
+            return null;
+        }
+        Segment segment = new Segment(new File(segmentDir, SEGMENT_PREFIX + String.format("%019d", segmentSeq++) + SEGMENT_SUFFIX), tailQueue);
+        segments.add(segment);
+        segmentUrlNum += segment.size;
+        tailQueue = new ArrayList<String>(memoryCapacity);
+        return segment;
+    }
+
+    @Override
+    protected String takeUrl() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (headQueue.isEmpty()) {
+                if (loadingSegment != null) {
+                    notEmpty.await();           // another consumer is reading the oldest segment
+                } else if (!segments.isEmpty()) {
+                    loadSegment();
+                } else if (!tailQueue.isEmpty()) {
+                    headQueue.addAll(tailQueue);
+                    tailQueue.clear();
+                } else {
+                    notEmpty.await();
+                }
+            }
+            return headQueue.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getUrlNum() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, headQueue.size() + segmentUrlNum + tailQueue.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * copy head, segment list and tail under lock, then stream spilled segments from disk without it
+     */
+    @Override
+    protected void writeFrontier(DataOutputStream out) throws IOException {
+        List<String> headLinks;
+        List<Segment> segmentList = new ArrayList<Segment>();
+        List<List<String>> segmentLinks = new ArrayList<List<String>>();
+        List<String> tailLinks;
+        lock.lock();
+        try {
+            headLinks = new ArrayList<String>(headQueue);
+            if (loadingSegment != null) {
+                segmentList.add(loadingSegment);
+            }
+            segmentList.addAll(segments);
+            for (Segment segment: segmentList) {
+                segmentLinks.add(segment.links);
+                if (segment.links == null) {
+                    segment.readNum++;          // keep its file until streamed
+                }
+            }
+            tailLinks = new ArrayList<String>(tailQueue);
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            for (String link: headLinks) {
+                out.writeBoolean(true);
+                out.writeUTF(link);
+            }
+            for (int i = 0; i < segmentList.size(); i++) {
+                List<String> links = segmentLinks.get(i);
+                if (links != null) {
+                    for (String link: links) {
+                        out.writeBoolean(true);
+                        out.writeUTF(link);
+                    }
+                    continue;
+                }
+                DataInputStream in = null;
+                try {
+                    in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentList.get(i).file), 64 * 1024));
+                    int num = in.readInt();
+                    for (int j = 0; j < num; j++) {
+                        out.writeBoolean(true);
+                        out.writeUTF(in.readUTF());
+                    }
+                } finally {
+                    closeQuietly(in);
+                }
+            }
+            for (String link: tailLinks) {
+                out.writeBoolean(true);
+                out.writeUTF(link);
+            }
+            out.writeBoolean(false);
+        } finally {
+            lock.lock();
+            try {
+                for (int i = 0; i < segmentList.size(); i++) {
+                    if (segmentLinks.get(i) == null) {
+                        releaseSegment(segmentList.get(i));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // ---------------------- segment ----------------------
+
+    /**
+     * spilled tailQueue; its links stay in memory until the file is written, fields guarded by lock
+     */
+    private static class Segment {
+        private final File file;
+        private final int size;
+        private List<String> links;         // in memory until written, null once readable from file
+        private boolean consumed = false;   // polled by a consumer, file is deleted once unread
+        private int readNum = 0;
+
+        Segment(File file, List<String> links) {
+            this.file = file;
+            this.size = links.size();
+            this.links = links;
+        }
+    }
+
+    /**
+     * write a spilled segment file outside lock, sequential buffered append; on failure its links stay in memory
+     */
+    private void writeSegment(Segment segment) {
+        boolean success = false;
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment.file), 64 * 1024));
+            out.writeInt(segment.size);
+            for (String link: segment.links) {
+                out.writeUTF(link);
+            }
+            out.flush();
+            success = true;
+        } catch (IOException e) {
+            logger.error(">>>>>>>>>>> xxl-crawler DiskRunData segment write fail, links kept in memory, segment : " + segment.file.getPath(), e);
+        } finally {
+            closeQuietly(out);
+        }
+
+        lock.lock();
+        try {
+            if (success) {
+                if (segment.consumed) {
+                    deleteSegment(segment);     // taken from memory while writing
+                } else {
+                    segment.links = null;
+                }
+            } else {
+                deleteSegment(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * move the oldest segment into headQueue, called under lock; a written segment is read from disk with lock released
+     */
+    private void loadSegment() {
+        Segment segment = segments.poll();
+        segment.consumed = true;
+        if (segment.links != null) {
+            segmentUrlNum -= segment.size;
+            headQueue.addAll(segment.links);
+            return;
+        }
+
+        segment.readNum++;
+        loadingSegment = segment;
+        List<String> links = new ArrayList<String>(segment.size);
+        lock.unlock();
+        try {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file), 64 * 1024));
+                int num = in.readInt();
+                for (int i = 0; i < num; i++) {
+                    links.add(in.readUTF());
+                }
+            } catch (IOException e) {
+                logger.error(">>>>>>>>>>> xxl-crawler DiskRunData segment read fail, lost " + (segment.size - links.size()) + " links, segment : " + segment.file.getPath(), e);
+            } finally {
+                closeQuietly(in);
+            }
+        } finally {
+            lock.lock();
+            loadingSegment = null;
+            segmentUrlNum -= segment.size;
+            headQueue.addAll(links);
+            releaseSegment(segment);
+            notEmpty.signalAll();
+        }
+    }
+
+    /**
+     * end a read of segment file, called under lock
+     */
+    private void releaseSegment(Segment segment) {
+        segment.readNum--;
+        if (segment.consumed && segment.readNum==0) {
+            deleteSegment(segment);
+        }
+    }
+
+    private static void deleteSegment(Segment segment) {
+        if (segment.file.exists() && !segment.file.delete()) {
+            logger.warn(">>>>>>>>>>> xxl-crawler DiskRunData segment delete fail: {}", segment.file.getPath());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,470 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.rundata.RunData;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * file lease run data, shared by multiple JVMs on one machine
+ *
+ * 租约模型：getUrl 领取URL并获得租约（可见性超时 leaseMillis），finishUrl 确认（ack）后URL才算采集完成；
+ * 领取方异常终止未确认时，租约过期后URL重新入队（优先分发），由其他爬虫线程或JVM重新采集，保证URL不丢失（至少采集一次）。
+ *
+ * 存储：本地目录下的只追加日志文件 "frontier.log"（新增/领取/确认事件），各JVM通过文件锁 "frontier.lock" 互斥访问，
+ * 每次访问前增量回放其他JVM追加的日志，保持内存视图一致；日志超过阈值后压缩为当前状态。
+ *
+ * 确认按租约校验：本实例仍持有的URL（领取线程存活，仅处理缓慢）即使租约过期也不会被本实例重新领取，每个URL在本实例内至多一个租约，
+ * finishUrl 仅确认本实例自身的租约；租约已被其他实例重新领取时，过期确认被忽略。
+ *
+ * 注意：leaseMillis 需大于单个页面的最长处理耗时（含失败重试），否则页面可能被其他实例重复采集；
+ * 共享同一目录的实例需使用相同的 leaseMillis：租约按领取顺序即过期顺序检查，租约时长不一致时过期URL可能延迟至前序租约过期后才重新入队。
+ */
+public class FileLeaseRunData extends RunData {
+    private static Logger logger = LoggerFactory.getLogger(FileLeaseRunData.class);
+
+    private static final int MAGIC = 0x584c5345;        // "XLSE"
+    private static final int HEADER_LENGTH = 4 + 8;     // magic + generation
+    private static final byte OP_ADD = 1;
+    private static final byte OP_LEASE = 2;
+    private static final byte OP_ACK = 3;
+    private static final byte OP_SEEN = 4;              // compacted, visited link
+
+    private static final String LOG_FILE = "frontier.log";
+    private static final String LOCK_FILE = "frontier.lock";
+
+    // FileLock is held per JVM, threads and instances of one JVM serialize on this lock first
+    private static final ConcurrentHashMap<String, ReentrantLock> jvmLockMap = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private final File logFile;
+    private final RandomAccessFile lockFile;
+    private final ReentrantLock jvmLock;
+    private FileLock fileLock;                          // held under jvmLock
+    private final long leaseMillis;                     // 租约时长（可见性超时），毫秒
+    private volatile long pollMillis = 100;             // 无可领取URL时的轮询间隔，毫秒
+    private volatile long compactBytes = 64 * 1024 * 1024;      // 日志压缩阈值，字节
+
+    // view of store, replayed from log
+    private long generation = 0;
+    private long readOffset = 0;
+    private long compactedLength = 0;
+    private final Set<String> seenUrlSet = new HashSet<String>();                   // 已记录URL池（待采集 + 已领取 + 已采集）
+    private final LinkedHashSet<String> unVisitedUrlSet = new LinkedHashSet<String>();    // 待采集URL池，FIFO
+    private final LinkedHashMap<String, Lease> leaseMap = new LinkedHashMap<String, Lease>();   // 已领取未确认的URL，按领取顺序即过期顺序
+
+    // leases claimed by this instance, link -> leaseId; at most one per link, an expired one is not re-leased by this instance
+    private final ConcurrentHashMap<String, Long> claimMap = new ConcurrentHashMap<String, Long>();
+    private final Random random = new Random();
+
+    private static class Lease {
+        private final long expireTime;
+        private final long leaseId;
+
+        Lease(long expireTime, long leaseId) {
+            this.expireTime = expireTime;
+            this.leaseId = leaseId;
+        }
+    }
+
+    public FileLeaseRunData(String storeDir) {
+        this(storeDir, TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * @param storeDir      存储目录，多个JVM共享同一目录即共享同一采集任务
+     * @param leaseMillis   租约时长（可见性超时），毫秒
+     */
+    public FileLeaseRunData(String storeDir, long leaseMillis) {
+        if (storeDir==null || storeDir.trim().length()==0) {
+            throw new XxlCrawlerException("FileLeaseRunData storeDir can not be empty.");
+        }
+        if (leaseMillis < 1) {
+            throw new XxlCrawlerException("FileLeaseRunData leaseMillis invalid, leaseMillis : " + leaseMillis);
+        }
+        File dir = new File(storeDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new XxlCrawlerException("FileLeaseRunData storeDir create fail, storeDir : " + storeDir);
+        }
+        this.logFile = new File(dir, LOG_FILE);
+        this.leaseMillis = leaseMillis;
+
+        try {
+            File lock = new File(dir, LOCK_FILE);
+            this.lockFile = new RandomAccessFile(lock, "rw");
+
+            String lockKey = lock.getCanonicalPath();
+            ReentrantLock newLock = new ReentrantLock();
+            ReentrantLock oldLock = jvmLockMap.putIfAbsent(lockKey, newLock);
+            this.jvmLock = oldLock!=null ? oldLock : newLock;
+        } catch (IOException e) {
+            throw new XxlCrawlerException("FileLeaseRunData init fail, error : " + e.getMessage());
+        }
+    }
+
+    public FileLeaseRunData setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+        return this;
+    }
+
+    public FileLeaseRunData setCompactBytes(long compactBytes) {
+        this.compactBytes = compactBytes;
+        return this;
+    }
+
+    // ---------------------- url ----------------------
+
+    @Override
+    public boolean addUrl(String link) {
+        return addUrls(Collections.singletonList(link)) > 0;
+    }
+
+    @Override
+    public int addUrls(Collection<String> links, String parentLink) {
+        if (links==null || links.isEmpty()) {
+            return 0;
+        }
+
+        int addNum = 0;
+        RandomAccessFile log = lock();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (String link: links) {
+                if (!UrlUtil.isUrl(link) || seenUrlSet.contains(link)) {
+                    continue;
+                }
+                out.writeByte(OP_ADD);
+                out.writeUTF(link);
+                applyAdd(link);
+                addNum++;
+            }
+            if (addNum > 0) {
+                append(log, bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            throw new XxlCrawlerException("FileLeaseRunData addUrls fail, error : " + e.getMessage());
+        } finally {
+            unlock(log);
+        }
+
+        logger.info(">>>>>>>>>>> xxl-crawler addUrls success, num: {}/{}, parentLink: {}", addNum, links.size(), parentLink);
+        return addNum;
+    }
+
+    /**
+     * lease a link, block until available
+     *
+     * 优先领取租约已过期的URL，其次为待采集URL；无待采集URL且无未确认租约时（采集已全部完成），返回null；
+     *
+     * @return String
+     */
+    @Override
+    public String getUrl() {
+        while (true) {
+            RandomAccessFile log = lock();
+            try {
+                long now = System.currentTimeMillis();
+                String link = null;
+                for (Map.Entry<String, Lease> entry: leaseMap.entrySet()) {
+                    if (entry.getValue().expireTime > now) {
+                        break;          // leases are appended with a constant leaseMillis, so ordered by expiry
+                    }
+                    if (!claimMap.containsKey(entry.getKey())) {     // still held by this instance, its ack stays unambiguous
+                        link = entry.getKey();
+                        logger.warn(">>>>>>>>>>> xxl-crawler FileLeaseRunData lease expired, requeue link: {}", link);
+                        break;
+                    }
+                }
+                if (link==null && !unVisitedUrlSet.isEmpty()) {
+                    link = unVisitedUrlSet.iterator().next();
+                }
+
+                if (link != null) {
+                    long expireTime = now + leaseMillis;
+                    long leaseId = random.nextLong();
+
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    out.writeByte(OP_LEASE);
+                    out.writeUTF(link);
+                    out.writeLong(expireTime);
+                    out.writeLong(leaseId);
+                    append(log, bytes.toByteArray());
+
+                    applyLease(link, expireTime, leaseId);
+                    claimMap.put(link, leaseId);
+                    return link;
+                }
+                if (leaseMap.isEmpty()) {
+                    return null;        // all done, nothing to wait for
+                }
+            } catch (IOException e) {
+                throw new XxlCrawlerException("FileLeaseRunData getUrl fail, error : " + e.getMessage());
+            } finally {
+                unlock(log);
+            }
+
+            // leased by others, wait for new link or lease expiry
+            try {
+                TimeUnit.MILLISECONDS.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                throw new XxlCrawlerException("FileLeaseRunData.getUrl interrupted.");
+            }
+        }
+    }
+
+    /**
+     * ack link, its lease is released and it will not be requeued
+     *
+     * @param link
+     */
+    @Override
+    public void finishUrl(String link) {
+        Long leaseId = link!=null ? claimMap.remove(link) : null;
+        if (leaseId == null) {
+            return;
+        }
+
+        RandomAccessFile log = lock();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(OP_ACK);
+            out.writeUTF(link);
+            out.writeLong(leaseId);
+            append(log, bytes.toByteArray());
+
+            applyAck(link, leaseId);
+        } catch (IOException e) {
+            throw new XxlCrawlerException("FileLeaseRunData finishUrl fail, error : " + e.getMessage());
+        } finally {
+            unlock(log);
+        }
+    }
+
+    /**
+     * url num, include leased but not acked ones: crawl is not finished while any node is still processing
+     *
+     * @return int
+     */
+    @Override
+    public int getUrlNum() {
+        RandomAccessFile log = lock();
+        try {
+            return unVisitedUrlSet.size() + leaseMap.size();
+        } finally {
+            unlock(log);
+        }
+    }
+
+    // ---------------------- apply ----------------------
+
+    private void applyAdd(String link) {
+        if (seenUrlSet.add(link)) {
+            unVisitedUrlSet.add(link);
+        }
+    }
+
+    private void applyLease(String link, long expireTime, long leaseId) {
+        seenUrlSet.add(link);
+        unVisitedUrlSet.remove(link);
+        leaseMap.remove(link);      // re-lease moves it to the tail
+        leaseMap.put(link, new Lease(expireTime, leaseId));
+    }
+
+    private void applyAck(String link, long leaseId) {
+        Lease lease = leaseMap.get(link);
+        if (lease!=null && lease.leaseId==leaseId) {
+            leaseMap.remove(link);  // a stale ack of an expired and re-leased link is ignored
+        }
+    }
+
+    // ---------------------- store ----------------------
+
+    /**
+     * lock store, and catch up with the log
+     *
+     * @return RandomAccessFile     log file, closed by unlock
+     */
+    private RandomAccessFile lock() {
+        jvmLock.lock();
+        RandomAccessFile log = null;
+        try {
+            fileLock = lockFile.getChannel().lock();
+            log = new RandomAccessFile(logFile, "rw");
+            catchUp(log);
+            return log;
+        } catch (Exception e) {
+            closeQuietly(log);
+            releaseLock();
+            if (e instanceof XxlCrawlerException) {
+                throw (XxlCrawlerException) e;
+            }
+            throw new XxlCrawlerException("FileLeaseRunData lock fail, error : " + e.getMessage());
+        }
+    }
+
+    private void unlock(RandomAccessFile log) {
+        try {
+            compactIfNeed(log);
+        } catch (IOException e) {
+            logger.error(">>>>>>>>>>> xxl-crawler FileLeaseRunData compact fail.", e);
+        } finally {
+            closeQuietly(log);
+            releaseLock();
+        }
+    }
+
+    private void releaseLock() {
+        if (fileLock != null) {
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            fileLock = null;
+        }
+        jvmLock.unlock();
+    }
+
+    /**
+     * replay records appended by others since last read; a new generation (log compacted) is replayed from start
+     */
+    private void catchUp(RandomAccessFile log) throws IOException {
+        if (log.length() < HEADER_LENGTH) {
+            long newGeneration = random.nextLong();
+            log.setLength(0);
+            log.writeInt(MAGIC);
+            log.writeLong(newGeneration);
+            resetView(newGeneration);       // new store, or crashed while creating
+            return;
+        }
+
+        log.seek(0);
+        if (log.readInt() != MAGIC) {
+            throw new XxlCrawlerException("FileLeaseRunData store format invalid, file : " + logFile.getPath());
+        }
+        long logGeneration = log.readLong();
+        if (logGeneration != generation) {
+            resetView(logGeneration);
+            compactedLength = log.length();
+        }
+
+        long length = log.length();
+        if (length <= readOffset) {
+            return;
+        }
+        byte[] data = new byte[(int) (length - readOffset)];
+        log.seek(readOffset);
+        log.readFully(data);
+
+        ByteArrayInputStream bytes = new ByteArrayInputStream(data);
+        DataInputStream in = new DataInputStream(bytes);
+        int goodLength = 0;
+        try {
+            while (bytes.available() > 0) {
+                byte op = in.readByte();
+                String link = in.readUTF();
+                if (op == OP_ADD) {
+                    applyAdd(link);
+                } else if (op == OP_LEASE) {
+                    long expireTime = in.readLong();
+                    applyLease(link, expireTime, in.readLong());
+                } else if (op == OP_ACK) {
+                    applyAck(link, in.readLong());
+                } else if (op == OP_SEEN) {
+                    seenUrlSet.add(link);
+                } else {
+                    throw new XxlCrawlerException("FileLeaseRunData store op invalid, op : " + op);
+                }
+                goodLength = data.length - bytes.available();
+            }
+        } catch (EOFException e) {
+            // incomplete tail record of a crashed writer, drop it
+            logger.warn(">>>>>>>>>>> xxl-crawler FileLeaseRunData drop incomplete record, offset : {}", readOffset + goodLength);
+            log.setLength(readOffset + goodLength);
+        }
+        readOffset += goodLength;
+    }
+
+    private void resetView(long newGeneration) {
+        generation = newGeneration;
+        readOffset = HEADER_LENGTH;
+        compactedLength = HEADER_LENGTH;
+        seenUrlSet.clear();
+        unVisitedUrlSet.clear();
+        leaseMap.clear();
+    }
+
+    /**
+     * append records, under lock; not forced to disk, a crashed JVM loses nothing already written
+     */
+    private void append(RandomAccessFile log, byte[] data) throws IOException {
+        log.seek(readOffset);
+        log.write(data);
+        readOffset += data.length;
+    }
+
+    /**
+     * rewrite log as current view, under lock; other JVMs detect the new generation and replay it from start
+     */
+    private void compactIfNeed(RandomAccessFile log) throws IOException {
+        if (log==null || readOffset<compactBytes || readOffset<compactedLength*2) {
+            return;
+        }
+
+        long newGeneration = random.nextLong();
+        File tmpFile = new File(logFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeLong(newGeneration);
+            for (String link: seenUrlSet) {
+                if (!unVisitedUrlSet.contains(link) && !leaseMap.containsKey(link)) {
+                    out.writeByte(OP_SEEN);
+                    out.writeUTF(link);
+                }
+            }
+            for (String link: unVisitedUrlSet) {
+                out.writeByte(OP_ADD);
+                out.writeUTF(link);
+            }
+            for (Map.Entry<String, Lease> entry: leaseMap.entrySet()) {
+                out.writeByte(OP_LEASE);
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().expireTime);
+                out.writeLong(entry.getValue().leaseId);
+            }
+        } finally {
+            out.close();
+        }
+
+        log.close();
+        if (!tmpFile.renameTo(logFile)) {
+            throw new IOException("log rename fail, file : " + logFile.getPath());
+        }
+        generation = newGeneration;
+        readOffset = logFile.length();
+        compactedLength = readOffset;
+        logger.info(">>>>>>>>>>> xxl-crawler FileLeaseRunData compact success, length : {}", readOffset);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.util.UrlUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * fingerprint run data
+ *
+ * 已记录URL池以64位URL指纹存储于分段的 long[] 开放寻址表中，无String、Entry及装箱开销，每个URL约占8~16字节；
+ * 64位指纹冲突概率极低（亿级URL约为万分之三），可视为精确去重。
+ */
+public class FingerprintRunData extends LocalRunData {
+
+    private static final int SEGMENT_NUM_DEFAULT = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public FingerprintRunData() {
+        this(1024 * 1024);
+    }
+
+    /**
+     * @param expectedUrlNum    预计URL数量，用于初始化表容量，超出时自动扩容
+     */
+    public FingerprintRunData(int expectedUrlNum) {
+        if (expectedUrlNum <= 0) {
+            throw new XxlCrawlerException("FingerprintRunData expectedUrlNum invalid, expectedUrlNum : " + expectedUrlNum);
+        }
+        this.segments = new Segment[SEGMENT_NUM_DEFAULT];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(SEGMENT_NUM_DEFAULT);
+
+        int segmentCapacity = (int) Math.ceil(expectedUrlNum / LOAD_FACTOR / SEGMENT_NUM_DEFAULT);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    @Override
+    protected boolean markSeen(String link) {
+        long fingerprint = UrlUtil.fingerprint(link);
+        if (fingerprint == 0) {
+            fingerprint = 1;    // 0 reserved for empty slot
+        }
+        return segments[(int) (fingerprint >>> segmentShift)].add(fingerprint);
+    }
+
+    @Override
+    protected void writeSeenIndex(DataOutputStream out) throws IOException {
+        out.writeInt(segments.length);
+        for (Segment segment: segments) {
+            segment.write(out);
+        }
+    }
+
+    @Override
+    protected void readSeenIndex(DataInputStream in) throws IOException {
+        int segmentNum = in.readInt();
+        for (int i = 0; i < segmentNum; i++) {
+            int num = in.readInt();
+            for (int j = 0; j < num; j++) {
+                long fingerprint = in.readLong();
+                segments[(int) (fingerprint >>> segmentShift)].add(fingerprint);
+            }
+        }
+    }
+
+    /**
+     * 已记录URL数量
+     *
+     * @return long
+     */
+    public long getSeenUrlNum() {
+        long num = 0;
+        for (Segment segment: segments) {
+            num += segment.size();
+        }
+        return num;
+    }
+
+    /**
+     * 指纹表占用字节数
+     *
+     * @return long
+     */
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Segment segment: segments) {
+            bytes += segment.capacity() * 8L;
+        }
+        return bytes;
+    }
+
+
+    /**
+     * segment, long[] open addressing (linear probing), guarded by its own monitor
+     */
+    private static class Segment {
+
+        private long[] table;
+        private int size;
+        private int threshold;
+
+        Segment(int capacity) {
+            int tableSize = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+            this.table = new long[tableSize];
+            this.threshold = (int) (tableSize * LOAD_FACTOR);
+        }
+
+        synchronized boolean add(long fingerprint) {
+            if (!insert(table, fingerprint)) {
+                return false;
+            }
+            if (++size > threshold) {
+                resize();
+            }
+            return true;
+        }
+
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (long item: table) {
+                if (item != 0) {
+                    out.writeLong(item);
+                }
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized int capacity() {
+            return table.length;
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length << 1];
+            for (long item: table) {
+                if (item != 0) {
+                    insert(newTable, item);
+                }
+            }
+            table = newTable;
+            threshold = (int) (newTable.length * LOAD_FACTOR);
+        }
+
+        private static boolean insert(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int index = (int) fingerprint & mask;     // high bits pick segment, low bits pick slot
+            while (true) {
+                long item = table[index];
+                if (item == 0) {
+                    table[index] = fingerprint;
+                    return true;
+                }
+                if (item == fingerprint) {
+                    return false;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.util.UrlUtil;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * per-host run data, politeness scheduling
+ *
+ * 待采集URL池按主机拆分为多个队列，并按 "主机就绪时间" 调度：同一主机两次分发之间至少间隔 hostDelayMillis，
+ * 爬虫线程总是从某个已就绪的主机获取URL，而非在采集后统一停顿；使用时建议 pauseMillis 保持为0，由本模型控制访问频率。
+ */
+public class HostRunData extends LocalRunData {
+
+    private final long hostDelayMillis;                                                 // 同一主机的访问间隔，毫秒
+    private final Map<String, Long> hostDelayMap = new ConcurrentHashMap<String, Long>();     // 主机访问间隔，单独设置
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<String, HostQueue> hostQueueMap = new HashMap<String, HostQueue>();
+    private final PriorityQueue<HostQueue> readyQueue = new PriorityQueue<HostQueue>();     // 有待采集URL的主机，按就绪时间排序
+    private final ArrayDeque<HostQueue> idleQueue = new ArrayDeque<HostQueue>();            // 已取空的主机，按取空顺序，就绪后移出 hostQueueMap
+    private int urlNum = 0;
+
+    /**
+     * @param hostDelayMillis   同一主机的访问间隔，毫秒
+     */
+    public HostRunData(long hostDelayMillis) {
+        if (hostDelayMillis < 0) {
+            throw new XxlCrawlerException("HostRunData hostDelayMillis invalid, hostDelayMillis : " + hostDelayMillis);
+        }
+        this.hostDelayMillis = hostDelayMillis;
+    }
+
+    /**
+     * 单独设置主机访问间隔，如对大站放宽、对小站收紧
+     *
+     * @param host
+     * @param delayMillis
+     * @return HostRunData
+     */
+    public HostRunData setHostDelay(String host, long delayMillis) {
+        hostDelayMap.put(host.toLowerCase(), delayMillis);
+        return this;
+    }
+
+    private static class HostQueue implements Comparable<HostQueue> {
+        private final String host;
+        private final ArrayDeque<String> urls = new ArrayDeque<String>();
+        private long readyTime = System.nanoTime();     // host can be served again after it
+        private boolean scheduled = false;              // whether in readyQueue
+        private boolean idle = false;                   // whether in idleQueue
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public int compareTo(HostQueue o) {
+            long diff = readyTime - o.readyTime;        // nanoTime may overflow, compare by difference
+            return diff<0 ? -1 : (diff==0 ? 0 : 1);
+        }
+    }
+
+    @Override
+    protected void offerUrl(String link) {
+        lock.lock();
+        try {
+            enqueue(link);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected void offerUrls(List<String> links) {
+        lock.lock();
+        try {
+            for (String link: links) {
+                enqueue(link);
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * enqueue link into its host queue, under lock
+     */
+    private void enqueue(String link) {
+        evictIdle(System.nanoTime());
+
+        String host = UrlUtil.getHost(link);
+        if (host == null) {
+            host = "";
+        }
+
+        HostQueue hostQueue = hostQueueMap.get(host);
+        if (hostQueue == null) {
+            hostQueue = new HostQueue(host);
+            hostQueueMap.put(host, hostQueue);
+        }
+        hostQueue.urls.add(link);
+        urlNum++;
+
+        if (!hostQueue.scheduled) {
+            hostQueue.scheduled = true;
+            readyQueue.add(hostQueue);
+        }
+    }
+
+    @Override
+    protected String takeUrl() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                HostQueue hostQueue = readyQueue.peek();
+                if (hostQueue == null) {
+                    notEmpty.await();
+                    continue;
+                }
+
+                long now = System.nanoTime();
+                evictIdle(now);
+                long waitNanos = hostQueue.readyTime - now;
+                if (waitNanos > 0) {
+                    notEmpty.awaitNanos(waitNanos);     // earliest host not ready yet, or new host arrives
+                    continue;
+                }
+
+                readyQueue.poll();
+                String link = hostQueue.urls.poll();
+                urlNum--;
+
+                hostQueue.readyTime = now + TimeUnit.MILLISECONDS.toNanos(getHostDelay(hostQueue.host));
+                if (hostQueue.urls.isEmpty()) {
+                    hostQueue.scheduled = false;
+                    if (!hostQueue.idle) {
+                        hostQueue.idle = true;
+                        idleQueue.add(hostQueue);
+                    }
+                } else {
+                    readyQueue.add(hostQueue);
+                }
+                if (!readyQueue.isEmpty()) {
+                    notEmpty.signal();          // let next waiter re-evaluate the new head
+                }
+                return link;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getUrlNum() {
+        lock.lock();
+        try {
+            return urlNum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前有待采集URL的主机数量
+     *
+     * @return int
+     */
+    public int getHostNum() {
+        lock.lock();
+        try {
+            return readyQueue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * remove drained host queues whose delay has passed, under lock
+     *
+     * 已取空且已就绪的主机队列与新建队列等价，移出后按需重建，避免 hostQueueMap 随主机数量无限增长；
+     * 仍在访问间隔内的主机保留，保证再次入队时不绕过访问间隔。
+     */
+    private void evictIdle(long now) {
+        HostQueue hostQueue;
+        while ((hostQueue = idleQueue.peek()) != null) {
+            if (!hostQueue.scheduled && hostQueue.readyTime - now > 0) {
+                break;                                  // not ready yet, per-host delay may differ, check again later
+            }
+            idleQueue.poll();
+            hostQueue.idle = false;
+            if (!hostQueue.scheduled) {
+                hostQueueMap.remove(hostQueue.host);    // re-scheduled ones stay, re-enter idleQueue when drained again
+            }
+        }
+    }
+
+    private long getHostDelay(String host) {
+        Long delayMillis = hostDelayMap.get(host);
+        return delayMillis!=null ? delayMillis : hostDelayMillis;
+    }
+
+    @Override
+    protected void writeFrontier(DataOutputStream out) throws IOException {
+        lock.lock();
+        try {
+            for (HostQueue hostQueue: hostQueueMap.values()) {
+                for (String link: hostQueue.urls) {
+                    out.writeBoolean(true);
+                    out.writeUTF(link);
+                }
+            }
+            out.writeBoolean(false);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -6,10 +6,19 @@ import com.xuxueli.crawler.util.UrlUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * lcoal run data
@@ -21,8 +30,91 @@ public class LocalRunData extends RunData {
 
     // url
     private volatile LinkedBlockingQueue<String> unVisitedUrlQueue = new LinkedBlockingQueue<String>();     // 待采集URL池
-    private volatile Set<String> visitedUrlSet = Collections.synchronizedSet(new HashSet<String>());        // 已采集URL池
+    private volatile Set<String> seenUrlSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());     // 已记录URL池（待采集 + 已采集），O(1)去重且不占用队列锁
 
+    // limit
+    private volatile int maxDepth = 0;                                                                        // 最大采集深度，种子URL深度为0，大于零时生效
+    private volatile long maxPageNum = 0;                                                                     // 全局页面预算，最多入队URL数量，大于零时生效
+    private volatile int maxHostPageNum = 0;                                                                  // 单主机页面预算，大于零时生效
+    private final ConcurrentHashMap<String, UrlMeta> urlMetaMap = new ConcurrentHashMap<String, UrlMeta>();   // 待采集及采集中URL的元数据，开启深度限制（或子类需要）时记录
+    private final AtomicLong pageNum = new AtomicLong(0);
+    private final ConcurrentHashMap<String, AtomicInteger> hostPageNumMap = new ConcurrentHashMap<String, AtomicInteger>();
+
+    // checkpoint
+    private volatile RunDataCheckpoint checkpoint;                                                            // 运行数据快照，为空时不记录
+    private final Set<String> inflightUrlSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());   // 采集中URL（已领取、未完成），开启快照时记录
+
+    /**
+     * url meta, depth and parent
+     */
+    private static class UrlMeta {
+        private final int depth;
+        private final String parentLink;
+
+        UrlMeta(int depth, String parentLink) {
+            this.depth = depth;
+            this.parentLink = parentLink;
+        }
+    }
+
+    // ---------------------- limit ----------------------
+
+    /**
+     * 最大采集深度，种子URL深度为0，超出深度的URL不再入队；大于零时生效；需在新增URL（含 setCheckpoint 恢复）之前设置
+     *
+     * @param maxDepth
+     * @return LocalRunData
+     */
+    public LocalRunData setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * 全局页面预算，最多入队URL数量，耗尽后不再入队；大于零时生效；已消耗预算随快照持久化
+     *
+     * @param maxPageNum
+     * @return LocalRunData
+     */
+    public LocalRunData setMaxPageNum(long maxPageNum) {
+        this.maxPageNum = maxPageNum;
+        return this;
+    }
+
+    /**
+     * 单主机页面预算，每个主机最多入队URL数量；大于零时生效；已消耗预算随快照持久化
+     *
+     * @param maxHostPageNum
+     * @return LocalRunData
+     */
+    public LocalRunData setMaxHostPageNum(int maxHostPageNum) {
+        this.maxHostPageNum = maxHostPageNum;
+        return this;
+    }
+
+    /**
+     * 获取待采集或采集中URL的深度，未开启深度限制或未知时返回-1
+     *
+     * @param link
+     * @return int
+     */
+    public int getDepth(String link) {
+        UrlMeta urlMeta = urlMetaMap.get(link);
+        return urlMeta!=null ? urlMeta.depth : -1;
+    }
+
+    /**
+     * 获取待采集或采集中URL的父页面，未开启深度限制或未知时返回null
+     *
+     * @param link
+     * @return String
+     */
+    public String getParentUrl(String link) {
+        UrlMeta urlMeta = urlMetaMap.get(link);
+        return urlMeta!=null ? urlMeta.parentLink : null;
+    }
+
+    // ---------------------- url ----------------------
 
     /**
      * url add
@@ -30,20 +122,110 @@ public class LocalRunData extends RunData {
      */
     @Override
     public boolean addUrl(String link) {
+        return addUrl(link, null);
+    }
+
+    /**
+     * url add, with parent link
+     *
+     * 深度 = 父页面深度 + 1（父页面未知时视为1，如从快照恢复的URL）；超出最大深度、全局或单主机页面预算时不再入队；
+     *
+     * @param link
+     * @param parentLink
+     * @return boolean
+     */
+    @Override
+    public boolean addUrl(String link, String parentLink) {
+        int depth = parentDepth(parentLink);
+        if (!admitUrl(link, depth, parentLink)) {
+            return false;
+        }
+        offerUrl(link, depth, parentLink);
+        logger.info(">>>>>>>>>>> xxl-crawler addUrl success, link: {}", link);
+        return true;
+    }
+
+    /**
+     * url add in batch, with parent link
+     *
+     * 父页面深度只计算一次，通过校验的URL一次性入队；
+     *
+     * @param links
+     * @param parentLink
+     * @return int
+     */
+    @Override
+    public int addUrls(Collection<String> links, String parentLink) {
+        if (links==null || links.isEmpty()) {
+            return 0;
+        }
+
+        int depth = parentDepth(parentLink);
+        List<String> admitLinks = new ArrayList<String>(links.size());
+        for (String link: links) {
+            if (admitUrl(link, depth, parentLink)) {
+                admitLinks.add(link);
+            }
+        }
+        if (admitLinks.size() > 0) {
+            offerUrls(admitLinks, depth, parentLink);
+        }
+        logger.info(">>>>>>>>>>> xxl-crawler addUrls success, num: {}/{}, parentLink: {}", admitLinks.size(), links.size(), parentLink);
+        return admitLinks.size();
+    }
+
+    /**
+     * depth of child link, by parent link
+     *
+     * @param parentLink
+     * @return int
+     */
+    private int parentDepth(String parentLink) {
+        if (parentLink == null) {
+            return 0;
+        }
+        UrlMeta parentMeta = urlMetaMap.get(parentLink);
+        return parentMeta!=null ? parentMeta.depth + 1 : 1;
+    }
+
+    /**
+     * check link and record it as seen, ready to be offered
+     *
+     * @param link
+     * @param depth
+     * @param parentLink
+     * @return boolean
+     */
+    private boolean admitUrl(String link, int depth, String parentLink) {
         if (!UrlUtil.isUrl(link)) {
             logger.debug(">>>>>>>>>>> xxl-crawler addUrl fail, link not valid: {}", link);
             return false; // check URL格式
         }
-        if (visitedUrlSet.contains(link)) {
+        if (!acceptUrl(link)) {
+            return false; // check 运行数据自身限制，如URL长度
+        }
+
+        // depth, check before dedup: a shallower parent may reach it later
+        if (maxDepth>0 && depth>maxDepth) {
+            logger.debug(">>>>>>>>>>> xxl-crawler addUrl fail, link over max depth: {}", link);
+            return false; // check 深度
+        }
+
+        if (!markSeen(link)) {
             logger.debug(">>>>>>>>>>> xxl-crawler addUrl fail, link repeate: {}", link);
-            return false; // check 未访问过
+            return false; // check 未访问过 & 未记录过
         }
-        if (unVisitedUrlQueue.contains(link)) {
-            logger.debug(">>>>>>>>>>> xxl-crawler addUrl fail, link visited: {}", link);
-            return false; // check 未记录过
+        if (!acquireBudget(link)) {
+            logger.debug(">>>>>>>>>>> xxl-crawler addUrl fail, page budget exhausted: {}", link);
+            return false; // check 页面预算
+        }
+
+        if (isTrackDepth()) {
+            urlMetaMap.put(link, new UrlMeta(depth, parentLink));
+        }
+        if (checkpoint != null) {
+            checkpoint.journalAdd(link, isTrackDepth() ? depth : -1, parentLink);      // journal before offer, so add is always ahead of finish
         }
-        unVisitedUrlQueue.add(link);
-        logger.info(">>>>>>>>>>> xxl-crawler addUrl success, link: {}", link);
         return true;
     }
 
@@ -56,19 +238,283 @@ public class LocalRunData extends RunData {
     public String getUrl() {
         String link = null;
         try {
-            link = unVisitedUrlQueue.take();
+            link = takeUrl();
         } catch (InterruptedException e) {
             throw new XxlCrawlerException("LocalRunData.getUrl interrupted.");
         }
-        if (link != null) {
-            visitedUrlSet.add(link);
+        if (checkpoint != null) {
+            inflightUrlSet.add(link);       // in snapshot until finished, re-queued on resume
         }
         return link;
     }
 
+    /**
+     * url finish, release its meta; journal finish, link taken but not finished is re-queued on resume
+     *
+     * @param link
+     */
+    @Override
+    public void finishUrl(String link) {
+        if (link != null) {
+            urlMetaMap.remove(link);
+            if (checkpoint!=null && inflightUrlSet.remove(link)) {
+                checkpoint.journalFinish(link);
+            }
+        }
+    }
+
     @Override
     public int getUrlNum() {
         return unVisitedUrlQueue.size();
     }
 
+    /**
+     * acquire global and per-host page budget
+     *
+     * @param link
+     * @return boolean
+     */
+    private boolean acquireBudget(String link) {
+        if (maxPageNum > 0) {
+            if (pageNum.incrementAndGet() > maxPageNum) {
+                pageNum.decrementAndGet();
+                return false;
+            }
+        }
+        if (maxHostPageNum > 0) {
+            AtomicInteger hostPageNum = hostPageNum(UrlUtil.getHost(link));
+            if (hostPageNum.incrementAndGet() > maxHostPageNum) {
+                hostPageNum.decrementAndGet();
+                if (maxPageNum > 0) {
+                    pageNum.decrementAndGet();      // give back global budget
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AtomicInteger hostPageNum(String host) {
+        AtomicInteger hostPageNum = hostPageNumMap.get(host);
+        if (hostPageNum == null) {
+            AtomicInteger newHostPageNum = new AtomicInteger(0);
+            hostPageNum = hostPageNumMap.putIfAbsent(host, newHostPageNum);
+            if (hostPageNum == null) {
+                hostPageNum = newHostPageNum;
+            }
+        }
+        return hostPageNum;
+    }
+
+    /**
+     * check link before it is recorded as seen or charged to budget; subclass may reject links it can not store
+     *
+     * @param link
+     * @return boolean  true if link can be queued
+     */
+    protected boolean acceptUrl(String link) {
+        return true;
+    }
+
+    /**
+     * whether record depth and parent of queued links, on when depth limit is on; subclass may turn it on
+     *
+     * @return boolean
+     */
+    protected boolean isTrackDepth() {
+        return maxDepth > 0;
+    }
+
+    /**
+     * push newly added link, with its depth and parent; default {@link #offerUrl(String)}
+     *
+     * @param link
+     * @param depth         depth of link, accurate only if {@link #isTrackDepth()}
+     * @param parentLink    null for seed
+     */
+    protected void offerUrl(String link, int depth, String parentLink) {
+        offerUrl(link);
+    }
+
+    /**
+     * push newly added links of same parent in batch; default {@link #offerUrls(List)}
+     *
+     * @param links
+     * @param depth
+     * @param parentLink
+     */
+    protected void offerUrls(List<String> links, int depth, String parentLink) {
+        offerUrls(links);
+    }
+
+    /**
+     * push link into unVisitedUrlQueue
+     *
+     * @param link
+     */
+    protected void offerUrl(String link) {
+        unVisitedUrlQueue.add(link);
+    }
+
+    /**
+     * push links into unVisitedUrlQueue in batch; subclass overriding {@link #offerUrl(String)} should override it too
+     *
+     * @param links
+     */
+    protected void offerUrls(List<String> links) {
+        unVisitedUrlQueue.addAll(links);
+    }
+
+    /**
+     * take link from unVisitedUrlQueue, block until available
+     *
+     * @return String
+     * @throws InterruptedException
+     */
+    protected String takeUrl() throws InterruptedException {
+        return unVisitedUrlQueue.take();
+    }
+
+    /**
+     * mark link as seen (queued or visited), atomic check-and-add
+     *
+     * @param link
+     * @return boolean  true if link is first seen
+     */
+    protected boolean markSeen(String link) {
+        return seenUrlSet.add(link);
+    }
+
+    // ---------------------- checkpoint ----------------------
+
+    void setCheckpoint(RunDataCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * write seen index (queued + visited) to snapshot
+     *
+     * @param out
+     * @throws IOException
+     */
+    protected void writeSeenIndex(DataOutputStream out) throws IOException {
+        for (String link: seenUrlSet) {
+            out.writeBoolean(true);
+            out.writeUTF(link);
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * read seen index from snapshot, written by {@link #writeSeenIndex(DataOutputStream)}
+     *
+     * @param in
+     * @throws IOException
+     */
+    protected void readSeenIndex(DataInputStream in) throws IOException {
+        while (in.readBoolean()) {
+            seenUrlSet.add(in.readUTF());
+        }
+    }
+
+    /**
+     * write unVisitedUrlQueue to snapshot, in take order
+     *
+     * @param out
+     * @throws IOException
+     */
+    protected void writeFrontier(DataOutputStream out) throws IOException {
+        for (String link: unVisitedUrlQueue) {
+            out.writeBoolean(true);
+            out.writeUTF(link);
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * write links taken but not finished to snapshot, after frontier: a link taken in between is written twice, never lost
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeInflight(DataOutputStream out) throws IOException {
+        for (String link: inflightUrlSet) {
+            out.writeBoolean(true);
+            out.writeUTF(link);
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * write consumed page budget, and depth of queued and in-flight links, to snapshot
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeLimits(DataOutputStream out) throws IOException {
+        out.writeLong(pageNum.get());
+        for (Map.Entry<String, AtomicInteger> item: hostPageNumMap.entrySet()) {
+            out.writeBoolean(true);
+            out.writeUTF(item.getKey());
+            out.writeInt(item.getValue().get());
+        }
+        out.writeBoolean(false);
+        for (Map.Entry<String, UrlMeta> item: urlMetaMap.entrySet()) {
+            out.writeBoolean(true);
+            out.writeUTF(item.getKey());
+            out.writeInt(item.getValue().depth);
+            out.writeUTF(item.getValue().parentLink!=null ? item.getValue().parentLink : "");
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * read limits from snapshot, written by {@link #writeLimits(DataOutputStream)}
+     *
+     * @param in
+     * @throws IOException
+     */
+    void readLimits(DataInputStream in) throws IOException {
+        pageNum.set(in.readLong());
+        while (in.readBoolean()) {
+            String host = in.readUTF();
+            hostPageNum(host).set(in.readInt());
+        }
+        while (in.readBoolean()) {
+            String link = in.readUTF();
+            int depth = in.readInt();
+            String parentLink = in.readUTF();
+            urlMetaMap.put(link, new UrlMeta(depth, parentLink.length()>0 ? parentLink : null));
+        }
+    }
+
+    /**
+     * replay journal add: charge page budget without limit, it was admitted before; restore depth
+     *
+     * @param link
+     * @param depth         -1 if depth limit is off
+     * @param parentLink
+     * @param unseen        false if already in snapshot seen-index, its budget may be in snapshot too and is not charged again
+     */
+    void replayAdd(String link, int depth, String parentLink, boolean unseen) {
+        if (unseen && maxPageNum>0) {
+            pageNum.incrementAndGet();
+        }
+        if (unseen && maxHostPageNum>0) {
+            hostPageNum(UrlUtil.getHost(link)).incrementAndGet();
+        }
+        if (depth > -1) {
+            urlMetaMap.put(link, new UrlMeta(depth, parentLink));
+        }
+    }
+
+    /**
+     * replay journal finish, or drop meta of link not restored to frontier
+     *
+     * @param link
+     */
+    void replayFinish(String link) {
+        urlMetaMap.remove(link);
+    }
+
 }
@@ -0,0 +1,357 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.rundata.RunData;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * host partitioned run data, for multi-node crawling
+ *
+ * 按主机名一致性Hash将URL划分至多个节点，每个节点仅采集归属于自己的主机：
+ *
+ *      本地：归属本节点的URL进入本地 RunData（如 "HostRunData"），主机礼貌调度与去重均在本地完成，不存在中心节点瓶颈；
+ *      转发：归属其他节点的URL按目标节点分组，每个页面每个目标节点一次批量转发（"RunDataServer" 协议）；目标节点不可达时降级为本地采集；
+ *      终止：本地无待采集及采集中URL时，连续两轮扫描全部节点，均空闲且累计接收URL数量不变时，认为全局采集完成；
+ *            不可达节点（如尚未启动）视为繁忙，持续不可达超过 peerTimeoutMillis 后视为已下线，不再阻止终止；
+ *            上次扫描时空闲的节点变为不可达时（如已完成并关闭），视为已完成；
+ *      生命周期：本节点 "RunDataServer" 在 start 时启动，未显式调用时于首次新增、领取URL或查询数量时启动；close 时关闭，爬虫终止时自动调用；
+ *
+ * 跨节点转发的URL不携带父页面，其深度按未知父页面处理。
+ */
+public class PartitionRunData extends RunData implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(PartitionRunData.class);
+
+    private final RunData localRunData;
+    private final String selfNode;
+    private final ConsistentHashRouter router;
+    private final RunDataServer server;
+    private final Map<String, RemoteRunData> peerMap = new LinkedHashMap<String, RemoteRunData>();
+
+    private final AtomicInteger inflightNum = new AtomicInteger(0);        // 本地已领取未完成的URL数量
+    private final ReentrantLock takeLock = new ReentrantLock();            // 本地领取锁；领取可能阻塞，不使用监视器锁以免钉住虚拟线程
+    private volatile long pollMillis = 100;                                 // 本地无待采集URL时的轮询间隔，毫秒
+    private volatile long peerTimeoutMillis = 60 * 1000;                    // 节点持续不可达超时，毫秒；超时前视为繁忙
+    private final ConcurrentHashMap<String, Long> unreachableSinceMap = new ConcurrentHashMap<String, Long>();     // 节点首次不可达时间
+    private final Set<String> downNodeSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());   // 不可达超时、视为已下线的节点
+    private final Set<String> idleNodeSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());   // 上次扫描时空闲的节点
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    /**
+     * @param localRunData  本地运行数据，仅保存归属本节点的URL
+     * @param selfNode      本节点地址，格式 "host:port"，同时作为本节点 "RunDataServer" 的监听地址
+     * @param nodes         全部节点地址（含本节点），各节点配置需保持一致
+     */
+    public PartitionRunData(RunData localRunData, String selfNode, List<String> nodes) {
+        if (localRunData == null) {
+            throw new XxlCrawlerException("PartitionRunData localRunData can not be null.");
+        }
+        if (nodes==null || !nodes.contains(selfNode)) {
+            throw new XxlCrawlerException("PartitionRunData nodes must contain selfNode, selfNode : " + selfNode);
+        }
+        this.localRunData = localRunData;
+        this.selfNode = selfNode;
+        this.router = new ConsistentHashRouter(nodes);
+
+        for (String node: router.getNodes()) {
+            if (!node.equals(selfNode)) {
+                peerMap.put(node, new RemoteRunData(parseHost(node), parsePort(node), 1));
+            }
+        }
+        this.server = new RunDataServer(new LocalView(), parseHost(selfNode), parsePort(selfNode));
+    }
+
+    public PartitionRunData setPollMillis(long pollMillis) {
+        this.pollMillis = pollMillis;
+        return this;
+    }
+
+    /**
+     * 节点持续不可达超时：超时前不可达节点视为繁忙（如尚未启动、短暂网络故障），超时后视为已下线，不再阻止全局终止
+     *
+     * @param peerTimeoutMillis
+     * @return PartitionRunData
+     */
+    public PartitionRunData setPeerTimeoutMillis(long peerTimeoutMillis) {
+        this.peerTimeoutMillis = peerTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * 本地运行数据，仅包含归属本节点的URL
+     *
+     * @return RunData
+     */
+    public RunData getLocalRunData() {
+        return localRunData;
+    }
+
+    /**
+     * start server of this node, peers forward links to it; idempotent, called lazily on first add, take or num
+     *
+     * @return PartitionRunData
+     */
+    public PartitionRunData start() {
+        if (closed) {
+            throw new XxlCrawlerException("PartitionRunData is closed, selfNode : " + selfNode);
+        }
+        if (started.compareAndSet(false, true)) {
+            server.start();
+        }
+        return this;
+    }
+
+    /**
+     * stop server of this node, and close connections to peers
+     */
+    @Override
+    public void close() {
+        closed = true;
+        server.stop();
+        for (RemoteRunData peer: peerMap.values()) {
+            peer.close();
+        }
+    }
+
+    // ---------------------- url ----------------------
+
+    @Override
+    public boolean addUrl(String link) {
+        return addUrls(Collections.singletonList(link), null) > 0;
+    }
+
+    @Override
+    public boolean addUrl(String link, String parentLink) {
+        return addUrls(Collections.singletonList(link), parentLink) > 0;
+    }
+
+    /**
+     * route links by host, local ones are added directly, the others are forwarded in one batch per node
+     *
+     * forwarding is synchronous: the parent link is still inflight here until its children are accepted by owner node
+     *
+     * @return int      num of links admitted by local run data; forwarded links are owned and counted by their node
+     */
+    @Override
+    public int addUrls(Collection<String> links, String parentLink) {
+        if (links==null || links.isEmpty()) {
+            return 0;
+        }
+        start();
+
+        Map<String, List<String>> nodeLinks = new HashMap<String, List<String>>();
+        for (String link: links) {
+            if (!UrlUtil.isUrl(link)) {
+                continue;
+            }
+            String host = UrlUtil.getHost(link);
+            String node = host!=null ? router.route(host) : selfNode;
+
+            List<String> batch = nodeLinks.get(node);
+            if (batch == null) {
+                batch = new ArrayList<String>();
+                nodeLinks.put(node, batch);
+            }
+            batch.add(link);
+        }
+
+        int addNum = 0;
+        for (Map.Entry<String, List<String>> entry: nodeLinks.entrySet()) {
+            RemoteRunData peer = peerMap.get(entry.getKey());
+            if (peer == null) {
+                addNum += localRunData.addUrls(entry.getValue(), parentLink);
+                continue;
+            }
+            try {
+                peer.addUrls(entry.getValue(), null);
+            } catch (XxlCrawlerException e) {
+                logger.warn(">>>>>>>>>>> xxl-crawler PartitionRunData forward fail, crawl locally, node : {}, error : {}", entry.getKey(), e.getMessage());
+                addNum += localRunData.addUrls(entry.getValue(), parentLink);
+            }
+        }
+        return addNum;
+    }
+
+    /**
+     * take local link, wait while other nodes are still running; return null if all nodes finished
+     *
+     * @return String
+     */
+    @Override
+    public String getUrl() {
+        start();
+        while (true) {
+            try {
+                takeLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                throw new XxlCrawlerException("PartitionRunData.getUrl interrupted.");
+            }
+            try {
+                if (localRunData.getUrlNum() > 0) {
+                    inflightNum.incrementAndGet();      // counted before it leaves local run data, released if none returned
+                    String link = null;
+                    try {
+                        link = localRunData.getUrl();   // sole consumer of local run data, available
+                    } finally {
+                        if (link == null) {
+                            inflightNum.decrementAndGet();
+                        }
+                    }
+                    if (link != null) {
+                        return link;
+                    }
+                }
+            } finally {
+                takeLock.unlock();
+            }
+            if (getGlobalUrlNum() == 0) {
+                return null;
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(pollMillis);
+            } catch (InterruptedException e) {
+                throw new XxlCrawlerException("PartitionRunData.getUrl interrupted.");
+            }
+        }
+    }
+
+    @Override
+    public void finishUrl(String link) {
+        localRunData.finishUrl(link);
+        inflightNum.decrementAndGet();
+    }
+
+    /**
+     * url num, local first; global if local is idle
+     *
+     * @return int
+     */
+    @Override
+    public int getUrlNum() {
+        start();
+        int localNum = getLocalUrlNum();
+        return localNum>0 ? localNum : getGlobalUrlNum();
+    }
+
+    private int getLocalUrlNum() {
+        return localRunData.getUrlNum() + inflightNum.get();
+    }
+
+    /**
+     * scan all nodes twice, finished only if all idle and no link received in between
+     *
+     * @return int
+     */
+    private int getGlobalUrlNum() {
+        long[] firstReceived = new long[peerMap.size() + 1];
+        int urlNum = scan(firstReceived);
+        if (urlNum > 0) {
+            return urlNum;
+        }
+
+        long[] secondReceived = new long[peerMap.size() + 1];
+        urlNum = scan(secondReceived);
+        if (urlNum > 0) {
+            return urlNum;
+        }
+        return Arrays.equals(firstReceived, secondReceived) ? 0 : 1;
+    }
+
+    private int scan(long[] received) {
+        int urlNum = getLocalUrlNum();
+        received[0] = server.getReceivedNum();
+
+        int i = 1;
+        for (Map.Entry<String, RemoteRunData> entry: peerMap.entrySet()) {
+            try {
+                long[] stat = entry.getValue().getStat();
+                urlNum += (int) stat[0];
+                received[i] = stat[1];
+                unreachableSinceMap.remove(entry.getKey());
+                downNodeSet.remove(entry.getKey());
+                if (stat[0] == 0) {
+                    idleNodeSet.add(entry.getKey());
+                } else {
+                    idleNodeSet.remove(entry.getKey());
+                }
+            } catch (XxlCrawlerException e) {
+                received[i] = -1;
+                if (!idleNodeSet.contains(entry.getKey()) && isPeerBusy(entry.getKey())) {     // idle then gone: finished and closed
+                    urlNum++;           // unreachable node is treated as busy, until peer timeout
+                }
+            }
+            i++;
+        }
+        return urlNum;
+    }
+
+    /**
+     * unreachable peer is busy until peerTimeoutMillis, then it is treated as down
+     */
+    private boolean isPeerBusy(String node) {
+        long now = System.currentTimeMillis();
+        Long since = unreachableSinceMap.putIfAbsent(node, now);
+        if (since==null || now-since < peerTimeoutMillis) {
+            logger.debug(">>>>>>>>>>> xxl-crawler PartitionRunData node unreachable, node : {}", node);
+            return true;
+        }
+        if (downNodeSet.add(node)) {
+            logger.warn(">>>>>>>>>>> xxl-crawler PartitionRunData node unreachable over {}ms, treated as down, node : {}", peerTimeoutMillis, node);
+        }
+        return false;
+    }
+
+    // ---------------------- local view ----------------------
+
+    /**
+     * view of this node served to peers: forwarded links are added locally, url num is local only
+     */
+    private class LocalView extends RunData {
+        @Override
+        public boolean addUrl(String link) {
+            return localRunData.addUrl(link);
+        }
+
+        @Override
+        public int addUrls(Collection<String> links, String parentLink) {
+            return localRunData.addUrls(links, parentLink);
+        }
+
+        @Override
+        public String getUrl() {
+            throw new XxlCrawlerException("PartitionRunData node does not serve getUrl.");
+        }
+
+        @Override
+        public int getUrlNum() {
+            return getLocalUrlNum();    // reported by STAT, peers never GET from it
+        }
+    }
+
+    private static String parseHost(String node) {
+        int index = node.lastIndexOf(':');
+        if (index < 1) {
+            throw new XxlCrawlerException("PartitionRunData node invalid, node : " + node);
+        }
+        return node.substring(0, index);
+    }
+
+    private static int parsePort(String node) {
+        try {
+            return Integer.parseInt(node.substring(node.lastIndexOf(':') + 1));
+        } catch (NumberFormatException e) {
+            throw new XxlCrawlerException("PartitionRunData node invalid, node : " + node);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.scorer.UrlScoreContext;
+import com.xuxueli.crawler.scorer.UrlScorer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * priority run data
+ *
+ * 待采集URL池按 "UrlScorer" 得分排序，得分高者优先采集，同分时按入队顺序（广度优先）；
+ * 基于无锁跳表实现，入队与出队均为 O(logN) 且不存在全局锁，适用于采集预算有限、需优先采集高价值页面的场景；
+ * 打分时提供URL、父页面及深度（见 "UrlScoreContext"），因此始终记录待采集URL的深度与父页面。
+ */
+public class PriorityRunData extends LocalRunData {
+
+    private final UrlScorer urlScorer;
+
+    private final ConcurrentSkipListSet<Entry> unVisitedUrlSet = new ConcurrentSkipListSet<Entry>();
+    private final Semaphore available = new Semaphore(0);       // permits == entries
+    private final AtomicLong seq = new AtomicLong(0);
+
+    public PriorityRunData(UrlScorer urlScorer) {
+        if (urlScorer == null) {
+            throw new XxlCrawlerException("PriorityRunData urlScorer can not be null.");
+        }
+        this.urlScorer = urlScorer;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        private final double score;
+        private final long seq;
+        private final String link;
+
+        Entry(double score, long seq, String link) {
+            this.score = score;
+            this.seq = seq;
+            this.link = link;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int ret = Double.compare(o.score, score);       // score desc
+            if (ret != 0) {
+                return ret;
+            }
+            return seq<o.seq ? -1 : (seq==o.seq ? 0 : 1);  // fifo
+        }
+    }
+
+    @Override
+    protected boolean isTrackDepth() {
+        return true;        // depth and parent for scorer
+    }
+
+    @Override
+    protected void offerUrl(String link, int depth, String parentLink) {
+        unVisitedUrlSet.add(new Entry(urlScorer.score(new UrlScoreContext(link, parentLink, depth)), seq.incrementAndGet(), link));
+        available.release();
+    }
+
+    @Override
+    protected void offerUrls(List<String> links, int depth, String parentLink) {
+        for (String link: links) {
+            unVisitedUrlSet.add(new Entry(urlScorer.score(new UrlScoreContext(link, parentLink, depth)), seq.incrementAndGet(), link));
+        }
+        available.release(links.size());
+    }
+
+    /**
+     * link restored from snapshot, depth unknown
+     */
+    @Override
+    protected void offerUrl(String link) {
+        offerUrl(link, -1, null);
+    }
+
+    @Override
+    protected void offerUrls(List<String> links) {
+        offerUrls(links, -1, null);
+    }
+
+    @Override
+    protected String takeUrl() throws InterruptedException {
+        available.acquire();
+        return unVisitedUrlSet.pollFirst().link;
+    }
+
+    @Override
+    public int getUrlNum() {
+        return available.availablePermits();
+    }
+
+    @Override
+    protected void writeFrontier(DataOutputStream out) throws IOException {
+        for (Entry entry: unVisitedUrlSet) {
+            out.writeBoolean(true);
+            out.writeUTF(entry.link);
+        }
+        out.writeBoolean(false);
+    }
+
+}
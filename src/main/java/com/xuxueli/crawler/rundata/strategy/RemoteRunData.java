@@ -0,0 +1,406 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.rundata.RunData;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * remote run data, client of "RunDataServer"
+ *
+ * 多个爬虫节点（JVM）通过同一个 "RunDataServer" 共享待采集URL池与去重；
+ *
+ *      流水线：单个长连接被全部爬虫线程共享，请求发送后无需等待前一个请求的响应，响应按序返回；
+ *      批量：addUrls 一次请求提交一个页面的全部URL；getUrl 一次领取 batchSize 个URL缓存在本地，依次分发给爬虫线程；
+ *      确认：finishUrl 异步发送，不等待响应；节点断开后，已领取未确认的URL由服务端重新入队；
+ *
+ * 服务端无待采集URL且无采集中URL时（全部节点均已完成），getUrl 返回null。
+ */
+public class RemoteRunData extends RunData {
+    private static Logger logger = LoggerFactory.getLogger(RemoteRunData.class);
+
+    private final String host;
+    private final int port;
+    private final int batchSize;                    // 批量领取URL数量
+    private volatile int waitMillis = 500;          // 单次领取请求在服务端的最长等待时间，毫秒
+    private volatile int connectTimeoutMillis = 5000;
+
+    private volatile Connection connection;
+    private final ConcurrentLinkedQueue<String> prefetchQueue = new ConcurrentLinkedQueue<String>();     // 已领取未分发的URL
+    private final ReentrantLock fetchLock = new ReentrantLock();
+    private volatile boolean closed = false;
+
+    public RemoteRunData(String host, int port) {
+        this(host, port, 8);
+    }
+
+    /**
+     * @param host
+     * @param port
+     * @param batchSize     批量领取URL数量，建议不超过单节点爬虫线程数
+     */
+    public RemoteRunData(String host, int port, int batchSize) {
+        if (host==null || host.trim().length()==0) {
+            throw new XxlCrawlerException("RemoteRunData host can not be empty.");
+        }
+        if (batchSize<1 || batchSize>RunDataServer.BATCH_MAX) {
+            throw new XxlCrawlerException("RemoteRunData batchSize invalid, batchSize : " + batchSize);
+        }
+        this.host = host;
+        this.port = port;
+        this.batchSize = batchSize;
+    }
+
+    public RemoteRunData setWaitMillis(int waitMillis) {
+        this.waitMillis = waitMillis;
+        return this;
+    }
+
+    public RemoteRunData setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        return this;
+    }
+
+    // ---------------------- url ----------------------
+
+    @Override
+    public boolean addUrl(String link) {
+        return addUrls(Collections.singletonList(link), null) > 0;
+    }
+
+    @Override
+    public boolean addUrl(String link, String parentLink) {
+        return addUrls(Collections.singletonList(link), parentLink) > 0;
+    }
+
+    @Override
+    public int addUrls(Collection<String> links, String parentLink) {
+        if (links==null || links.isEmpty()) {
+            return 0;
+        }
+
+        // valid, and split into batches; all batches are pipelined
+        List<Call> calls = new ArrayList<Call>();
+        List<String> batch = new ArrayList<String>();
+        for (String link: links) {
+            if (!UrlUtil.isUrl(link)) {
+                continue;
+            }
+            if (link.length() > RunDataServer.LINK_LENGTH_MAX) {
+                logger.warn(">>>>>>>>>>> xxl-crawler RemoteRunData link too long, ignored: {}", link.substring(0, 256));
+                continue;
+            }
+            batch.add(link);
+            if (batch.size() >= RunDataServer.BATCH_MAX) {
+                calls.add(call(Call.add(parentLink, batch)));
+                batch = new ArrayList<String>();
+            }
+        }
+        if (batch.size() > 0) {
+            calls.add(call(Call.add(parentLink, batch)));
+        }
+
+        int addNum = 0;
+        for (Call call: calls) {
+            addNum += call.await();
+        }
+        logger.info(">>>>>>>>>>> xxl-crawler addUrls success, num: {}/{}, parentLink: {}", addNum, links.size(), parentLink);
+        return addNum;
+    }
+
+    @Override
+    public String getUrl() {
+        String link = prefetchQueue.poll();
+        if (link != null) {
+            return link;
+        }
+
+        try {
+            fetchLock.lockInterruptibly();      // one fetch at a time, others share its batch
+        } catch (InterruptedException e) {
+            throw new XxlCrawlerException("RemoteRunData.getUrl interrupted.");
+        }
+        try {
+            while (true) {
+                link = prefetchQueue.poll();
+                if (link != null) {
+                    return link;
+                }
+
+                Call call = call(Call.get(batchSize, waitMillis));
+                call.await();
+                if (call.links.size() > 0) {
+                    prefetchQueue.addAll(call.links.subList(1, call.links.size()));
+                    return call.links.get(0);
+                }
+                if (call.done) {
+                    return null;        // all done, nothing to wait for
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new XxlCrawlerException("RemoteRunData.getUrl interrupted.");
+                }
+            }
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    /**
+     * ack link, sent async
+     *
+     * @param link
+     */
+    @Override
+    public void finishUrl(String link) {
+        if (link == null) {
+            return;
+        }
+        try {
+            call(Call.finish(Collections.singletonList(link)));
+        } catch (XxlCrawlerException e) {
+            logger.warn(">>>>>>>>>>> xxl-crawler RemoteRunData finishUrl fail, it will be requeued by server, link: {}", link);
+        }
+    }
+
+    /**
+     * url num of server, queued + inflight of all nodes
+     *
+     * @return int
+     */
+    @Override
+    public int getUrlNum() {
+        return call(Call.num()).await();
+    }
+
+    /**
+     * stat of server: url num, and received link num
+     *
+     * @return long[]
+     */
+    long[] getStat() {
+        Call call = call(Call.stat());
+        call.await();
+        return new long[]{call.result, call.receivedNum};
+    }
+
+    /**
+     * close connection, links leased but not acked are requeued by server
+     */
+    public void close() {
+        closed = true;
+        Connection current = connection;
+        if (current != null) {
+            current.close(new IOException("RemoteRunData closed."));
+        }
+    }
+
+    // ---------------------- connection ----------------------
+
+    private Call call(Call call) {
+        if (closed) {
+            throw new XxlCrawlerException("RemoteRunData closed.");
+        }
+        try {
+            connection().send(call);
+        } catch (IOException e) {
+            throw new XxlCrawlerException("RemoteRunData call fail, error : " + e.getMessage());
+        }
+        return call;
+    }
+
+    private synchronized Connection connection() throws IOException {
+        if (connection==null || connection.closed) {
+            connection = new Connection();
+        }
+        return connection;
+    }
+
+    /**
+     * request and its response
+     */
+    private static class Call {
+        private final byte op;
+        private String parentLink;
+        private List<String> links;
+        private int maxNum;
+        private int waitMillis;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private int result;
+        private long receivedNum;
+        private boolean done;
+        private IOException error;
+
+        private Call(byte op) {
+            this.op = op;
+        }
+
+        static Call add(String parentLink, List<String> links) {
+            Call call = new Call(RunDataServer.OP_ADD);
+            call.parentLink = parentLink;
+            call.links = links;
+            return call;
+        }
+
+        static Call get(int maxNum, int waitMillis) {
+            Call call = new Call(RunDataServer.OP_GET);
+            call.maxNum = maxNum;
+            call.waitMillis = waitMillis;
+            return call;
+        }
+
+        static Call finish(List<String> links) {
+            Call call = new Call(RunDataServer.OP_FINISH);
+            call.links = links;
+            return call;
+        }
+
+        static Call num() {
+            return new Call(RunDataServer.OP_NUM);
+        }
+
+        static Call stat() {
+            return new Call(RunDataServer.OP_STAT);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(op);
+            if (op == RunDataServer.OP_ADD) {
+                out.writeUTF(parentLink!=null ? parentLink : "");
+                RunDataServer.writeLinks(out, links);
+            } else if (op == RunDataServer.OP_GET) {
+                out.writeInt(maxNum);
+                out.writeInt(waitMillis);
+            } else if (op == RunDataServer.OP_FINISH) {
+                RunDataServer.writeLinks(out, links);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            if (op == RunDataServer.OP_GET) {
+                done = in.readByte() == RunDataServer.GET_DONE;
+                links = RunDataServer.readLinks(in);
+            } else if (op == RunDataServer.OP_STAT) {
+                result = in.readInt();
+                receivedNum = in.readLong();
+            } else {
+                result = in.readInt();
+            }
+        }
+
+        int await() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new XxlCrawlerException("RemoteRunData call interrupted.");
+            }
+            if (error != null) {
+                throw new XxlCrawlerException("RemoteRunData call fail, error : " + error.getMessage());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * pipelined connection: calls are written in order by callers, responses are read in the same order by reader thread
+     */
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Call> pendingCalls = new LinkedBlockingQueue<Call>();
+        private final Thread readerThread;
+        private volatile boolean closed = false;
+
+        Connection() throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                out.writeInt(RunDataServer.MAGIC);
+                out.writeByte(RunDataServer.VERSION);
+                out.flush();
+            } catch (IOException e) {
+                RunDataServer.closeQuietly(socket);
+                throw e;
+            }
+
+            readerThread = new Thread(this, "xxl-crawler-rundata-client-" + host + ":" + port);
+            readerThread.setDaemon(true);
+            readerThread.start();
+        }
+
+        void send(Call call) throws IOException {
+            synchronized (out) {
+                if (closed) {
+                    throw new IOException("connection closed.");
+                }
+                pendingCalls.add(call);
+                try {
+                    call.write(out);
+                    out.flush();
+                } catch (IOException e) {
+                    close(e);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                Call call;
+                try {
+                    call = pendingCalls.take();
+                } catch (InterruptedException e) {
+                    return;             // closed
+                }
+                try {
+                    call.read(in);      // block until its response arrives
+                } catch (IOException e) {
+                    call.error = e;
+                    call.latch.countDown();
+                    close(e);
+                    return;
+                }
+                call.latch.countDown();
+            }
+        }
+
+        void close(IOException error) {
+            synchronized (out) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            RunDataServer.closeQuietly(socket);
+            readerThread.interrupt();
+
+            Call call;
+            while ((call = pendingCalls.poll()) != null) {
+                call.error = error;
+                call.latch.countDown();
+            }
+            if (!RemoteRunData.this.closed) {
+                logger.warn(">>>>>>>>>>> xxl-crawler RemoteRunData connection lost, server : {}:{}, error : {}", host, port, error.getMessage());
+            }
+        }
+    }
+
+}
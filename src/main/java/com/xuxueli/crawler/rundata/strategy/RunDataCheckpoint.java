@@ -0,0 +1,377 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * run data checkpoint
+ *
+ * 周期性、增量的持久化 "LocalRunData" 系列运行数据（待采集URL池 + 已记录URL池），爬虫异常终止后可从最近快照恢复，避免从种子URL重新采集；
+ *
+ *      journal-{seq}.bin ：增量日志，后台线程周期性追加 "新增/完成URL" 事件，不占用爬虫线程；
+ *      snapshot-{seq}.bin：全量快照，日志累计一定轮次后生成，包含 seq 之前的全部状态（含已领取、未完成的采集中URL，已消耗的页面预算及URL深度），随后清理旧日志与旧快照；
+ *
+ * 恢复：加载最新快照，按序重放其后的增量日志；URL仅在完成（finishUrl）后出队，采集中URL重新入队并优先领取，异常终止不会丢失；
+ * 重放具备幂等性，快照期间并发写入或完成的URL至多被重复采集一次，其页面预算至多被重复扣减一次；深度限制、页面预算需在恢复之前设置于运行数据。
+ */
+public class RunDataCheckpoint implements Runnable {
+    private static Logger logger = LoggerFactory.getLogger(RunDataCheckpoint.class);
+
+    public static final int SNAPSHOT_ROUNDS_DEFAULT = 10;      // 默认每10轮增量日志生成一次全量快照
+
+    private static final int MAGIC = 0x58434b50;        // "XCKP"
+    private static final byte VERSION = 3;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_FINISH = 3;
+
+    private static final String JOURNAL_PREFIX = "journal-";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String FILE_SUFFIX = ".bin";
+
+    private final LocalRunData runData;
+    private final File checkpointDir;
+    private final int intervalSeconds;                  // 增量日志刷盘间隔，秒
+    private final int snapshotRounds;                   // 每间隔多少轮增量日志，生成一次全量快照
+
+    private final ConcurrentLinkedQueue<Event> eventQueue = new ConcurrentLinkedQueue<Event>();
+    private long journalSeq = 0;
+    private FileOutputStream journalFileOut;
+    private DataOutputStream journalOut;
+    private int round = 0;
+
+    private volatile boolean toStop = false;
+    private Thread thread;
+
+    /**
+     * @param runData           运行数据，仅支持 "LocalRunData" 系列
+     * @param checkpointDir     快照目录
+     * @param intervalSeconds   增量日志刷盘间隔，秒
+     * @param snapshotRounds    每间隔多少轮增量日志，生成一次全量快照
+     */
+    public RunDataCheckpoint(LocalRunData runData, String checkpointDir, int intervalSeconds, int snapshotRounds) {
+        if (runData == null) {
+            throw new XxlCrawlerException("RunDataCheckpoint runData can not be null.");
+        }
+        if (checkpointDir==null || checkpointDir.trim().length()==0) {
+            throw new XxlCrawlerException("RunDataCheckpoint checkpointDir can not be empty.");
+        }
+        if (intervalSeconds<1 || snapshotRounds<1) {
+            throw new XxlCrawlerException("RunDataCheckpoint intervalSeconds or snapshotRounds invalid.");
+        }
+        this.runData = runData;
+        this.checkpointDir = new File(checkpointDir);
+        this.intervalSeconds = intervalSeconds;
+        this.snapshotRounds = snapshotRounds;
+
+        if (!this.checkpointDir.exists() && !this.checkpointDir.mkdirs()) {
+            throw new XxlCrawlerException("RunDataCheckpoint checkpointDir create fail, checkpointDir : " + checkpointDir);
+        }
+    }
+
+    // ---------------------- journal event ----------------------
+
+    private static class Event {
+        private final byte op;
+        private final String link;
+        private final int depth;            // add only, -1 if depth limit is off
+        private final String parentLink;    // add only
+        Event(byte op, String link, int depth, String parentLink) {
+            this.op = op;
+            this.link = link;
+            this.depth = depth;
+            this.parentLink = parentLink;
+        }
+    }
+
+    void journalAdd(String link, int depth, String parentLink) {
+        eventQueue.add(new Event(OP_ADD, link, depth, parentLink));
+    }
+
+    void journalFinish(String link) {
+        eventQueue.add(new Event(OP_FINISH, link, -1, null));
+    }
+
+    // ---------------------- lifecycle ----------------------
+
+    /**
+     * 初始化：resume=true 时从最近快照恢复运行数据，否则清理历史快照；随后生成一次全量快照作为新起点，并开始记录增量日志
+     *
+     * 需在新增种子URL之前调用，种子URL将基于已恢复的URL池去重；
+     *
+     * @param resume
+     */
+    public void init(boolean resume) {
+        try {
+            long maxSeq = -1;
+            if (resume) {
+                maxSeq = restore();
+            } else {
+                for (File file: listFiles(JOURNAL_PREFIX)) {
+                    deleteFile(file);
+                }
+                for (File file: listFiles(SNAPSHOT_PREFIX)) {
+                    deleteFile(file);
+                }
+            }
+
+            journalSeq = maxSeq + 1;
+            openJournal();
+            runData.setCheckpoint(this);
+            writeSnapshot(journalSeq);
+        } catch (IOException e) {
+            throw new XxlCrawlerException("RunDataCheckpoint init fail, error : " + e.getMessage());
+        }
+    }
+
+    public void start() {
+        thread = new Thread(this, "xxl-crawler-checkpoint");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 终止，并刷盘最后一轮增量日志
+     */
+    public void stop() {
+        toStop = true;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(intervalSeconds) + 5000);
+            } catch (InterruptedException e) {
+                logger.info(">>>>>>>>>>> xxl crawler checkpoint stop interrupted.");
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!toStop) {
+            try {
+                TimeUnit.SECONDS.sleep(intervalSeconds);
+            } catch (InterruptedException e) {
+                if (!toStop) {
+                    logger.info(">>>>>>>>>>> xxl crawler checkpoint thread is interrupted. {}", e.getMessage());
+                }
+            }
+            checkpoint();
+        }
+        closeJournal();
+    }
+
+    /**
+     * 执行一轮快照：刷盘增量日志，达到轮次后滚动日志并生成全量快照
+     */
+    public synchronized void checkpoint() {
+        try {
+            flushJournal();
+
+            if (++round >= snapshotRounds && !toStop) {
+                round = 0;
+
+                // rotate first: every event drained so far is covered by the snapshot
+                closeJournal();
+                journalSeq++;
+                openJournal();
+                writeSnapshot(journalSeq);
+            }
+        } catch (IOException e) {
+            logger.error(">>>>>>>>>>> xxl crawler checkpoint fail.", e);
+        }
+    }
+
+    // ---------------------- journal ----------------------
+
+    private void openJournal() throws IOException {
+        journalFileOut = new FileOutputStream(new File(checkpointDir, fileName(JOURNAL_PREFIX, journalSeq)), true);
+        journalOut = new DataOutputStream(new BufferedOutputStream(journalFileOut, 64 * 1024));
+    }
+
+    private void flushJournal() throws IOException {
+        Event event;
+        while ((event = eventQueue.poll()) != null) {
+            journalOut.writeByte(event.op);
+            journalOut.writeUTF(event.link);
+            if (event.op == OP_ADD) {
+                journalOut.writeInt(event.depth);
+                journalOut.writeUTF(event.parentLink!=null ? event.parentLink : "");
+            }
+        }
+        journalOut.flush();
+        journalFileOut.getFD().sync();
+    }
+
+    private synchronized void closeJournal() {
+        if (journalOut != null) {
+            try {
+                flushJournal();
+                journalOut.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+            journalOut = null;
+        }
+    }
+
+    // ---------------------- snapshot ----------------------
+
+    /**
+     * full snapshot, seen-index first then frontier and in-flight links: a link added or taken in between is at worst replayed twice;
+     * a link marked seen but not yet journaled is missing from frontier, its add lands in the next journal and is re-queued on replay
+     */
+    private void writeSnapshot(long seq) throws IOException {
+        File tmpFile = new File(checkpointDir, fileName(SNAPSHOT_PREFIX, seq) + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmpFile);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(runData.getClass().getName());
+            runData.writeSeenIndex(out);
+            runData.writeFrontier(out);
+            runData.writeInflight(out);
+            runData.writeLimits(out);
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        File snapshotFile = new File(checkpointDir, fileName(SNAPSHOT_PREFIX, seq));
+        if (!tmpFile.renameTo(snapshotFile)) {
+            throw new IOException("snapshot rename fail, snapshot : " + snapshotFile.getPath());
+        }
+
+        // clean older snapshot and journal
+        for (File file: listFiles(SNAPSHOT_PREFIX)) {
+            if (parseSeq(file) < seq) {
+                deleteFile(file);
+            }
+        }
+        for (File file: listFiles(JOURNAL_PREFIX)) {
+            if (parseSeq(file) < seq) {
+                deleteFile(file);
+            }
+        }
+        logger.info(">>>>>>>>>>> xxl crawler checkpoint snapshot success, snapshot : {}", snapshotFile.getPath());
+    }
+
+    /**
+     * restore from latest snapshot and replay following journals
+     *
+     * @return long     max seq restored, -1 if nothing
+     */
+    private long restore() throws IOException {
+        long snapshotSeq = -1;
+        for (File file: listFiles(SNAPSHOT_PREFIX)) {
+            snapshotSeq = Math.max(snapshotSeq, parseSeq(file));
+        }
+
+        long maxSeq = snapshotSeq;
+        LinkedHashSet<String> frontier = new LinkedHashSet<String>();       // in-flight links first, they were taken earliest
+
+        // snapshot
+        if (snapshotSeq > -1) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(checkpointDir, fileName(SNAPSHOT_PREFIX, snapshotSeq))), 64 * 1024));
+            try {
+                if (in.readInt()!=MAGIC || in.readByte()!=VERSION) {
+                    throw new XxlCrawlerException("RunDataCheckpoint snapshot format invalid.");
+                }
+                String runDataType = in.readUTF();
+                if (!runDataType.equals(runData.getClass().getName())) {
+                    throw new XxlCrawlerException("RunDataCheckpoint snapshot not match, snapshot runData : " + runDataType);
+                }
+                runData.readSeenIndex(in);
+                List<String> queued = new ArrayList<String>();
+                while (in.readBoolean()) {
+                    String link = in.readUTF();
+                    runData.markSeen(link);
+                    queued.add(link);
+                }
+                while (in.readBoolean()) {
+                    String link = in.readUTF();
+                    runData.markSeen(link);
+                    frontier.add(link);
+                }
+                frontier.addAll(queued);
+                runData.readLimits(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        // journal, ordered by seq
+        List<File> journalFiles = listFiles(JOURNAL_PREFIX);
+        Collections.sort(journalFiles);
+        for (File journalFile: journalFiles) {
+            long seq = parseSeq(journalFile);
+            if (seq < snapshotSeq) {
+                continue;
+            }
+            maxSeq = Math.max(maxSeq, seq);
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile), 64 * 1024));
+            try {
+                while (true) {
+                    byte op = in.readByte();
+                    String link = in.readUTF();
+                    if (op == OP_ADD) {
+                        int depth = in.readInt();
+                        String parentLink = in.readUTF();
+                        // re-queue whatever the seen index says: a snapshot taken between markSeen and journalAdd has it seen but not queued
+                        boolean unseen = runData.markSeen(link);
+                        frontier.add(link);
+                        runData.replayAdd(link, depth, parentLink.length()>0 ? parentLink : null, unseen);
+                    } else if (op == OP_FINISH) {
+                        frontier.remove(link);
+                        runData.replayFinish(link);
+                    }
+                }
+            } catch (EOFException e) {
+                // end of journal, an incomplete tail record of crash is dropped
+            } finally {
+                in.close();
+            }
+        }
+
+        for (String link: frontier) {
+            runData.offerUrl(link);
+        }
+        logger.info(">>>>>>>>>>> xxl crawler checkpoint restore success, snapshot seq : {}, frontier size : {}", snapshotSeq, frontier.size());
+        return maxSeq;
+    }
+
+    // ---------------------- file ----------------------
+
+    private static String fileName(String prefix, long seq) {
+        return prefix + String.format("%019d", seq) + FILE_SUFFIX;
+    }
+
+    private static long parseSeq(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.length() - FILE_SUFFIX.length()));
+    }
+
+    private List<File> listFiles(final String prefix) {
+        File[] files = checkpointDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && name.endsWith(FILE_SUFFIX);
+            }
+        });
+        return files!=null ? new ArrayList<File>(Arrays.asList(files)) : new ArrayList<File>();
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete()) {
+            logger.warn(">>>>>>>>>>> xxl crawler checkpoint file delete fail: {}", file.getPath());
+        }
+    }
+
+}
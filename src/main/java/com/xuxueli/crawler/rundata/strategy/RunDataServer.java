@@ -0,0 +1,337 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.rundata.RunData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * run data server
+ *
+ * 将任意 RunData 以TCP服务方式共享给多个爬虫节点（JVM），节点侧使用 "RemoteRunData" 接入，无需外部服务；
+ *
+ * 协议：紧凑二进制帧（DataStream），单连接内请求按序响应，客户端可流水线发送多个请求；
+ *
+ *      ADD     ：批量新增URL，可携带父页面 -> 新增数量
+ *      GET     ：批量领取URL，无URL时最多等待 waitMillis -> 状态（有URL / 全部完成）+ URL列表
+ *      FINISH  ：批量确认URL -> 确认数量
+ *      NUM     ：待采集 + 采集中URL数量
+ *      STAT    ：待采集 + 采集中URL数量，及累计接收的新增URL数量（用于多节点终止检测）
+ *
+ * 已领取未确认的URL按连接记录，节点断开时重新入队（优先分发），避免节点异常终止导致URL丢失。
+ */
+public class RunDataServer {
+    private static Logger logger = LoggerFactory.getLogger(RunDataServer.class);
+
+    static final int MAGIC = 0x58524453;        // "XRDS"
+    static final byte VERSION = 1;
+    static final byte OP_ADD = 1;
+    static final byte OP_GET = 2;
+    static final byte OP_FINISH = 3;
+    static final byte OP_NUM = 4;
+    static final byte OP_STAT = 5;
+    static final byte GET_LINKS = 0;
+    static final byte GET_DONE = 1;
+    static final int BATCH_MAX = 10000;
+    static final int LINK_LENGTH_MAX = 16 * 1024;     // writeUTF limit is 64KB encoded
+
+    private final RunData runData;
+    private final String host;
+    private final int port;
+
+    private final ArrayDeque<String> requeueQueue = new ArrayDeque<String>();     // 断开连接的节点未确认的URL，guarded by this
+    private int inflightNum = 0;                                                  // 已领取未确认的URL数量（含领取中的预留数量），guarded by this
+    private long addVersion = 0;                                                  // 新增URL版本，领取期间有新增时不等待，guarded by this
+    private final Object pollLock = new Object();                                 // 串行领取运行数据，getUrlNum>0 时 getUrl 不会阻塞
+    private final AtomicLong receivedNum = new AtomicLong(0);                     // 累计接收的新增URL数量，含重复
+
+    private volatile ServerSocket serverSocket;
+    private final Set<Socket> sockets = new CopyOnWriteArraySet<Socket>();
+    private volatile boolean toStop = false;
+
+    public RunDataServer(RunData runData, int port) {
+        this(runData, null, port);
+    }
+
+    /**
+     * @param runData   共享的运行数据
+     * @param host      监听地址，为空时监听全部地址
+     * @param port      监听端口，0 表示随机端口
+     */
+    public RunDataServer(RunData runData, String host, int port) {
+        if (runData == null) {
+            throw new XxlCrawlerException("RunDataServer runData can not be null.");
+        }
+        this.runData = runData;
+        this.host = host;
+        this.port = port;
+    }
+
+    // ---------------------- lifecycle ----------------------
+
+    public void start() {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(host!=null ? new InetSocketAddress(host, port) : new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new XxlCrawlerException("RunDataServer start fail, port : " + port + ", error : " + e.getMessage());
+        }
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!toStop) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        sockets.add(socket);
+
+                        Thread connectionThread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "xxl-crawler-rundata-server-" + socket.getRemoteSocketAddress());
+                        connectionThread.setDaemon(true);
+                        connectionThread.start();
+                    } catch (IOException e) {
+                        if (!toStop) {
+                            logger.error(">>>>>>>>>>> xxl-crawler RunDataServer accept fail.", e);
+                        }
+                    }
+                }
+            }
+        }, "xxl-crawler-rundata-server");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info(">>>>>>>>>>> xxl-crawler RunDataServer start success, port : {}", getPort());
+    }
+
+    public void stop() {
+        toStop = true;
+        closeQuietly(serverSocket);
+        for (Socket socket: sockets) {
+            closeQuietly(socket);
+        }
+        logger.info(">>>>>>>>>>> xxl-crawler RunDataServer stop.");
+    }
+
+    /**
+     * listening port, the actual one if started with port 0
+     *
+     * @return int
+     */
+    public int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket!=null ? socket.getLocalPort() : port;
+    }
+
+    // ---------------------- serve ----------------------
+
+    private void serve(Socket socket) {
+        Set<String> inflightSet = new HashSet<String>();        // links leased by this connection
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+            if (in.readInt()!=MAGIC || in.readByte()!=VERSION) {
+                logger.warn(">>>>>>>>>>> xxl-crawler RunDataServer handshake fail, remote : {}", socket.getRemoteSocketAddress());
+                return;
+            }
+
+            while (!toStop) {
+                byte op = in.readByte();
+                if (op == OP_ADD) {
+                    String parentLink = in.readUTF();
+                    List<String> links = readLinks(in);
+                    receivedNum.addAndGet(links.size());
+                    int addNum = runData.addUrls(links, parentLink.length()>0 ? parentLink : null);
+                    if (addNum > 0) {
+                        synchronized (this) {
+                            addVersion++;
+                            notifyAll();
+                        }
+                    }
+                    out.writeInt(addNum);
+                } else if (op == OP_GET) {
+                    int maxNum = Math.min(in.readInt(), BATCH_MAX);
+                    int waitMillis = in.readInt();
+                    if (waitMillis > 0) {
+                        out.flush();            // do not hold earlier responses while waiting
+                    }
+                    List<String> links = new ArrayList<String>();
+                    boolean done = take(links, maxNum, waitMillis);
+                    inflightSet.addAll(links);
+
+                    out.writeByte(done ? GET_DONE : GET_LINKS);
+                    writeLinks(out, links);
+                } else if (op == OP_FINISH) {
+                    List<String> links = readLinks(in);
+                    int finishNum = 0;
+                    for (String link: links) {
+                        if (inflightSet.remove(link)) {
+                            runData.finishUrl(link);
+                            finishNum++;
+                        }
+                    }
+                    synchronized (this) {
+                        inflightNum -= finishNum;
+                        notifyAll();            // waiting GET may find all done
+                    }
+                    out.writeInt(finishNum);
+                } else if (op == OP_NUM) {
+                    out.writeInt(getUrlNum());
+                } else if (op == OP_STAT) {
+                    out.writeInt(getUrlNum());
+                    out.writeLong(receivedNum.get());
+                } else {
+                    logger.warn(">>>>>>>>>>> xxl-crawler RunDataServer op invalid, op : {}", op);
+                    return;
+                }
+
+                if (in.available() == 0) {
+                    out.flush();                // flush once per pipelined burst
+                }
+            }
+        } catch (EOFException e) {
+            // client closed
+        } catch (SocketException e) {
+            // client reset, or server stop
+        } catch (Throwable e) {
+            logger.error(">>>>>>>>>>> xxl-crawler RunDataServer serve fail, remote : " + socket.getRemoteSocketAddress(), e);
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+
+            if (inflightSet.size() > 0) {
+                synchronized (this) {
+                    requeueQueue.addAll(inflightSet);
+                    inflightNum -= inflightSet.size();
+                    notifyAll();
+                }
+                logger.info(">>>>>>>>>>> xxl-crawler RunDataServer connection lost, requeue {} links, remote : {}", inflightSet.size(), socket.getRemoteSocketAddress());
+            }
+        }
+    }
+
+    /**
+     * take links, wait for the first one at most waitMillis
+     *
+     * run data is polled outside the monitor, the monitor only guards inflightNum and requeueQueue;
+     * links are reserved as inflight before they leave the run data, so url num is never under-counted
+     *
+     * @return boolean  true if all done: nothing queued and nothing inflight
+     */
+    private boolean take(List<String> links, int maxNum, int waitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            int reserveNum;
+            long version;
+            synchronized (this) {
+                version = addVersion;
+                while (links.size()<maxNum && !requeueQueue.isEmpty()) {
+                    links.add(requeueQueue.poll());
+                }
+                reserveNum = maxNum - links.size();
+                inflightNum += maxNum;
+            }
+
+            int pollNum = 0;
+            if (reserveNum > 0) {
+                synchronized (pollLock) {
+                    while (pollNum<reserveNum && runData.getUrlNum()>0) {
+                        String link = runData.getUrl();    // sole consumer, available
+                        if (link == null) {
+                            break;
+                        }
+                        links.add(link);
+                        pollNum++;
+                    }
+                }
+            }
+
+            synchronized (this) {
+                inflightNum -= reserveNum - pollNum;      // release unused reservation
+                if (links.size() > 0) {
+                    return false;
+                }
+                if (!requeueQueue.isEmpty() || version!=addVersion) {
+                    continue;                               // requeued or added while polling, notify already missed
+                }
+                if (inflightNum == 0) {
+                    notifyAll();                            // other waiting GET may be held by this reservation
+                    return true;
+                }
+
+                long waitTime = deadline - System.currentTimeMillis();
+                if (waitTime <= 0) {
+                    return false;
+                }
+                wait(waitTime);
+            }
+        }
+    }
+
+    /**
+     * url num, queued + inflight
+     *
+     * @return int
+     */
+    public int getUrlNum() {
+        int num;
+        synchronized (this) {
+            num = requeueQueue.size() + inflightNum;
+        }
+        return num + runData.getUrlNum();
+    }
+
+    /**
+     * received link num of ADD, include repeated ones
+     *
+     * @return long
+     */
+    public long getReceivedNum() {
+        return receivedNum.get();
+    }
+
+    // ---------------------- codec ----------------------
+
+    static List<String> readLinks(DataInputStream in) throws IOException {
+        int num = in.readInt();
+        if (num<0 || num>BATCH_MAX) {
+            throw new IOException("link num invalid, num : " + num);
+        }
+        List<String> links = new ArrayList<String>(num);
+        for (int i = 0; i < num; i++) {
+            links.add(in.readUTF());
+        }
+        return links;
+    }
+
+    static void writeLinks(DataOutputStream out, Collection<String> links) throws IOException {
+        out.writeInt(links.size());
+        for (String link: links) {
+            out.writeUTF(link);
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.xuxueli.crawler.rundata.strategy;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * work stealing run data
+ *
+ * 待采集URL池按线程拆分为多个无锁双端队列：线程发现的URL进入自己的队列，并优先从自己的队列头部获取；
+ * 自己的队列为空时，从其他线程队列的尾部窃取。常态下各线程只访问自己的队列，不存在全局队列锁，吞吐随线程数扩展；
+ *
+ * 队列绑定在获取URL的线程（消费端）：从未获取过URL的线程（如流水线模式下的解析线程、添加种子URL的主线程）新增的URL进入共享队列，
+ * 获取线程在自己的队列为空时先取共享队列、再窃取，避免生产与消费线程不同时每次获取都是窃取；线程结束后其队列取空即移除。
+ *
+ * 仅在全部队列为空时，空闲线程才进入阻塞等待。
+ */
+public class StealingRunData extends LocalRunData {
+
+    private final CopyOnWriteArrayList<LocalDeque> dequeList = new CopyOnWriteArrayList<LocalDeque>();
+    private final ThreadLocal<LocalDeque> localDeque = new ThreadLocal<LocalDeque>();      // set on first take
+    private final ConcurrentLinkedQueue<String> sharedQueue = new ConcurrentLinkedQueue<String>();    // added by threads never taking
+
+    private final AtomicInteger urlNum = new AtomicInteger(0);
+    private final AtomicInteger waiterNum = new AtomicInteger(0);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private static class LocalDeque {
+        private final WeakReference<Thread> owner;
+        private final ConcurrentLinkedDeque<String> links = new ConcurrentLinkedDeque<String>();
+
+        LocalDeque(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        boolean isOwnerDead() {
+            Thread thread = owner.get();
+            return thread==null || !thread.isAlive();
+        }
+    }
+
+    @Override
+    protected void offerUrl(String link) {
+        LocalDeque own = localDeque.get();
+        if (own != null) {
+            own.links.addLast(link);
+        } else {
+            sharedQueue.add(link);
+        }
+        urlNum.incrementAndGet();
+        signalWaiters(false);
+    }
+
+    @Override
+    protected void offerUrls(List<String> links) {
+        LocalDeque own = localDeque.get();
+        if (own != null) {
+            own.links.addAll(links);
+        } else {
+            sharedQueue.addAll(links);
+        }
+        urlNum.addAndGet(links.size());
+        signalWaiters(links.size() > 1);
+    }
+
+    @Override
+    protected String takeUrl() throws InterruptedException {
+        LocalDeque own = localDeque.get();
+        if (own == null) {
+            own = new LocalDeque(Thread.currentThread());
+            localDeque.set(own);
+            dequeList.add(own);
+        }
+
+        while (true) {
+            String link = pollOrSteal(own);
+            if (link != null) {
+                urlNum.decrementAndGet();
+                return link;
+            }
+
+            if (urlNum.get() > 0) {
+                Thread.yield();     // counted but in the middle of being polled by others
+                continue;
+            }
+            lock.lockInterruptibly();
+            try {
+                waiterNum.incrementAndGet();
+                while (urlNum.get() == 0) {
+                    notEmpty.await();
+                }
+            } finally {
+                waiterNum.decrementAndGet();
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public int getUrlNum() {
+        return urlNum.get();
+    }
+
+    /**
+     * poll head of own deque, then shared queue, or steal tail of others from a random start; drop drained deques of dead threads
+     */
+    private String pollOrSteal(LocalDeque own) {
+        String link = own.links.pollFirst();
+        if (link != null) {
+            return link;
+        }
+        link = sharedQueue.poll();
+        if (link != null) {
+            return link;
+        }
+
+        LocalDeque[] deques = dequeList.toArray(new LocalDeque[0]);     // snapshot, deques of dead threads may be removed
+        int start = ThreadLocalRandom.current().nextInt(deques.length);
+        for (int i = 0; i < deques.length; i++) {
+            LocalDeque victim = deques[(start + i) % deques.length];
+            if (victim == own) {
+                continue;
+            }
+            link = victim.links.pollLast();
+            if (victim.links.isEmpty() && victim.isOwnerDead()) {
+                dequeList.remove(victim);       // owner gone, nobody adds to it again
+            }
+            if (link != null) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * wake waiting threads, lock is taken only if someone waits: urlNum is raised before waiterNum is read
+     */
+    private void signalWaiters(boolean all) {
+        if (waiterNum.get() == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (all) {
+                notEmpty.signalAll();
+            } else {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * deques of threads that have taken, for test and monitor
+     *
+     * @return int
+     */
+    public int getDequeNum() {
+        return dequeList.size();
+    }
+
+    @Override
+    protected void writeFrontier(DataOutputStream out) throws IOException {
+        for (String link: sharedQueue) {
+            out.writeBoolean(true);
+            out.writeUTF(link);
+        }
+        for (LocalDeque deque: dequeList) {
+            for (String link: deque.links) {
+                out.writeBoolean(true);
+                out.writeUTF(link);
+            }
+        }
+        out.writeBoolean(false);
+    }
+
+}
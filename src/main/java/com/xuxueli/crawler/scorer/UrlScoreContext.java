@@ -0,0 +1,32 @@
+package com.xuxueli.crawler.scorer;
+
+/**
+ * url score context
+ *
+ * 打分时可用的URL信息：URL、父页面及深度；种子URL无父页面、深度为0，从快照恢复的URL深度未知时为-1。
+ */
+public class UrlScoreContext {
+
+    private final String link;
+    private final String parentLink;
+    private final int depth;
+
+    public UrlScoreContext(String link, String parentLink, int depth) {
+        this.link = link;
+        this.parentLink = parentLink;
+        this.depth = depth;
+    }
+
+    public String getLink() {
+        return link;
+    }
+
+    public String getParentLink() {
+        return parentLink;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.xuxueli.crawler.scorer;
+
+/**
+ * url scorer
+ */
+public abstract class UrlScorer {
+
+    /**
+     * score url, higher score will be crawled first
+     *
+     * @param context   link, parent link and depth
+     * @return double
+     */
+    public abstract double score(UrlScoreContext context);
+
+}
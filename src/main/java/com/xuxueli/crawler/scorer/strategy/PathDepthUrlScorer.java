@@ -0,0 +1,32 @@
+package com.xuxueli.crawler.scorer.strategy;
+
+import com.xuxueli.crawler.scorer.UrlScoreContext;
+import com.xuxueli.crawler.scorer.UrlScorer;
+
+/**
+ * url scorer, path depth strategy
+ *
+ * URL路径层级越浅得分越高，如 "http://a.com/x" 优先于 "http://a.com/x/y/z"，近似于按站点结构由浅入深采集。
+ */
+public class PathDepthUrlScorer extends UrlScorer {
+
+    @Override
+    public double score(UrlScoreContext context) {
+        String link = context.getLink();
+        int start = link.indexOf("://");
+        start = (start > -1) ? start + 3 : 0;
+
+        int depth = 0;
+        for (int i = start; i < link.length(); i++) {
+            char c = link.charAt(i);
+            if (c=='?' || c=='#') {
+                break;
+            }
+            if (c=='/' && i+1<link.length() && link.charAt(i+1)!='/') {
+                depth++;
+            }
+        }
+        return -depth;
+    }
+
+}
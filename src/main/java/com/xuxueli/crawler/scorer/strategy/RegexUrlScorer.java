@@ -0,0 +1,56 @@
+package com.xuxueli.crawler.scorer.strategy;
+
+import com.xuxueli.crawler.scorer.UrlScoreContext;
+import com.xuxueli.crawler.scorer.UrlScorer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * url scorer, regex strategy
+ *
+ * 按规则顺序匹配URL，命中首个规则时返回其得分，均未命中时返回默认得分；如可为白名单详情页设置更高得分，优先采集。
+ */
+public class RegexUrlScorer extends UrlScorer {
+
+    private final List<Rule> ruleList = new CopyOnWriteArrayList<Rule>();
+    private final double defaultScore;
+
+    public RegexUrlScorer() {
+        this(0);
+    }
+
+    public RegexUrlScorer(double defaultScore) {
+        this.defaultScore = defaultScore;
+    }
+
+    public RegexUrlScorer addRule(String regex, double score) {
+        this.ruleList.add(new Rule(Pattern.compile(regex), score));
+        return this;
+    }
+
+    @Override
+    public double score(UrlScoreContext context) {
+        for (Rule rule: ruleList) {
+            if (rule.pattern.matcher(context.getLink()).matches()) {
+                return rule.score;
+            }
+        }
+        return defaultScore;
+    }
+
+    /**
+     * immutable rule, pattern and score are added together
+     */
+    private static class Rule {
+        private final Pattern pattern;
+        private final double score;
+
+        Rule(Pattern pattern, double score) {
+            this.pattern = pattern;
+            this.score = score;
+        }
+    }
+
+}
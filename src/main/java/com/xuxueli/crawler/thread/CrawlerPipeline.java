@@ -0,0 +1,316 @@
+package com.xuxueli.crawler.thread;
+
+import com.xuxueli.crawler.XxlCrawler;
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.loader.AsyncPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.parser.strategy.NonPageParser;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * crawler pipeline
+ *
+ * 分阶段流水线：页面处理拆分为三个独立阶段，各阶段线程数独立设置，阶段间以有界阻塞队列衔接，下游积压时上游阻塞（背压），网络IO与CPU计算并行重叠；
+ *
+ *      fetch   ：领取URL并加载页面，IO密集；页面加载器为 "AsyncPageLoader" 时，由单个线程异步发起请求，线程数即并发请求上限；
+ *                IO线程回调中不执行阻塞操作及用户代码：发起请求前预留 parse 队列空位，失败重试（含 preParse）与完成URL交由独立的重试线程处理；
+ *      parse   ：解析页面DOM，提取子链接并映射PageVo，CPU密集，建议与CPU核数一致；
+ *      output  ：调用 PageParser 输出PageVo；
+ *
+ * 子链接在 parse 阶段入队，先于父页面完成；URL在 output 阶段结束后（或任一阶段失败时）完成。
+ */
+public class CrawlerPipeline {
+    private static Logger logger = LoggerFactory.getLogger(CrawlerPipeline.class);
+
+    private final XxlCrawler crawler;
+    private final PageProcessor pageProcessor;
+    private final int fetchThreadCount;
+    private final int parseThreadCount;
+    private final int outputThreadCount;
+    private final BlockingQueue<PageProcessor.PageTask> parseQueue;         // fetch -> parse
+    private final Semaphore parseSlots;                                     // parse 队列空位，fetch 阶段预留后入队不阻塞
+    private final BlockingQueue<PageProcessor.PageTask> outputQueue;        // parse -> output
+    private volatile boolean toStop = false;
+
+    /**
+     * @param crawler
+     * @param fetchThreadCount      fetch 阶段线程数
+     * @param parseThreadCount      parse 阶段线程数
+     * @param outputThreadCount     output 阶段线程数
+     * @param queueSize             阶段间队列容量
+     */
+    public CrawlerPipeline(XxlCrawler crawler, int fetchThreadCount, int parseThreadCount, int outputThreadCount, int queueSize) {
+        if (fetchThreadCount<1 || parseThreadCount<1 || outputThreadCount<1) {
+            throw new XxlCrawlerException("CrawlerPipeline threadCount invalid, fetch/parse/output : "
+                    + fetchThreadCount + "/" + parseThreadCount + "/" + outputThreadCount);
+        }
+        if (queueSize < 1) {
+            throw new XxlCrawlerException("CrawlerPipeline queueSize invalid, queueSize : " + queueSize);
+        }
+        this.crawler = crawler;
+        this.pageProcessor = new PageProcessor(crawler);
+        this.fetchThreadCount = fetchThreadCount;
+        this.parseThreadCount = parseThreadCount;
+        this.outputThreadCount = outputThreadCount;
+        this.parseQueue = new ArrayBlockingQueue<PageProcessor.PageTask>(queueSize);
+        this.parseSlots = new Semaphore(queueSize);
+        this.outputQueue = new ArrayBlockingQueue<PageProcessor.PageTask>(queueSize);
+    }
+
+    public void start(ExecutorService executor) {
+        if (crawler.getRunConf().getPageLoader() instanceof AsyncPageLoader
+                && !(crawler.getRunConf().getPageParser() instanceof NonPageParser)) {
+            AsyncFetchStage asyncFetchStage = new AsyncFetchStage();
+            executor.execute(asyncFetchStage);
+            executor.execute(asyncFetchStage.new RetryStage());
+        } else {
+            for (int i = 0; i < fetchThreadCount; i++) {
+                executor.execute(new FetchStage());
+            }
+        }
+        for (int i = 0; i < parseThreadCount; i++) {
+            executor.execute(new ParseStage());
+        }
+        for (int i = 0; i < outputThreadCount; i++) {
+            executor.execute(new OutputStage());
+        }
+    }
+
+    public void toStop() {
+        this.toStop = true;
+    }
+
+    // ---------------------- stage ----------------------
+
+    private abstract class Stage implements Runnable {
+
+        abstract void process() throws Exception;
+
+        @Override
+        public void run() {
+            while (!toStop) {
+                try {
+                    process();
+                } catch (Throwable e) {
+                    if (e instanceof InterruptedException) {
+                        logger.info(">>>>>>>>>>> xxl crawler thread is interrupted. {}", e.getMessage());
+                    } else if (e instanceof XxlCrawlerException) {
+                        logger.info(">>>>>>>>>>> xxl crawler thread {}", e.getMessage());
+                    } else {
+                        logger.error(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * take link and load page, with failover
+     */
+    private class FetchStage extends Stage {
+        @Override
+        void process() throws Exception {
+            String link = crawler.getUrl();
+            if (link == null) {
+                crawler.tryFinish();        // shared run data, all nodes done
+                return;
+            }
+            logger.info(">>>>>>>>>>> xxl crawler, process link : {}", link);
+
+            PageProcessor.PageTask task = null;
+            try {
+                if (UrlUtil.isUrl(link)) {
+                    task = fetch(link);
+                }
+            } finally {
+                if (task == null) {
+                    crawler.finishUrl(link);
+                }
+            }
+            if (task != null) {
+                parseSlots.acquire();       // block while parse stage is behind
+                parseQueue.add(task);
+            }
+        }
+
+        private PageProcessor.PageTask fetch(String link) {
+            for (int i = 0; i < (1 + crawler.getRunConf().getFailRetryCount()); i++) {
+                PageProcessor.PageTask task = null;
+                try {
+                    task = pageProcessor.fetch(link);
+                } catch (Throwable e) {
+                    logger.info(">>>>>>>>>>> xxl crawler proocess error.", e);
+                }
+
+                pageProcessor.pause();
+                if (task != null) {
+                    return task;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * take link and load page async, inflight loads limited by fetchThreadCount
+     *
+     * callback runs on io thread: it only hands the page to a reserved parse slot, or queues the failure to retry stage
+     */
+    private class AsyncFetchStage extends Stage {
+        private final AsyncPageLoader pageLoader = (AsyncPageLoader) crawler.getRunConf().getPageLoader();
+        private final Semaphore inflight = new Semaphore(fetchThreadCount);
+        private final BlockingQueue<FailedLoad> failQueue = new LinkedBlockingQueue<FailedLoad>();
+
+        @Override
+        void process() throws Exception {
+            inflight.acquire();
+            boolean dispatched = false;
+            try {
+                parseSlots.acquire();           // reserve before load, io thread never blocks on parse queue
+                try {
+                    String link = crawler.getUrl();
+                    if (link == null) {
+                        crawler.tryFinish();        // shared run data, all nodes done
+                        return;
+                    }
+                    logger.info(">>>>>>>>>>> xxl crawler, process link : {}", link);
+
+                    if (!UrlUtil.isUrl(link)) {
+                        crawler.finishUrl(link);
+                        return;
+                    }
+                    fetch(link, 0);
+                    dispatched = true;
+                } finally {
+                    if (!dispatched) {
+                        parseSlots.release();
+                    }
+                }
+            } finally {
+                if (!dispatched) {
+                    inflight.release();
+                }
+            }
+            pageProcessor.pause();
+        }
+
+        /**
+         * load async; permits (inflight, parse slot) are kept through retries, until the page is handed to parse stage or finally failed
+         */
+        private void fetch(final String link, final int retryNum) {
+            final PageRequest pageRequest;
+            try {
+                pageRequest = pageProcessor.request(link);
+            } catch (Throwable e) {
+                logger.info(">>>>>>>>>>> xxl crawler proocess error.", e);
+                failQueue.add(new FailedLoad(link, retryNum));
+                return;
+            }
+
+            try {
+                pageLoader.loadAsync(pageRequest, new AsyncPageLoader.Callback() {
+                    @Override
+                    public void onSuccess(PageResponse pageResponse) {
+                        PageProcessor.PageTask task = pageProcessor.accept(link, pageRequest, pageResponse);
+                        if (task == null) {
+                            failQueue.add(new FailedLoad(link, retryNum));
+                            return;
+                        }
+                        parseQueue.add(task);           // slot reserved, never blocks io thread
+                        inflight.release();
+                    }
+                    @Override
+                    public void onFail(Throwable e) {
+                        logger.info(">>>>>>>>>>> xxl crawler proocess error, link : {}, error : {}", link, e.getMessage());
+                        failQueue.add(new FailedLoad(link, retryNum));
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.info(">>>>>>>>>>> xxl crawler proocess error.", e);       // loader failed without callback
+                failQueue.add(new FailedLoad(link, retryNum));
+            }
+        }
+
+        /**
+         * retry or finish failed load, off io thread: preParse and finish callback are user code
+         */
+        private class RetryStage extends Stage {
+            @Override
+            void process() throws Exception {
+                FailedLoad failedLoad = failQueue.take();
+                if (failedLoad.retryNum < crawler.getRunConf().getFailRetryCount() && !toStop) {
+                    fetch(failedLoad.link, failedLoad.retryNum + 1);
+                    return;
+                }
+                try {
+                    crawler.finishUrl(failedLoad.link);
+                } finally {
+                    parseSlots.release();
+                    inflight.release();
+                }
+            }
+        }
+    }
+
+    private static class FailedLoad {
+        private final String link;
+        private final int retryNum;
+
+        FailedLoad(String link, int retryNum) {
+            this.link = link;
+            this.retryNum = retryNum;
+        }
+    }
+
+    /**
+     * spread child links and map pageVo
+     */
+    private class ParseStage extends Stage {
+        @Override
+        void process() throws Exception {
+            PageProcessor.PageTask task = parseQueue.take();
+            parseSlots.release();
+            boolean ret = false;
+            try {
+                pageProcessor.extract(task);
+                outputQueue.put(task);      // block while output stage is behind
+                ret = true;
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable e) {
+                logger.info(">>>>>>>>>>> xxl crawler proocess error.", e);
+            } finally {
+                if (!ret) {
+                    crawler.finishUrl(task.link);
+                }
+            }
+        }
+    }
+
+    /**
+     * output pageVo, then finish link
+     */
+    private class OutputStage extends Stage {
+        @Override
+        void process() throws Exception {
+            PageProcessor.PageTask task = outputQueue.take();
+            try {
+                pageProcessor.output(task);
+            } catch (Throwable e) {
+                logger.info(">>>>>>>>>>> xxl crawler proocess error.", e);
+            } finally {
+                crawler.finishUrl(task.link);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,324 @@
+package com.xuxueli.crawler.thread;
+
+import com.xuxueli.crawler.XxlCrawler;
+import com.xuxueli.crawler.annotation.PageFieldSelect;
+import com.xuxueli.crawler.annotation.PageSelect;
+import com.xuxueli.crawler.conf.XxlCrawlerConf;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.parser.strategy.NonPageParser;
+import com.xuxueli.crawler.util.FieldReflectionUtil;
+import com.xuxueli.crawler.util.JsoupUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * page processor
+ *
+ * 页面处理拆分为三步，供顺序执行（"CrawlerThread"）与分阶段流水线执行（"CrawlerPipeline"）共用：
+ *
+ *      fetch   ：构造请求并加载页面响应，按状态码、内容类型过滤，IO密集；
+ *      extract ：解析页面DOM，提取子链接入队，并将页面映射为PageVo，CPU密集；
+ *      output  ：调用 PageParser 输出PageVo；
+ */
+class PageProcessor {
+    private static Logger logger = LoggerFactory.getLogger(PageProcessor.class);
+
+    private XxlCrawler crawler;
+    PageProcessor(XxlCrawler crawler) {
+        this.crawler = crawler;
+    }
+
+    /**
+     * page task, passed through stages
+     */
+    static class PageTask {
+        final String link;                  // origin link, parent of child links
+        final PageRequest pageRequest;
+        final PageResponse pageResponse;    // page response, null for non page
+        final String pagesource;            // non page source
+        Document html;                      // page, parsed in extract
+        final List<Element> pageVoElements = new ArrayList<Element>();
+        final List<Object> pageVos = new ArrayList<Object>();
+
+        PageTask(String link, PageRequest pageRequest, PageResponse pageResponse, String pagesource) {
+            this.link = link;
+            this.pageRequest = pageRequest;
+            this.pageResponse = pageResponse;
+            this.pagesource = pagesource;
+        }
+    }
+
+    // ---------------------- fetch ----------------------
+
+    /**
+     * fetch page, one attempt
+     *
+     * @param link
+     * @return PageTask, null if load fail
+     */
+    PageTask fetch(String link) {
+        PageRequest pageRequest = request(link);
+
+        // load
+        if (crawler.getRunConf().getPageParser() instanceof NonPageParser) {
+            String pagesource = JsoupUtil.loadPageSource(pageRequest);
+            return pagesource!=null ? new PageTask(link, pageRequest, null, pagesource) : null;
+        }
+        PageResponse pageResponse = crawler.getRunConf().getPageLoader().loadResponse(pageRequest);
+        return accept(link, pageRequest, pageResponse);
+    }
+
+    /**
+     * filter page response by status and content type, before dom parse
+     *
+     * @param link
+     * @param pageRequest
+     * @param pageResponse
+     * @return PageTask, null if load fail or response invalid
+     */
+    PageTask accept(String link, PageRequest pageRequest, PageResponse pageResponse) {
+        if (pageResponse == null) {
+            return null;
+        }
+        if (!pageResponse.isValid()) {
+            logger.info(">>>>>>>>>>> xxl crawler response invalid, status : {}, contentType : {}, link : {}",
+                    pageResponse.getStatus(), pageResponse.getContentType(), link);
+            return null;
+        }
+        return new PageTask(link, pageRequest, pageResponse, null);
+    }
+
+    /**
+     * make page request, and pre parse
+     *
+     * @param link
+     * @return PageRequest
+     */
+    PageRequest request(String link) {
+        // make request
+        PageRequest pageRequest = makePageRequest(link);
+
+        // pre parse
+        crawler.getRunConf().getPageParser().preParse(pageRequest);
+        return pageRequest;
+    }
+
+    /**
+     * pause after each attempt, avoid being blocked for too frequent
+     */
+    void pause() {
+        if (crawler.getRunConf().getPauseMillis() > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(crawler.getRunConf().getPauseMillis());
+            } catch (InterruptedException e) {
+                logger.info(">>>>>>>>>>> xxl crawler thread is interrupted. 2{}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * make page request
+     *
+     * @param link
+     * @return PageRequest
+     */
+    private PageRequest makePageRequest(String link){
+        String userAgent = crawler.getRunConf().getUserAgentList().size()>1
+                ?crawler.getRunConf().getUserAgentList().get(new Random().nextInt(crawler.getRunConf().getUserAgentList().size()))
+                :crawler.getRunConf().getUserAgentList().size()==1?crawler.getRunConf().getUserAgentList().get(0):null;
+        Proxy proxy = null;
+        if (crawler.getRunConf().getProxyMaker() != null) {
+            proxy = crawler.getRunConf().getProxyMaker().make();
+        }
+
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setUrl(link);
+        pageRequest.setParamMap(crawler.getRunConf().getParamMap());
+        pageRequest.setCookieMap(crawler.getRunConf().getCookieMap());
+        pageRequest.setHeaderMap(crawler.getRunConf().getHeaderMap());
+        pageRequest.setUserAgent(userAgent);
+        pageRequest.setReferrer(crawler.getRunConf().getReferrer());
+        pageRequest.setIfPost(crawler.getRunConf().isIfPost());
+        pageRequest.setTimeoutMillis(crawler.getRunConf().getTimeoutMillis());
+        pageRequest.setProxy(proxy);
+        pageRequest.setValidateTLSCertificates(crawler.getRunConf().isValidateTLSCertificates());
+        pageRequest.setMaxBodySize(crawler.getRunConf().getMaxBodySize());
+
+        return pageRequest;
+    }
+
+    // ---------------------- extract ----------------------
+
+    /**
+     * spread child links, and map page to pageVo
+     *
+     * @param task
+     */
+    void extract(PageTask task) throws IllegalAccessException, InstantiationException {
+        if (task.pageResponse == null) {
+            return;     // non page, output source directly
+        }
+        Document html = task.html = task.pageResponse.getHtml();
+
+        // ------- child link list (FIFO队列,广度优先) ----------
+        if (crawler.getRunConf().isAllowSpread()) {     // limit child spread
+            Set<String> links = JsoupUtil.findLinks(html);
+            if (links != null && links.size() > 0) {
+                List<String> childLinks = new ArrayList<String>(links.size());
+                for (String item : links) {
+                    item = crawler.getRunConf().canonicalUrl(item);
+                    if (crawler.getRunConf().validWhiteUrl(item)) {      // limit unvalid-child spread
+                        childLinks.add(item);
+                    }
+                }
+                crawler.addUrls(childLinks, task.link);     // one frontier operation per page, counted before the parent is finished
+            }
+        }
+
+        // ------- pagevo ----------
+        if (!crawler.getRunConf().validWhiteUrl(task.pageRequest.getUrl())) {     // limit unvalid-page parse, only allow spread child, finish here
+            return;
+        }
+
+        // pagevo class-field info
+        Class pageVoClassType = Object.class;
+
+        Type pageVoParserClass = crawler.getRunConf().getPageParser().getClass().getGenericSuperclass();
+        if (pageVoParserClass instanceof ParameterizedType) {
+            Type[] pageVoClassTypes = ((ParameterizedType)pageVoParserClass).getActualTypeArguments();
+            pageVoClassType = (Class) pageVoClassTypes[0];
+        }
+
+        PageSelect pageVoSelect = (PageSelect) pageVoClassType.getAnnotation(PageSelect.class);
+        String pageVoCssQuery = (pageVoSelect!=null && pageVoSelect.cssQuery()!=null && pageVoSelect.cssQuery().trim().length()>0)?pageVoSelect.cssQuery():"html";
+
+        // pagevo document 2 object
+        Elements pageVoElements = html.select(pageVoCssQuery);
+
+        if (pageVoElements != null && pageVoElements.hasText()) {
+            for (Element pageVoElement : pageVoElements) {
+
+                Object pageVo = pageVoClassType.newInstance();
+
+                Field[] fields = pageVoClassType.getDeclaredFields();
+                if (fields!=null) {
+                    for (Field field: fields) {
+                        if (Modifier.isStatic(field.getModifiers())) {
+                            continue;
+                        }
+
+
+                        // field origin value
+                        PageFieldSelect fieldSelect = field.getAnnotation(PageFieldSelect.class);
+                        String cssQuery = null;
+                        XxlCrawlerConf.SelectType selectType = null;
+                        String selectVal = null;
+                        if (fieldSelect != null) {
+                            cssQuery = fieldSelect.cssQuery();
+                            selectType = fieldSelect.selectType();
+                            selectVal = fieldSelect.selectVal();
+                        }
+                        if (cssQuery==null || cssQuery.trim().length()==0) {
+                            continue;
+                        }
+
+                        // field value
+                        Object fieldValue = null;
+
+                        if (field.getGenericType() instanceof ParameterizedType) {
+                            ParameterizedType fieldGenericType = (ParameterizedType) field.getGenericType();
+                            if (fieldGenericType.getRawType().equals(List.class)) {
+
+                                //Type gtATA = fieldGenericType.getActualTypeArguments()[0];
+                                Elements fieldElementList = pageVoElement.select(cssQuery);
+                                if (fieldElementList!=null && fieldElementList.size()>0) {
+
+                                    List<Object> fieldValueTmp = new ArrayList<Object>();
+                                    for (Element fieldElement: fieldElementList) {
+
+                                        String fieldElementOrigin = JsoupUtil.parseElement(fieldElement, selectType, selectVal);
+                                        if (fieldElementOrigin==null || fieldElementOrigin.length()==0) {
+                                            continue;
+                                        }
+                                        try {
+                                            fieldValueTmp.add(FieldReflectionUtil.parseValue(field, fieldElementOrigin));
+                                        } catch (Exception e) {
+                                            logger.error(e.getMessage(), e);
+                                        }
+                                    }
+
+                                    if (fieldValueTmp.size() > 0) {
+                                        fieldValue = fieldValueTmp;
+                                    }
+                                }
+                            }
+                        } else {
+
+                            Elements fieldElements = pageVoElement.select(cssQuery);
+                            String fieldValueOrigin = null;
+                            if (fieldElements!=null && fieldElements.size()>0) {
+                                fieldValueOrigin = JsoupUtil.parseElement(fieldElements.get(0), selectType, selectVal);
+                            }
+
+                            if (fieldValueOrigin==null || fieldValueOrigin.length()==0) {
+                                continue;
+                            }
+
+                            try {
+                                fieldValue = FieldReflectionUtil.parseValue(field, fieldValueOrigin);
+                            } catch (Exception e) {
+                                logger.error(e.getMessage(), e);
+                            }
+                        }
+
+                        if (fieldValue!=null) {
+                            /*PropertyDescriptor pd = new PropertyDescriptor(field.getName(), pageVoClassType);
+                            Method method = pd.getWriteMethod();
+                            method.invoke(pageVo, fieldValue);*/
+
+                            field.setAccessible(true);
+                            field.set(pageVo, fieldValue);
+                        }
+                    }
+                }
+
+                task.pageVoElements.add(pageVoElement);
+                task.pageVos.add(pageVo);
+            }
+        }
+    }
+
+    // ---------------------- output ----------------------
+
+    /**
+     * output pageVo, or non page source
+     *
+     * @param task
+     */
+    void output(PageTask task) {
+        if (task.pageResponse == null) {
+            NonPageParser nonPageParser = (NonPageParser) crawler.getRunConf().getPageParser();
+            nonPageParser.parse(task.pageRequest.getUrl(), task.pagesource);
+            return;
+        }
+        for (int i = 0; i < task.pageVos.size(); i++) {
+            crawler.getRunConf().getPageParser().parse(task.html, task.pageVoElements.get(i), task.pageVos.get(i));
+        }
+    }
+
+}
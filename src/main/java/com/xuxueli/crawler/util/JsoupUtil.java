@@ -1,7 +1,9 @@
 package com.xuxueli.crawler.util;
 
 import com.xuxueli.crawler.conf.XxlCrawlerConf;
+import com.xuxueli.crawler.exception.XxlCrawlerException;
 import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -11,8 +13,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
 /**
  * jsoup tool
@@ -27,55 +28,53 @@ public class JsoupUtil {
      *
      * @param pageRequest
      *
-     * @return Document
+     * @return Document, null if load fail, or status / content type invalid
      */
     public static Document load(PageRequest pageRequest) {
-        if (!UrlUtil.isUrl(pageRequest.getUrl())) {
+        PageResponse pageResponse = loadResponse(pageRequest);
+        if (pageResponse == null) {
+            return null;
+        }
+        if (!pageResponse.isValid()) {
+            logger.error("HTTP error fetching URL, status : {}, contentType : {}, url : {}",
+                    pageResponse.getStatus(), pageResponse.getContentType(), pageRequest.getUrl());
             return null;
         }
         try {
-            // 请求设置
-            Connection conn = Jsoup.connect(pageRequest.getUrl());
-            if (pageRequest.getParamMap() != null && !pageRequest.getParamMap().isEmpty()) {
-                conn.data(pageRequest.getParamMap());
-            }
-            if (pageRequest.getCookieMap() != null && !pageRequest.getCookieMap().isEmpty()) {
-                conn.cookies(pageRequest.getCookieMap());
-            }
-            if (pageRequest.getHeaderMap()!=null && !pageRequest.getHeaderMap().isEmpty()) {
-                conn.headers(pageRequest.getHeaderMap());
-            }
-            if (pageRequest.getUserAgent()!=null) {
-                conn.userAgent(pageRequest.getUserAgent());
-            }
-            if (pageRequest.getReferrer() != null) {
-                conn.referrer(pageRequest.getReferrer());
-            }
-            conn.timeout(pageRequest.getTimeoutMillis());
-            conn.validateTLSCertificates(pageRequest.isValidateTLSCertificates());
-            conn.maxBodySize(0);    // 取消默认1M限制
-
-            // 代理
-            if (pageRequest.getProxy() != null) {
-                conn.proxy(pageRequest.getProxy());
-            }
-
-            // 发出请求
-            Document html = null;
-            if (pageRequest.isIfPost()) {
-                html = conn.post();
-            } else {
-                html = conn.get();
-            }
-            return html;
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
+            return pageResponse.getHtml();
+        } catch (XxlCrawlerException e) {
+            logger.error(e.getMessage());
             return null;
         }
     }
 
-
+    /**
+     * 加载页面源码，不限内容类型，不解析DOM
+     *
+     * @param pageRequest
+     *
+     * @return String, null if load fail, or status invalid
+     */
     public static String loadPageSource(PageRequest pageRequest) {
+        PageResponse pageResponse = loadResponse(pageRequest);
+        if (pageResponse == null) {
+            return null;
+        }
+        if (!pageResponse.isSuccess()) {
+            logger.error("HTTP error fetching URL, status : {}, url : {}", pageResponse.getStatus(), pageRequest.getUrl());
+            return null;
+        }
+        return pageResponse.getPageSource();
+    }
+
+    /**
+     * 加载页面响应：原始响应体、状态码、响应头，页面文档延迟解析；不校验状态码与内容类型
+     *
+     * @param pageRequest
+     *
+     * @return PageResponse, null if load fail
+     */
+    public static PageResponse loadResponse(PageRequest pageRequest) {
         if (!UrlUtil.isUrl(pageRequest.getUrl())) {
             return null;
         }
@@ -99,20 +98,34 @@ public class JsoupUtil {
             }
             conn.timeout(pageRequest.getTimeoutMillis());
             conn.validateTLSCertificates(pageRequest.isValidateTLSCertificates());
-            conn.maxBodySize(0);    // 取消默认1M限制
+            int maxBodySize = pageRequest.getMaxBodySize()>0 ? Math.min(pageRequest.getMaxBodySize(), Integer.MAX_VALUE - 1) : 0;
+            conn.maxBodySize(maxBodySize>0 ? maxBodySize + 1 : 0);    // 默认取消1M限制；多读1字节，以区分超限截断
 
             // 代理
             if (pageRequest.getProxy() != null) {
                 conn.proxy(pageRequest.getProxy());
             }
 
-            conn.ignoreContentType(true);
+            conn.ignoreContentType(true);   // 状态码、内容类型由调用方校验
+            conn.ignoreHttpErrors(true);
             conn.method(pageRequest.isIfPost()?Connection.Method.POST:Connection.Method.GET);
 
-            // 发出请求
+            // 发出请求，gzip响应由jsoup边读取边解压
             Connection.Response resp = conn.execute();
-            String pageSource = resp.body();
-            return pageSource;
+            byte[] body = resp.bodyAsBytes();
+            if (maxBodySize>0 && body.length>maxBodySize) {
+                logger.error("response body too large, maxBodySize : {}, url : {}", maxBodySize, pageRequest.getUrl());
+                return null;
+            }
+
+            Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+            for (Map.Entry<String, String> header: resp.headers().entrySet()) {
+                if ("Content-Encoding".equalsIgnoreCase(header.getKey())) {
+                    continue;       // body decompressed already
+                }
+                headers.put(header.getKey(), Collections.singletonList(header.getValue()));
+            }
+            return new PageResponse(pageRequest.getUrl(), resp.url().toString(), resp.statusCode(), headers, body);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
             return null;
@@ -0,0 +1,232 @@
+package com.xuxueli.crawler.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.regex.Pattern;
+
+/**
+ * resource filter
+ *
+ * JS渲染方式（HtmlUnit、Selenium）加载页面时，拦截页面引用的子资源请求，只获取构建DOM所需资源，如跳过图片、字体、统计脚本等，降低渲染耗时与流量；规则可配置：
+ *
+ *      URL规则         ：正则表达式，部分匹配即生效，如 "google-analytics\\.com"
+ *      内容类型规则     ：如 "image/png"，以 "/*" 结尾时按主类型匹配，如 "image/*"；请求前按URL后缀推断类型，HtmlUnit 在响应后按实际 Content-Type 再次校验
+ *
+ * 匹配顺序：允许URL -> 禁止URL -> 允许内容类型 -> 禁止内容类型，先命中者生效，均未命中时允许；页面自身请求不拦截。
+ */
+public class ResourceFilter {
+
+    private final List<Pattern> allowUrlRegexes = new CopyOnWriteArrayList<Pattern>();
+    private final List<Pattern> denyUrlRegexes = new CopyOnWriteArrayList<Pattern>();
+    private final Set<String> allowContentTypes = new CopyOnWriteArraySet<String>();
+    private final Set<String> denyContentTypes = new CopyOnWriteArraySet<String>();
+
+    /**
+     * 允许URL，优先于其他规则
+     *
+     * @param regexes   正则表达式，部分匹配
+     * @return ResourceFilter
+     */
+    public ResourceFilter addAllowUrlRegexes(String... regexes) {
+        addRegexes(allowUrlRegexes, regexes);
+        return this;
+    }
+
+    /**
+     * 禁止URL
+     *
+     * @param regexes   正则表达式，部分匹配
+     * @return ResourceFilter
+     */
+    public ResourceFilter addDenyUrlRegexes(String... regexes) {
+        addRegexes(denyUrlRegexes, regexes);
+        return this;
+    }
+
+    /**
+     * 允许内容类型，优先于禁止内容类型
+     *
+     * @param contentTypes  如 "text/css"，以 "/*" 结尾时按主类型匹配，如 "image/*"
+     * @return ResourceFilter
+     */
+    public ResourceFilter addAllowContentTypes(String... contentTypes) {
+        addContentTypes(allowContentTypes, contentTypes);
+        return this;
+    }
+
+    /**
+     * 禁止内容类型
+     *
+     * @param contentTypes  如 "text/css"，以 "/*" 结尾时按主类型匹配，如 "image/*"
+     * @return ResourceFilter
+     */
+    public ResourceFilter addDenyContentTypes(String... contentTypes) {
+        addContentTypes(denyContentTypes, contentTypes);
+        return this;
+    }
+
+    /**
+     * 常见无关资源：图片、字体、音视频、样式，及常见统计、广告脚本
+     *
+     * @return ResourceFilter
+     */
+    public ResourceFilter addDefaultDenyRules() {
+        addDenyContentTypes("image/*", "font/*", "video/*", "audio/*", "application/font-woff", "application/vnd.ms-fontobject", "text/css");
+        return addDenyUrlRegexes("google-analytics\\.com", "googletagmanager\\.com", "googlesyndication\\.com", "doubleclick\\.net",
+                "connect\\.facebook\\.net", "hm\\.baidu\\.com", "cnzz\\.com", "51\\.la/");
+    }
+
+    private static void addRegexes(List<Pattern> list, String... regexes) {
+        if (regexes!=null && regexes.length>0) {
+            for (String regex: regexes) {
+                list.add(Pattern.compile(regex));
+            }
+        }
+    }
+
+    private static void addContentTypes(Set<String> set, String... contentTypes) {
+        if (contentTypes!=null && contentTypes.length>0) {
+            for (String contentType: contentTypes) {
+                set.add(contentType.trim().toLowerCase());
+            }
+        }
+    }
+
+    // ---------------------- filter ----------------------
+
+    /**
+     * 请求前校验，内容类型按URL后缀推断
+     *
+     * @param url   资源URL
+     * @return boolean, true if fetch
+     */
+    public boolean accept(String url) {
+        return accept(url, guessContentType(url));
+    }
+
+    /**
+     * 响应后校验，按实际内容类型
+     *
+     * @param url           资源URL
+     * @param contentType   内容类型，可为空
+     * @return boolean, true if fetch
+     */
+    public boolean accept(String url, String contentType) {
+        if (find(allowUrlRegexes, url)) {
+            return true;
+        }
+        if (find(denyUrlRegexes, url)) {
+            return false;
+        }
+        if (contentType == null) {
+            return true;
+        }
+        if (matchContentType(allowContentTypes, contentType)) {
+            return true;
+        }
+        return !matchContentType(denyContentTypes, contentType);
+    }
+
+    private static boolean find(List<Pattern> regexes, String url) {
+        for (Pattern regex: regexes) {
+            if (regex.matcher(url).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchContentType(Set<String> contentTypes, String contentType) {
+        if (contentTypes.isEmpty()) {
+            return false;
+        }
+        String type = contentType.toLowerCase();
+        int end = type.indexOf(';');
+        type = (end>-1 ? type.substring(0, end) : type).trim();
+        int slash = type.indexOf('/');
+        return contentTypes.contains(type) || (slash>-1 && contentTypes.contains(type.substring(0, slash) + "/*"));
+    }
+
+    // ---------------------- url suffix ----------------------
+
+    private static final Map<String, String> SUFFIX_TYPES = new HashMap<String, String>();
+    static {
+        SUFFIX_TYPES.put("png", "image/png");
+        SUFFIX_TYPES.put("jpg", "image/jpeg");
+        SUFFIX_TYPES.put("jpeg", "image/jpeg");
+        SUFFIX_TYPES.put("gif", "image/gif");
+        SUFFIX_TYPES.put("webp", "image/webp");
+        SUFFIX_TYPES.put("svg", "image/svg+xml");
+        SUFFIX_TYPES.put("ico", "image/x-icon");
+        SUFFIX_TYPES.put("bmp", "image/bmp");
+        SUFFIX_TYPES.put("woff", "font/woff");
+        SUFFIX_TYPES.put("woff2", "font/woff2");
+        SUFFIX_TYPES.put("ttf", "font/ttf");
+        SUFFIX_TYPES.put("otf", "font/otf");
+        SUFFIX_TYPES.put("eot", "application/vnd.ms-fontobject");
+        SUFFIX_TYPES.put("mp4", "video/mp4");
+        SUFFIX_TYPES.put("webm", "video/webm");
+        SUFFIX_TYPES.put("mp3", "audio/mpeg");
+        SUFFIX_TYPES.put("css", "text/css");
+        SUFFIX_TYPES.put("js", "application/javascript");
+        SUFFIX_TYPES.put("json", "application/json");
+    }
+
+    /**
+     * @param url   资源URL
+     * @return String, content type by path suffix; null if unknown
+     */
+    public static String guessContentType(String url) {
+        String suffix = suffix(url);
+        return suffix!=null ? SUFFIX_TYPES.get(suffix) : null;
+    }
+
+    private static String suffix(String url) {
+        String path = url;
+        int end = path.indexOf('#');
+        path = end>-1 ? path.substring(0, end) : path;
+        end = path.indexOf('?');
+        path = end>-1 ? path.substring(0, end) : path;
+        int dot = path.lastIndexOf('.');
+        return dot>path.lastIndexOf('/') ? path.substring(dot + 1).toLowerCase() : null;
+    }
+
+    // ---------------------- view, for browser side filter ----------------------
+
+    public List<String> getAllowUrlRegexes() {
+        return patterns(allowUrlRegexes);
+    }
+
+    public List<String> getDenyUrlRegexes() {
+        return patterns(denyUrlRegexes);
+    }
+
+    /**
+     * @return List, url suffixes denied by content type rules, e.g. "png"
+     */
+    public List<String> getDenySuffixes() {
+        Set<String> suffixes = new TreeSet<String>();
+        for (Map.Entry<String, String> item: SUFFIX_TYPES.entrySet()) {
+            if (!matchContentType(allowContentTypes, item.getValue()) && matchContentType(denyContentTypes, item.getValue())) {
+                suffixes.add(item.getKey());
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<String>(suffixes));
+    }
+
+    private static List<String> patterns(List<Pattern> regexes) {
+        List<String> list = new ArrayList<String>();
+        for (Pattern regex: regexes) {
+            list.add(regex.pattern());
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+}
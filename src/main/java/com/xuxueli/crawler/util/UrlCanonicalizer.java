@@ -0,0 +1,256 @@
+package com.xuxueli.crawler.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * url canonicalizer
+ *
+ * URL入队前规范化，避免同一页面因书写差异被重复采集，规则可配置：
+ *
+ *      lowerCase           ：scheme 与 host 转小写，如 "HTTP://A.com/x" -> "http://a.com/x"
+ *      removeDefaultPort   ：移除默认端口，如 "http://a.com:80/x" -> "http://a.com/x"
+ *      removeFragment      ：移除片段，如 "http://a.com/x#top" -> "http://a.com/x"
+ *      sortQuery           ：查询参数排序，如 "http://a.com/x?b=2&a=1" -> "http://a.com/x?a=1&b=2"
+ *      removeParams        ：移除跟踪参数，如 "utm_source"，以 "*" 结尾时按前缀匹配，如 "utm_*"
+ *      空查询              ：移除空查询的 "?"，如 "http://a.com/x?" -> "http://a.com/x"
+ *
+ * URL已规范时直接返回原对象，不产生额外对象。
+ */
+public class UrlCanonicalizer {
+
+    private volatile boolean lowerCase = true;
+    private volatile boolean removeDefaultPort = true;
+    private volatile boolean removeFragment = true;
+    private volatile boolean sortQuery = false;
+    private final Set<String> removeParams = new CopyOnWriteArraySet<String>();
+    private final Set<String> removeParamPrefixes = new CopyOnWriteArraySet<String>();
+
+    public UrlCanonicalizer setLowerCase(boolean lowerCase) {
+        this.lowerCase = lowerCase;
+        return this;
+    }
+
+    public UrlCanonicalizer setRemoveDefaultPort(boolean removeDefaultPort) {
+        this.removeDefaultPort = removeDefaultPort;
+        return this;
+    }
+
+    public UrlCanonicalizer setRemoveFragment(boolean removeFragment) {
+        this.removeFragment = removeFragment;
+        return this;
+    }
+
+    public UrlCanonicalizer setSortQuery(boolean sortQuery) {
+        this.sortQuery = sortQuery;
+        return this;
+    }
+
+    /**
+     * 移除跟踪参数
+     *
+     * @param params    参数名，以 "*" 结尾时按前缀匹配，如 "utm_*"
+     * @return UrlCanonicalizer
+     */
+    public UrlCanonicalizer addRemoveParams(String... params) {
+        if (params!=null && params.length>0) {
+            for (String param: params) {
+                if (param.endsWith("*")) {
+                    removeParamPrefixes.add(param.substring(0, param.length() - 1));
+                } else {
+                    removeParams.add(param);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 常见跟踪参数
+     *
+     * @return UrlCanonicalizer
+     */
+    public UrlCanonicalizer addTrackingParams() {
+        return addRemoveParams("utm_*", "spm", "gclid", "fbclid", "_hsenc", "_hsmi", "mc_cid", "mc_eid");
+    }
+
+    /**
+     * 规范化URL，非法URL原样返回
+     *
+     * @param url
+     * @return String
+     */
+    public String canonicalize(String url) {
+        if (url == null) {
+            return null;
+        }
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd < 1) {
+            return url;
+        }
+        int length = url.length();
+        int hostStart = schemeEnd + 3;
+
+        // authority end, query start, fragment start
+        int authorityEnd = length;
+        for (int i = hostStart; i < length; i++) {
+            char c = url.charAt(i);
+            if (c=='/' || c=='?' || c=='#') {
+                authorityEnd = i;
+                break;
+            }
+        }
+        int fragmentStart = url.indexOf('#', authorityEnd);
+        int pathEnd = fragmentStart>-1 ? fragmentStart : length;
+        int queryStart = url.indexOf('?', authorityEnd);
+        if (queryStart>-1 && queryStart>pathEnd) {
+            queryStart = -1;
+        }
+        if (queryStart > -1) {
+            pathEnd = queryStart;
+        }
+
+        // user info
+        int userInfoEnd = url.lastIndexOf('@', authorityEnd - 1);
+        if (userInfoEnd >= hostStart) {
+            hostStart = userInfoEnd + 1;
+        }
+
+        // port
+        int hostEnd = authorityEnd;
+        int portStart = url.lastIndexOf(':', authorityEnd - 1);
+        if (portStart>=hostStart && portStart>url.lastIndexOf(']', authorityEnd - 1)) {
+            hostEnd = portStart;
+        }
+
+        boolean changed = false;
+
+        // scheme, host
+        boolean lowerScheme = lowerCase && hasUpperCase(url, 0, schemeEnd);
+        boolean lowerHost = lowerCase && hasUpperCase(url, hostStart, hostEnd);
+        changed |= lowerScheme || lowerHost;
+
+        boolean dropPort = false;
+        if (removeDefaultPort && hostEnd<authorityEnd) {
+            String port = url.substring(hostEnd + 1, authorityEnd);
+            dropPort = port.length()==0
+                    || ("80".equals(port) && url.regionMatches(true, 0, "http", 0, schemeEnd) && schemeEnd==4)
+                    || ("443".equals(port) && url.regionMatches(true, 0, "https", 0, schemeEnd) && schemeEnd==5);
+            changed |= dropPort;
+        }
+
+        boolean emptyPath = authorityEnd == pathEnd;
+        changed |= emptyPath;
+
+        // query
+        String query = null;
+        if (queryStart > -1) {
+            int queryEnd = fragmentStart>-1 ? fragmentStart : length;
+            String originQuery = url.substring(queryStart + 1, queryEnd);
+            query = canonicalizeQuery(originQuery);
+            changed |= !query.equals(originQuery) || query.length()==0;      // empty query, drop "?" whether params removed or not
+        }
+
+        boolean dropFragment = removeFragment && fragmentStart>-1;
+        changed |= dropFragment;
+
+        if (!changed) {
+            return url;     // fast path, already canonical
+        }
+
+        // rebuild
+        StringBuilder sb = new StringBuilder(length);
+        appendCase(sb, url, 0, schemeEnd, lowerScheme);
+        sb.append(url, schemeEnd, hostStart);
+        appendCase(sb, url, hostStart, hostEnd, lowerHost);
+        if (!dropPort) {
+            sb.append(url, hostEnd, authorityEnd);
+        }
+        if (emptyPath) {
+            sb.append('/');
+        } else {
+            sb.append(url, authorityEnd, pathEnd);
+        }
+        if (query!=null && query.length()>0) {
+            sb.append('?').append(query);
+        }
+        if (fragmentStart>-1 && !dropFragment) {
+            sb.append(url, fragmentStart, length);
+        }
+        return sb.toString();
+    }
+
+    private String canonicalizeQuery(String query) {
+        boolean filterParam = !removeParams.isEmpty() || !removeParamPrefixes.isEmpty();
+        if (!sortQuery && !filterParam) {
+            return query;
+        }
+
+        List<String> params = new ArrayList<String>();
+        int start = 0;
+        while (start <= query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = query.length();
+            }
+            if (end > start) {
+                String param = query.substring(start, end);
+                if (!filterParam || !isRemoveParam(param)) {
+                    params.add(param);
+                }
+            }
+            start = end + 1;
+        }
+        if (sortQuery) {
+            Collections.sort(params);
+        }
+
+        StringBuilder sb = new StringBuilder(query.length());
+        for (String param: params) {
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(param);
+        }
+        return sb.toString();
+    }
+
+    private boolean isRemoveParam(String param) {
+        int nameEnd = param.indexOf('=');
+        String name = nameEnd>-1 ? param.substring(0, nameEnd) : param;
+        if (removeParams.contains(name)) {
+            return true;
+        }
+        for (String prefix: removeParamPrefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasUpperCase(String str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c>='A' && c<='Z') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void appendCase(StringBuilder sb, String str, int start, int end, boolean lower) {
+        if (!lower) {
+            sb.append(str, start, end);
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            sb.append((c>='A' && c<='Z') ? (char) (c + 32) : c);
+        }
+    }
+
+}
@@ -17,4 +17,73 @@ public class UrlUtil {
         return false;
     }
 
+    /**
+     * 解析url主机名（小写，不含端口及用户信息），解析失败返回null
+     *
+     * @param url
+     * @return String
+     */
+    public static String getHost(String url) {
+        if (url == null) {
+            return null;
+        }
+        int start = url.indexOf("://");
+        if (start < 0) {
+            return null;
+        }
+        start += 3;
+
+        int end = start;
+        while (end < url.length()) {
+            char c = url.charAt(end);
+            if (c=='/' || c=='?' || c=='#') {
+                break;
+            }
+            end++;
+        }
+
+        int userInfoEnd = url.lastIndexOf('@', end - 1);
+        if (userInfoEnd >= start) {
+            start = userInfoEnd + 1;
+        }
+        int portStart = url.lastIndexOf(':', end - 1);
+        if (portStart >= start && portStart > url.lastIndexOf(']', end - 1)) {
+            end = portStart;        // ipv6 literal "[::1]:80" keeps its brackets
+        }
+        if (start >= end) {
+            return null;
+        }
+        return url.substring(start, end).toLowerCase();
+    }
+
+    /**
+     * url指纹，64位hash，不产生额外对象
+     *
+     * @param url
+     * @return long
+     */
+    public static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix64(hash ^ url.length());
+    }
+
+    /**
+     * 64位hash混淆（murmur3 fmix64），打散低熵hash值
+     *
+     * @param hash
+     * @return long
+     */
+    public static long mix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
 }
@@ -0,0 +1,203 @@
+package com.xuxueli.crawler.test.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.XxlCrawler;
+import com.xuxueli.crawler.parser.PageParser;
+import com.xuxueli.crawler.rundata.RunData;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * crawler finish test
+ */
+public class CrawlerFinishTest {
+
+    private LocalHttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if ("/site".equals(path)) {
+                    StringBuilder html = new StringBuilder("<html><body>/site");
+                    for (int i = 0; i < 50; i++) {
+                        html.append("<a href='/site/").append(i).append("'>").append(i).append("</a>");
+                    }
+                    LocalHttpServer.write(exchange, 200, html.append("</body></html>").toString());
+                    return;
+                }
+                if ("/slow".equals(path)) {
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                LocalHttpServer.write(exchange, 200, "<html><body>" + exchange.getRequestURI().getPath() + "</body></html>");
+            }
+        });
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * PageParser 经运行数据视图新增URL，计入待完成数量：采集中的页面不会因计数提前归零而被终止
+     */
+    @Test
+    public void parserAddUrlTest() throws Exception {
+        final AtomicReference<XxlCrawler> crawlerRef = new AtomicReference<XxlCrawler>();
+        final Set<String> outputs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        XxlCrawler crawler = new XxlCrawler.Builder()
+                .setUrls(server.url("/"), server.url("/slow"))
+                .setThreadCount(2)
+                .setPageParser(new PageParser<Object>() {
+                    @Override
+                    public void parse(Document html, Element pageVoElement, Object pageVo) {
+                        String path = html.body().text();
+                        if ("/".equals(path)) {
+                            crawlerRef.get().getCountingRunData().addUrl(server.url("/extra"));
+                        }
+                        outputs.add(path);
+                    }
+                })
+                .build();
+        crawlerRef.set(crawler);
+        crawler.start(false);
+        crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(3, outputs.size());
+        Assert.assertTrue(outputs.contains("/slow"));
+        Assert.assertTrue(outputs.contains("/extra"));
+        Assert.assertEquals(0, crawler.getRunData().getUrlNum());
+    }
+
+    /**
+     * 自定义运行数据（非 LocalRunData，getUrl 阻塞等待）：由轮询检测终止；getRunData 返回传入的实例
+     */
+    @Test
+    public void customRunDataTest() throws Exception {
+        final Set<String> outputs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        BlockingRunData runData = new BlockingRunData();
+        XxlCrawler crawler = new XxlCrawler.Builder()
+                .setRunData(runData)
+                .setUrls(server.url("/site"))
+                .setAllowSpread(true)
+                .setThreadCount(4)
+                .setPageParser(new PageParser<Object>() {
+                    @Override
+                    public void parse(Document html, Element pageVoElement, Object pageVo) {
+                        outputs.add(html.body().ownText());
+                    }
+                })
+                .build();
+        Assert.assertSame(runData, crawler.getRunData());
+        crawler.start(false);
+        crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(51, outputs.size());
+        Assert.assertEquals(0, runData.getUrlNum());
+    }
+
+    /**
+     * 虚拟线程模式：线程数可超出平台线程上限，全部页面采集后正常结束；运行时不支持虚拟线程时回退为平台线程并限制线程数
+     */
+    @Test
+    public void virtualThreadTest() throws Exception {
+        final Set<String> outputs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        XxlCrawler crawler = new XxlCrawler.Builder()
+                .setUrls(server.url("/site"))
+                .setAllowSpread(true)
+                .setVirtualThread(true)
+                .setThreadCount(1200)
+                .setPageParser(new PageParser<Object>() {
+                    @Override
+                    public void parse(Document html, Element pageVoElement, Object pageVo) {
+                        outputs.add(html.body().ownText());
+                    }
+                })
+                .build();
+        crawler.start(false);
+        crawler.getFinishFuture().get(60, TimeUnit.SECONDS);
+
+        Assert.assertEquals(51, outputs.size());
+        Assert.assertEquals(0, crawler.getRunData().getUrlNum());
+    }
+
+    /**
+     * 线程数上限仅在虚拟线程模式下放开
+     */
+    @Test
+    public void threadCountTest() {
+        try {
+            new XxlCrawler.Builder()
+                    .setUrls(server.url("/"))
+                    .setThreadCount(2000)
+                    .build()
+                    .start(false);
+            Assert.fail("platform thread count over limit should be rejected");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("threadCount invalid"));
+        }
+
+        try {
+            new XxlCrawler.Builder()
+                    .setUrls(server.url("/"))
+                    .setVirtualThread(true)
+                    .setThreadCount(0)
+                    .build()
+                    .start(false);
+            Assert.fail("thread count less than 1 should be rejected");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().contains("threadCount invalid"));
+        }
+    }
+
+    /**
+     * custom run data like a Redis list: getUrl blocks until a link is available
+     */
+    private static class BlockingRunData extends RunData {
+        private final Set<String> seenSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<String>();
+
+        @Override
+        public boolean addUrl(String link) {
+            return seenSet.add(link) && queue.add(link);
+        }
+
+        @Override
+        public String getUrl() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public int getUrlNum() {
+            return queue.size();
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.xuxueli.crawler.test.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.XxlCrawler;
+import com.xuxueli.crawler.loader.strategy.NioHttpPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.parser.PageParser;
+import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * crawler pipeline test
+ */
+public class CrawlerPipelineTest {
+
+    private static final int PAGE_NUM = 20;
+
+    private LocalHttpServer server;
+    private final ConcurrentHashMap<String, AtomicInteger> requestNumMap = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * "/site" links to "/site/{i}"; "/flaky/{i}" fails on first request; "/dead" always fails
+     */
+    @Before
+    public void startServer() throws IOException {
+        server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                int requestNum = count(requestNumMap, path);
+                if ("/site".equals(path) || "/flaky".equals(path)) {
+                    StringBuilder html = new StringBuilder("<html><body>" + path);
+                    for (int i = 0; i < PAGE_NUM; i++) {
+                        html.append("<a href='").append(path).append("/").append(i).append("'>").append(i).append("</a>");
+                    }
+                    if ("/flaky".equals(path)) {
+                        html.append("<a href='/dead'>dead</a>");
+                    }
+                    LocalHttpServer.write(exchange, 200, html.append("</body></html>").toString());
+                } else if ("/dead".equals(path) || (path.startsWith("/flaky/") && requestNum==1)) {
+                    LocalHttpServer.write(exchange, 500, "<html><body>error</body></html>");
+                } else {
+                    LocalHttpServer.write(exchange, 200, "<html><body>" + path + "</body></html>");
+                }
+            }
+        });
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * 流水线采集全部页面后正常结束，每个URL完成一次
+     */
+    @Test
+    public void completeTest() throws Exception {
+        final Set<String> outputs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        FinishCountRunData runData = new FinishCountRunData();
+        XxlCrawler crawler = new XxlCrawler.Builder()
+                .setRunData(runData)
+                .setUrls(server.url("/site"))
+                .setAllowSpread(true)
+                .setThreadCount(4)
+                .setPipeline(2, 2, 4)
+                .setPageParser(new PageParser<Object>() {
+                    @Override
+                    public void parse(Document html, Element pageVoElement, Object pageVo) {
+                        outputs.add(html.body().text());
+                    }
+                })
+                .build();
+        crawler.start(false);
+        crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(PAGE_NUM + 1, outputs.size());
+        assertFinishedOnce(runData, PAGE_NUM + 1);
+    }
+
+    /**
+     * output 阶段（PageParser）抛出异常：URL仍完成一次，采集正常结束
+     */
+    @Test
+    public void outputErrorTest() throws Exception {
+        final AtomicInteger outputNum = new AtomicInteger(0);
+        FinishCountRunData runData = new FinishCountRunData();
+        XxlCrawler crawler = new XxlCrawler.Builder()
+                .setRunData(runData)
+                .setUrls(server.url("/site"))
+                .setAllowSpread(true)
+                .setThreadCount(4)
+                .setPipeline(2, 2, 4)
+                .setPageParser(new PageParser<Object>() {
+                    @Override
+                    public void parse(Document html, Element pageVoElement, Object pageVo) {
+                        if (html.body().text().endsWith("7")) {
+                            throw new IllegalStateException("output fail");
+                        }
+                        outputNum.incrementAndGet();
+                    }
+                })
+                .build();
+        crawler.start(false);
+        crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+        Assert.assertEquals(PAGE_NUM + 1 - 2, outputNum.get());     // "/site/7", "/site/17"
+        assertFinishedOnce(runData, PAGE_NUM + 1);
+    }
+
+    /**
+     * parse 阶段（PageVo 映射）抛出异常：子链接已入队，URL仍完成一次，采集正常结束
+     */
+    @Test
+    public void parseErrorTest() throws Exception {
+        FinishCountRunData runData = new FinishCountRunData();
+        XxlCrawler crawler = new XxlCrawler.Builder()
+                .setRunData(runData)
+                .setUrls(server.url("/site"))
+                .setAllowSpread(true)
+                .setThreadCount(4)
+                .setPipeline(2, 2, 4)
+                .setPageParser(new PageParser<NoDefaultConstructorVo>() {
+                    @Override
+                    public void parse(Document html, Element pageVoElement, NoDefaultConstructorVo pageVo) {
+                        Assert.fail("pageVo can not be created");
+                    }
+                })
+                .build();
+        crawler.start(false);
+        crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+        assertFinishedOnce(runData, PAGE_NUM + 1);
+    }
+
+    /**
+     * 异步加载（NioHttpPageLoader）失败重试：首次失败的页面重试成功，持续失败的页面重试耗尽后完成
+     */
+    @Test
+    public void asyncRetryTest() throws Exception {
+        final Set<String> outputs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger preParseNum = new AtomicInteger(0);
+        FinishCountRunData runData = new FinishCountRunData();
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1);
+        try {
+            XxlCrawler crawler = new XxlCrawler.Builder()
+                    .setRunData(runData)
+                    .setUrls(server.url("/flaky"))
+                    .setAllowSpread(true)
+                    .setThreadCount(4)
+                    .setFailRetryCount(2)
+                    .setPipeline(2, 2, 4)
+                    .setPageLoader(pageLoader)
+                    .setPageParser(new PageParser<Object>() {
+                        @Override
+                        public void preParse(PageRequest pageRequest) {
+                            preParseNum.incrementAndGet();
+                        }
+                        @Override
+                        public void parse(Document html, Element pageVoElement, Object pageVo) {
+                            outputs.add(html.body().text());
+                        }
+                    })
+                    .build();
+            crawler.start(false);
+            crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+            Assert.assertEquals(PAGE_NUM + 1, outputs.size());
+            Assert.assertFalse(outputs.contains("error"));
+            Assert.assertEquals(3, requestNumMap.get("/dead").get());          // 1 + failRetryCount
+            Assert.assertEquals(2, requestNumMap.get("/flaky/0").get());
+            Assert.assertEquals(1 + PAGE_NUM*2 + 3, preParseNum.get());       // per attempt
+            assertFinishedOnce(runData, PAGE_NUM + 2);
+        } finally {
+            pageLoader.close();
+        }
+    }
+
+    private static void assertFinishedOnce(FinishCountRunData runData, int linkNum) {
+        Assert.assertEquals(linkNum, runData.finishNumMap.size());
+        for (Map.Entry<String, AtomicInteger> item: runData.finishNumMap.entrySet()) {
+            Assert.assertEquals(item.getKey(), 1, item.getValue().get());
+        }
+        Assert.assertEquals(0, runData.getUrlNum());
+    }
+
+    private static int count(ConcurrentHashMap<String, AtomicInteger> numMap, String key) {
+        AtomicInteger num = numMap.get(key);
+        if (num == null) {
+            AtomicInteger newNum = new AtomicInteger(0);
+            num = numMap.putIfAbsent(key, newNum);
+            if (num == null) {
+                num = newNum;
+            }
+        }
+        return num.incrementAndGet();
+    }
+
+    /**
+     * count finishUrl per link
+     */
+    private static class FinishCountRunData extends LocalRunData {
+        private final ConcurrentHashMap<String, AtomicInteger> finishNumMap = new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        public void finishUrl(String link) {
+            count(finishNumMap, link);
+            super.finishUrl(link);
+        }
+    }
+
+    public static class NoDefaultConstructorVo {
+        public NoDefaultConstructorVo(String value) {
+        }
+    }
+
+}
@@ -0,0 +1,223 @@
+package com.xuxueli.crawler.test.loader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.loader.strategy.CachedPageLoader;
+import com.xuxueli.crawler.loader.strategy.JsoupPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * cached page loader test
+ */
+public class CachedPageLoaderTest {
+
+    /**
+     * 条件请求：304 时使用缓存响应；重启后缓存仍有效；无校验字段的响应不缓存
+     */
+    @Test
+    public void conditionalTest() throws IOException {
+        AtomicInteger fullNum = new AtomicInteger(0);
+        LocalHttpServer server = startServer(fullNum, 0);
+        File cacheDir = Files.createTempDirectory("xxl-crawler-cache").toFile();
+        String baseUrl = server.url("");
+        try {
+            CachedPageLoader pageLoader = new CachedPageLoader(new JsoupPageLoader(), cacheDir.getPath(), 1024 * 1024);
+            for (int i = 0; i < 3; i++) {
+                Document html = pageLoader.load(LocalHttpServer.request(baseUrl + "/page/1"));
+                Assert.assertEquals("page 1", html.title());
+            }
+            Assert.assertEquals(1, fullNum.get());
+            Assert.assertEquals(2, pageLoader.getHitNum());
+
+            // restart, cache kept on disk
+            pageLoader = new CachedPageLoader(new JsoupPageLoader(), cacheDir.getPath(), 1024 * 1024);
+            PageResponse pageResponse = pageLoader.loadResponse(LocalHttpServer.request(baseUrl + "/page/1"));
+            Assert.assertEquals(200, pageResponse.getStatus());
+            Assert.assertEquals("\"v1\"", pageResponse.getHeader("ETag"));
+            Assert.assertEquals("page 1", pageResponse.getHtml().title());
+            Assert.assertEquals(1, fullNum.get());
+
+            // no validator, not cached
+            pageLoader.load(LocalHttpServer.request(baseUrl + "/nocache"));
+            pageLoader.load(LocalHttpServer.request(baseUrl + "/nocache"));
+            Assert.assertEquals(3, fullNum.get());
+        } finally {
+            server.stop();
+            delete(cacheDir);
+        }
+    }
+
+    /**
+     * 超出缓存容量时，按最近最少使用淘汰
+     */
+    @Test
+    public void evictTest() throws IOException {
+        AtomicInteger fullNum = new AtomicInteger(0);
+        LocalHttpServer server = startServer(fullNum, 1500);
+        File cacheDir = Files.createTempDirectory("xxl-crawler-cache").toFile();
+        String baseUrl = server.url("");
+        try {
+            CachedPageLoader pageLoader = new CachedPageLoader(new JsoupPageLoader(), cacheDir.getPath(), 2048);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertNotNull(pageLoader.load(LocalHttpServer.request(baseUrl + "/page/" + i)));
+            }
+            Assert.assertTrue(pageLoader.getSize() <= 2048);
+            Assert.assertTrue(cacheDir.listFiles().length < 10);
+
+            // most recent kept
+            pageLoader.load(LocalHttpServer.request(baseUrl + "/page/9"));
+            Assert.assertEquals(1, pageLoader.getHitNum());
+        } finally {
+            server.stop();
+            delete(cacheDir);
+        }
+    }
+
+    /**
+     * 304 携带的新校验字段合并至缓存，后续条件请求使用新 ETag
+     */
+    @Test
+    public void revalidateTest() throws IOException {
+        final List<String> ifNoneMatches = Collections.synchronizedList(new ArrayList<String>());
+        LocalHttpServer server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+                ifNoneMatches.add(String.valueOf(ifNoneMatch));
+                if (ifNoneMatch != null) {
+                    exchange.getResponseHeaders().add("ETag", "\"v" + ifNoneMatches.size() + "\"");     // weak validator rotated by server
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                LocalHttpServer.write(exchange, 200, "<html><head><title>page</title></head></html>");
+            }
+        });
+        File cacheDir = Files.createTempDirectory("xxl-crawler-cache").toFile();
+        try {
+            CachedPageLoader pageLoader = new CachedPageLoader(new JsoupPageLoader(), cacheDir.getPath(), 1024 * 1024);
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals("page", pageLoader.load(LocalHttpServer.request(server.url("/page"))).title());
+            }
+            Assert.assertEquals(Arrays.asList("null", "\"v1\"", "\"v2\""), ifNoneMatches);
+            Assert.assertEquals(2, pageLoader.getHitNum());
+
+            PageResponse pageResponse = pageLoader.loadResponse(LocalHttpServer.request(server.url("/page")));
+            Assert.assertEquals("\"v4\"", pageResponse.getHeader("ETag"));
+            Assert.assertEquals("\"v3\"", ifNoneMatches.get(3));
+        } finally {
+            server.stop();
+            delete(cacheDir);
+        }
+    }
+
+    /**
+     * Vary 所列请求头取值不同时不使用缓存；Cookie 不同时分别缓存
+     */
+    @Test
+    public void varyTest() throws IOException {
+        final AtomicInteger fullNum = new AtomicInteger(0);
+        LocalHttpServer server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Vary", "User-Agent");
+                if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                fullNum.incrementAndGet();
+                LocalHttpServer.write(exchange, 200, "<html><head><title>" + exchange.getRequestHeaders().getFirst("User-Agent") + "</title></head></html>");
+            }
+        });
+        File cacheDir = Files.createTempDirectory("xxl-crawler-cache").toFile();
+        try {
+            CachedPageLoader pageLoader = new CachedPageLoader(new JsoupPageLoader(), cacheDir.getPath(), 1024 * 1024);
+            Assert.assertEquals("ua-1", pageLoader.load(request(server.url("/page"), "ua-1", null)).title());
+            Assert.assertEquals("ua-1", pageLoader.load(request(server.url("/page"), "ua-1", null)).title());
+            Assert.assertEquals(1, fullNum.get());
+
+            Assert.assertEquals("ua-2", pageLoader.load(request(server.url("/page"), "ua-2", null)).title());
+            Assert.assertEquals(2, fullNum.get());
+
+            // other session, other cache file
+            Assert.assertEquals("ua-2", pageLoader.load(request(server.url("/page"), "ua-2", "s1")).title());
+            Assert.assertEquals(3, fullNum.get());
+            Assert.assertEquals("ua-2", pageLoader.load(request(server.url("/page"), "ua-2", null)).title());
+            Assert.assertEquals(3, fullNum.get());
+            Assert.assertEquals(2, pageLoader.getHitNum());
+        } finally {
+            server.stop();
+            delete(cacheDir);
+        }
+    }
+
+    private static PageRequest request(String url, String userAgent, String session) {
+        PageRequest pageRequest = LocalHttpServer.request(url);
+        pageRequest.setUserAgent(userAgent);
+        if (session != null) {
+            pageRequest.setCookieMap(Collections.singletonMap("session", session));
+        }
+        return pageRequest;
+    }
+
+    /**
+     * "/page/{id}" with etag "v{id}"; "/nocache" without validator
+     */
+    private static LocalHttpServer startServer(final AtomicInteger fullNum, final int padding) throws IOException {
+        return LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/page/")) {
+                    String id = path.substring("/page/".length());
+                    String etag = "\"v" + id + "\"";
+                    exchange.getResponseHeaders().add("ETag", etag);
+                    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                        exchange.sendResponseHeaders(304, -1);
+                        exchange.close();
+                        return;
+                    }
+                    StringBuilder html = new StringBuilder("<html><head><title>page " + id + "</title></head><body>");
+                    Random random = new Random(id.hashCode());
+                    for (int i = 0; i < padding; i++) {
+                        html.append((char) ('a' + random.nextInt(26)));        // hardly compressible
+                    }
+                    fullNum.incrementAndGet();
+                    LocalHttpServer.write(exchange, 200, html.append("</body></html>").toString());
+                } else {
+                    fullNum.incrementAndGet();
+                    LocalHttpServer.write(exchange, 200, "<html><head><title>nocache</title></head></html>");
+                }
+            }
+        });
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file: files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.xuxueli.crawler.test.loader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.loader.strategy.HtmlUnitPageLoader;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * htmlunit page loader test, WebClient pool
+ */
+public class HtmlUnitPageLoaderTest {
+
+    private LocalHttpServer server;
+    private final List<String> cookies = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger concurrent = new AtomicInteger(0);
+    private final AtomicInteger maxConcurrent = new AtomicInteger(0);
+    private volatile CountDownLatch arriveLatch = new CountDownLatch(0);
+
+    @Before
+    public void startServer() throws IOException {
+        server = LocalHttpServer.start(16, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                cookies.add(String.valueOf(exchange.getRequestHeaders().getFirst("Cookie")));
+                if ("/set".equals(path)) {
+                    exchange.getResponseHeaders().add("Set-Cookie", "session=1; Path=/");
+                }
+                if ("/slow".equals(path)) {
+                    int current = concurrent.incrementAndGet();
+                    synchronized (maxConcurrent) {
+                        maxConcurrent.set(Math.max(maxConcurrent.get(), current));
+                    }
+                    arriveLatch.countDown();
+                    try {
+                        arriveLatch.await(3, TimeUnit.SECONDS);     // wait for others to arrive, if allowed
+                        TimeUnit.MILLISECONDS.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        concurrent.decrementAndGet();
+                    }
+                }
+                LocalHttpServer.write(exchange, 200, "<html><head><title>" + path + "</title></head><body></body></html>");
+            }
+        });
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * 借出复用同一 WebClient；归还时清除Cookie，后续页面不携带前一页面的Cookie
+     */
+    @Test
+    public void reuseTest() {
+        HtmlUnitPageLoader pageLoader = new HtmlUnitPageLoader(1, 100);
+        try {
+            Document html = pageLoader.load(LocalHttpServer.request(server.url("/set")));
+            Assert.assertEquals("/set", html.title());
+            Assert.assertEquals(1, pageLoader.getIdleNum());
+
+            pageLoader.load(LocalHttpServer.request(server.url("/echo")));
+            Assert.assertEquals(1, pageLoader.getIdleNum());
+            Assert.assertEquals("null", cookies.get(cookies.size() - 1));
+        } finally {
+            pageLoader.close();
+        }
+        Assert.assertEquals(0, pageLoader.getIdleNum());
+    }
+
+    /**
+     * 累计加载 recyclePageNum 个页面后关闭，下次借出时重建
+     */
+    @Test
+    public void recycleTest() {
+        HtmlUnitPageLoader pageLoader = new HtmlUnitPageLoader(1, 2);
+        try {
+            Assert.assertNotNull(pageLoader.load(LocalHttpServer.request(server.url("/1"))));
+            Assert.assertEquals(1, pageLoader.getIdleNum());
+            Assert.assertNotNull(pageLoader.load(LocalHttpServer.request(server.url("/2"))));
+            Assert.assertEquals(0, pageLoader.getIdleNum());        // recycled
+            Assert.assertNotNull(pageLoader.load(LocalHttpServer.request(server.url("/3"))));
+            Assert.assertEquals(1, pageLoader.getIdleNum());
+        } finally {
+            pageLoader.close();
+        }
+    }
+
+    /**
+     * 池满时等待归还，并发渲染不超过池大小
+     */
+    @Test
+    public void exhaustTest() throws InterruptedException {
+        HtmlUnitPageLoader pageLoader = new HtmlUnitPageLoader(2, 100);
+        try {
+            Assert.assertEquals(6, loadConcurrently(pageLoader, 6));
+            Assert.assertEquals(2, maxConcurrent.get());
+            Assert.assertTrue(pageLoader.getIdleNum() <= 2);
+        } finally {
+            pageLoader.close();
+        }
+    }
+
+    /**
+     * 默认构造不限制并发，与采集线程数一致
+     */
+    @Test
+    public void unboundedTest() throws InterruptedException {
+        int threadNum = Runtime.getRuntime().availableProcessors() + 2;
+        arriveLatch = new CountDownLatch(threadNum);
+        HtmlUnitPageLoader pageLoader = new HtmlUnitPageLoader();
+        try {
+            Assert.assertEquals(threadNum, loadConcurrently(pageLoader, threadNum));
+            Assert.assertEquals(threadNum, maxConcurrent.get());
+        } finally {
+            pageLoader.close();
+        }
+    }
+
+    private int loadConcurrently(final HtmlUnitPageLoader pageLoader, int threadNum) throws InterruptedException {
+        final AtomicInteger successNum = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        for (int i = 0; i < threadNum; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (pageLoader.load(LocalHttpServer.request(server.url("/slow"))) != null) {
+                        successNum.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+        return successNum.get();
+    }
+
+}
@@ -0,0 +1,317 @@
+package com.xuxueli.crawler.test.loader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.loader.AsyncPageLoader;
+import com.xuxueli.crawler.loader.strategy.NioHttpPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import com.xuxueli.crawler.test.support.LocalProxyServer;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * nio http page loader test
+ */
+public class NioHttpPageLoaderTest {
+
+    /**
+     * Content-Length、chunked、重定向、错误状态码、POST
+     */
+    @Test
+    public void loadTest() throws IOException {
+        LocalHttpServer server = startServer();
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1);
+        String baseUrl = server.url("");
+        try {
+            Document html = pageLoader.load(LocalHttpServer.request(baseUrl + "/page?id=1"));
+            Assert.assertEquals("page 1", html.title());
+
+            html = pageLoader.load(LocalHttpServer.request(baseUrl + "/chunked"));
+            Assert.assertEquals(1000, html.select("a").size());
+
+            html = pageLoader.load(LocalHttpServer.request(baseUrl + "/redirect"));
+            Assert.assertEquals("page 2", html.title());
+            Assert.assertEquals(baseUrl + "/page?id=2", html.location());
+
+            Assert.assertNull(pageLoader.load(LocalHttpServer.request(baseUrl + "/missing")));
+
+            PageRequest post = LocalHttpServer.request(baseUrl + "/echo");
+            post.setIfPost(true);
+            post.setParamMap(Collections.singletonMap("k", "v 1"));
+            html = pageLoader.load(post);
+            Assert.assertEquals("POST k=v+1", html.body().text());
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 页面响应：状态码、响应头、最终URL，DOM延迟解析
+     */
+    @Test
+    public void loadResponseTest() throws IOException {
+        LocalHttpServer server = startServer();
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1);
+        String baseUrl = server.url("");
+        try {
+            PageResponse pageResponse = pageLoader.loadResponse(LocalHttpServer.request(baseUrl + "/redirect"));
+            Assert.assertEquals(200, pageResponse.getStatus());
+            Assert.assertEquals(baseUrl + "/redirect", pageResponse.getUrl());
+            Assert.assertEquals(baseUrl + "/page?id=2", pageResponse.getFinalUrl());
+            Assert.assertEquals("UTF-8", pageResponse.getCharset());
+            Assert.assertTrue(pageResponse.getPageSource().contains("<title>page 2</title>"));
+            Assert.assertEquals("page 2", pageResponse.getHtml().title());
+            Assert.assertSame(pageResponse.getHtml(), pageResponse.getHtml());
+
+            pageResponse = pageLoader.loadResponse(LocalHttpServer.request(baseUrl + "/missing"));
+            Assert.assertEquals(404, pageResponse.getStatus());
+            Assert.assertFalse(pageResponse.isValid());
+            Assert.assertEquals("not found", pageResponse.getPageSource());
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 少量IO线程驱动大量并发请求
+     */
+    @Test
+    public void concurrentTest() throws IOException, InterruptedException {
+        LocalHttpServer server = startServer();
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1);
+        String baseUrl = server.url("");
+        try {
+            int num = 500;
+            final CountDownLatch latch = new CountDownLatch(num);
+            final AtomicInteger successNum = new AtomicInteger(0);
+            for (int i = 0; i < num; i++) {
+                pageLoader.loadAsync(LocalHttpServer.request(baseUrl + "/page?id=" + i), new AsyncPageLoader.Callback() {
+                    @Override
+                    public void onSuccess(PageResponse pageResponse) {
+                        if (pageResponse.isValid()) {
+                            successNum.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+                    @Override
+                    public void onFail(Throwable e) {
+                        latch.countDown();
+                    }
+                });
+            }
+            Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(num, successNum.get());
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 域名在独立线程池中解析，不占用调用方线程；未知域名经回调失败
+     */
+    @Test
+    public void resolveTest() throws IOException, InterruptedException {
+        LocalHttpServer server = startServer();
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1, 2);
+        try {
+            final CountDownLatch latch = new CountDownLatch(2);
+            final AtomicInteger successNum = new AtomicInteger(0);
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            AsyncPageLoader.Callback callback = new AsyncPageLoader.Callback() {
+                @Override
+                public void onSuccess(PageResponse pageResponse) {
+                    if (pageResponse.isValid()) {
+                        successNum.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+                @Override
+                public void onFail(Throwable e) {
+                    errors.add(e);
+                    latch.countDown();
+                }
+            };
+            pageLoader.loadAsync(LocalHttpServer.request("http://localhost:" + server.getPort() + "/page?id=1"), callback);
+            pageLoader.loadAsync(LocalHttpServer.request("http://xxl-crawler-unknown-host.invalid/page?id=1"), callback);
+
+            Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(1, successNum.get());
+            Assert.assertEquals(1, errors.size());
+            Assert.assertTrue(errors.get(0) instanceof UnknownHostException);
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * https 在事件循环中握手：证书校验开关、重定向
+     */
+    @Test
+    public void httpsTest() throws IOException {
+        LocalHttpServer server = LocalHttpServer.startHttps(handler());
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1);
+        try {
+            PageRequest pageRequest = LocalHttpServer.request(server.url("/redirect"));
+            pageRequest.setValidateTLSCertificates(false);
+            PageResponse pageResponse = pageLoader.loadResponse(pageRequest);
+            Assert.assertEquals(200, pageResponse.getStatus());
+            Assert.assertEquals(server.url("/page?id=2"), pageResponse.getFinalUrl());
+            Assert.assertEquals("page 2", pageResponse.getHtml().title());
+
+            pageRequest = LocalHttpServer.request(server.url("/chunked"));
+            pageRequest.setValidateTLSCertificates(false);
+            Assert.assertEquals(1000, pageLoader.load(pageRequest).select("a").size());
+
+            pageRequest = LocalHttpServer.request(server.url("/page?id=1"));
+            pageRequest.setValidateTLSCertificates(true);
+            Assert.assertNull(pageLoader.load(pageRequest));        // self-signed
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * HTTP代理 "CONNECT" 隧道、SOCKS5代理，目标域名由代理解析
+     */
+    @Test
+    public void proxyTest() throws IOException {
+        LocalHttpServer server = startServer();
+        LocalHttpServer httpsServer = LocalHttpServer.startHttps(handler());
+        LocalProxyServer proxyServer = LocalProxyServer.start();
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1);
+        try {
+            PageRequest pageRequest = LocalHttpServer.request(httpsServer.url("/page?id=1"));
+            pageRequest.setValidateTLSCertificates(false);
+            pageRequest.setProxy(proxyServer.proxy(Proxy.Type.HTTP));
+            Assert.assertEquals("page 1", pageLoader.load(pageRequest).title());
+
+            pageRequest = LocalHttpServer.request(httpsServer.url("/page?id=2"));
+            pageRequest.setValidateTLSCertificates(false);
+            pageRequest.setProxy(proxyServer.proxy(Proxy.Type.SOCKS));
+            Assert.assertEquals("page 2", pageLoader.load(pageRequest).title());
+
+            pageRequest = LocalHttpServer.request("http://localhost:" + server.getPort() + "/page?id=3");
+            pageRequest.setProxy(proxyServer.proxy(Proxy.Type.SOCKS));
+            Assert.assertEquals("page 3", pageLoader.load(pageRequest).title());
+
+            Assert.assertEquals(Arrays.asList("127.0.0.1:" + httpsServer.getPort(), "127.0.0.1:" + httpsServer.getPort(), "localhost:" + server.getPort()),
+                    proxyServer.getTargets());
+        } finally {
+            pageLoader.close();
+            proxyServer.stop();
+            httpsServer.stop();
+            server.stop();
+        }
+    }
+
+    /**
+     * 超时包含DNS解析排队时间：解析线程占满时，排队的请求按时失败
+     */
+    @Test
+    public void resolveTimeoutTest() throws IOException, InterruptedException {
+        LocalHttpServer server = startServer();
+        final CountDownLatch resolveLatch = new CountDownLatch(1);
+        NioHttpPageLoader pageLoader = new NioHttpPageLoader(1, 1) {
+            @Override
+            protected InetAddress resolve(String host) throws UnknownHostException {
+                if ("slow.test".equals(host)) {
+                    try {
+                        resolveLatch.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new UnknownHostException(host);
+                }
+                return super.resolve(host);
+            }
+        };
+        try {
+            final CountDownLatch latch = new CountDownLatch(1);
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            pageLoader.loadAsync(LocalHttpServer.request("http://slow.test/page?id=1"), new AsyncPageLoader.Callback() {
+                @Override
+                public void onSuccess(PageResponse pageResponse) {
+                }
+                @Override
+                public void onFail(Throwable e) {
+                }
+            });
+
+            PageRequest pageRequest = LocalHttpServer.request("http://localhost:" + server.getPort() + "/page?id=1");
+            pageRequest.setTimeoutMillis(300);
+            long start = System.currentTimeMillis();
+            pageLoader.loadAsync(pageRequest, new AsyncPageLoader.Callback() {
+                @Override
+                public void onSuccess(PageResponse pageResponse) {
+                    latch.countDown();
+                }
+                @Override
+                public void onFail(Throwable e) {
+                    errors.add(e);
+                    latch.countDown();
+                }
+            });
+
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+            Assert.assertEquals(1, errors.size());
+            Assert.assertTrue(errors.get(0) instanceof SocketTimeoutException);
+        } finally {
+            resolveLatch.countDown();
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    private static LocalHttpServer startServer() throws IOException {
+        return LocalHttpServer.start(16, handler());
+    }
+
+    private static HttpHandler handler() {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String query = exchange.getRequestURI().getQuery();
+                if ("/page".equals(path)) {
+                    LocalHttpServer.write(exchange, 200, "<html><head><title>page " + query.substring(3) + "</title></head></html>");
+                } else if ("/chunked".equals(path)) {
+                    StringBuilder html = new StringBuilder("<html><body>");
+                    for (int i = 0; i < 1000; i++) {
+                        html.append("<a href='/page?id=").append(i).append("'>").append(i).append("</a>");
+                    }
+                    LocalHttpServer.write(exchange, 200, html.append("</body></html>").toString().getBytes("UTF-8"), true);
+                } else if ("/redirect".equals(path)) {
+                    exchange.getResponseHeaders().add("Location", "/page?id=2");
+                    LocalHttpServer.write(exchange, 302, "");
+                } else if ("/echo".equals(path)) {
+                    LocalHttpServer.write(exchange, 200, "<html><body>" + exchange.getRequestMethod() + " " + LocalHttpServer.read(exchange.getRequestBody()) + "</body></html>");
+                } else {
+                    LocalHttpServer.write(exchange, 404, "not found");
+                }
+            }
+        };
+    }
+
+}
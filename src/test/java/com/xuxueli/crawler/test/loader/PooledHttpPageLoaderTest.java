@@ -0,0 +1,193 @@
+package com.xuxueli.crawler.test.loader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.loader.strategy.PooledHttpPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.model.PageResponse;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.jsoup.nodes.Document;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * pooled http page loader test
+ */
+public class PooledHttpPageLoaderTest {
+
+    /**
+     * 同一主机的顺序请求复用同一连接
+     */
+    @Test
+    public void reuseTest() throws IOException {
+        Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        LocalHttpServer server = startServer(clientPorts, null);
+        PooledHttpPageLoader pageLoader = new PooledHttpPageLoader();
+        try {
+            for (int i = 0; i < 20; i++) {
+                Document html = pageLoader.load(LocalHttpServer.request(server.url("/page/" + i)));
+                Assert.assertEquals("page " + i, html.title());
+            }
+            Assert.assertEquals(1, clientPorts.size());
+            Assert.assertEquals(1, pageLoader.getIdleNum());
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 单主机并发连接数不超过 maxPerHost；空闲超时淘汰
+     */
+    @Test
+    public void limitTest() throws IOException, InterruptedException {
+        Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger maxConcurrent = new AtomicInteger(0);
+        LocalHttpServer server = startServer(clientPorts, maxConcurrent);
+        final PooledHttpPageLoader pageLoader = new PooledHttpPageLoader(16, 2, 300);
+        final String baseUrl = server.url("");
+        try {
+            final AtomicInteger successNum = new AtomicInteger(0);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 40; i++) {
+                final int index = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pageLoader.load(LocalHttpServer.request(baseUrl + "/page/" + index)) != null) {
+                            successNum.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            Assert.assertEquals(40, successNum.get());
+            Assert.assertTrue(maxConcurrent.get() <= 2);
+            Assert.assertEquals(2, clientPorts.size());
+
+            TimeUnit.MILLISECONDS.sleep(1000);
+            Assert.assertEquals(0, pageLoader.getIdleNum());        // evicted
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 空闲主机被淘汰时，已获取该主机但尚未占用连接的请求不受影响，单主机连接数上限仍然有效
+     */
+    @Test
+    public void evictRaceTest() throws IOException, InterruptedException {
+        Set<Integer> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+        final AtomicInteger maxConcurrent = new AtomicInteger(0);
+        LocalHttpServer server = startServer(clientPorts, maxConcurrent);
+        final PooledHttpPageLoader pageLoader = new PooledHttpPageLoader(16, 1, 1);     // evict as soon as possible
+        final String baseUrl = server.url("");
+        try {
+            final AtomicInteger successNum = new AtomicInteger(0);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            for (int i = 0; i < 200; i++) {
+                final int index = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pageLoader.load(LocalHttpServer.request(baseUrl + "/page/" + index)) != null) {
+                            successNum.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+
+            Assert.assertEquals(200, successNum.get());
+            Assert.assertEquals(1, maxConcurrent.get());
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 压缩传输：响应体压缩保存，解析时解压；解压后大小超出 maxBodySize 时加载失败
+     */
+    @Test
+    public void compressTest() throws IOException {
+        LocalHttpServer server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StringBuilder html = new StringBuilder("<html><body>");
+                for (int i = 0; i < 1000; i++) {
+                    html.append("<a href='/page/").append(i).append("'>").append(i).append("</a>");
+                }
+                byte[] bytes = html.append("</body></html>").toString().getBytes("UTF-8");
+
+                ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+                GZIPOutputStream gzipOut = new GZIPOutputStream(gzipBytes);
+                gzipOut.write(bytes);
+                gzipOut.close();
+
+                exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                LocalHttpServer.write(exchange, 200, gzipBytes.toByteArray(), false);
+            }
+        });
+        PooledHttpPageLoader pageLoader = new PooledHttpPageLoader();
+        String url = server.url("/list");
+        try {
+            PageResponse pageResponse = pageLoader.loadResponse(LocalHttpServer.request(url));
+            Assert.assertEquals("gzip", pageResponse.getHeader("Content-Encoding"));
+            Assert.assertTrue(pageResponse.getRawBody().length * 5 < pageResponse.getBody().length);
+            Assert.assertEquals(1000, pageResponse.getHtml().select("a").size());
+
+            PageRequest limited = LocalHttpServer.request(url);
+            limited.setMaxBodySize(10 * 1024);      // larger than compressed body, smaller than decompressed body
+            Assert.assertNotNull(pageLoader.loadResponse(limited));
+            Assert.assertNull(pageLoader.load(limited));
+        } finally {
+            pageLoader.close();
+            server.stop();
+        }
+    }
+
+    private static LocalHttpServer startServer(final Set<Integer> clientPorts, final AtomicInteger maxConcurrent) throws IOException {
+        final AtomicInteger concurrent = new AtomicInteger(0);
+        return LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int current = concurrent.incrementAndGet();
+                try {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                    if (maxConcurrent != null) {
+                        while (true) {
+                            int max = maxConcurrent.get();
+                            if (current<=max || maxConcurrent.compareAndSet(max, current)) {
+                                break;
+                            }
+                        }
+                        TimeUnit.MILLISECONDS.sleep(20);
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                } finally {
+                    concurrent.decrementAndGet();       // before response, so the next request on this connection is not counted as concurrent
+                }
+                String path = exchange.getRequestURI().getPath();
+                LocalHttpServer.write(exchange, 200, "<html><head><title>page " + path.substring(path.lastIndexOf('/') + 1) + "</title></head></html>");
+            }
+        });
+    }
+
+}
@@ -0,0 +1,246 @@
+package com.xuxueli.crawler.test.loader;
+
+import com.xuxueli.crawler.loader.strategy.SeleniumPhantomjsPageLoader;
+import com.xuxueli.crawler.model.PageRequest;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * selenium phantomjs page loader test, session pool with fake drivers
+ */
+public class SeleniumPhantomjsPageLoaderTest {
+
+    /**
+     * 代理逐次借出时切换，不影响会话复用；代理未变化时不重复切换
+     */
+    @Test
+    public void proxyTest(){
+        FakePageLoader pageLoader = new FakePageLoader(1, 100);
+        Proxy proxy1 = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", 8001));
+        Proxy proxy2 = new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", 8002));
+
+        Assert.assertNotNull(pageLoader.load(request(proxy1)));
+        Assert.assertNotNull(pageLoader.load(request(proxy1)));
+        Assert.assertNotNull(pageLoader.load(request(proxy2)));
+        Assert.assertNotNull(pageLoader.load(request(null)));
+
+        Assert.assertEquals(1, pageLoader.drivers.size());
+        Assert.assertEquals(Arrays.asList(proxy1, proxy2, null), pageLoader.appliedProxies);
+        pageLoader.close();
+        Assert.assertTrue(pageLoader.drivers.get(0).quit);
+    }
+
+    /**
+     * 借出前检查会话可用，不可用时退出并重建
+     */
+    @Test
+    public void healthTest(){
+        FakePageLoader pageLoader = new FakePageLoader(1, 100);
+        Assert.assertNotNull(pageLoader.load(request(null)));
+        pageLoader.drivers.get(0).broken = true;
+
+        Assert.assertNotNull(pageLoader.load(request(null)));
+        Assert.assertEquals(2, pageLoader.drivers.size());
+        Assert.assertTrue(pageLoader.drivers.get(0).quit);
+        Assert.assertFalse(pageLoader.drivers.get(1).quit);
+        pageLoader.close();
+    }
+
+    /**
+     * 会话累计加载 recyclePageNum 个页面后退出，下次借出时重建；归还时重置
+     */
+    @Test
+    public void recycleTest(){
+        FakePageLoader pageLoader = new FakePageLoader(1, 2);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotNull(pageLoader.load(request(null)));
+        }
+
+        Assert.assertEquals(3, pageLoader.drivers.size());
+        Assert.assertTrue(pageLoader.drivers.get(0).quit);
+        Assert.assertTrue(pageLoader.drivers.get(1).quit);
+        Assert.assertFalse(pageLoader.drivers.get(2).quit);
+        Assert.assertEquals(1, pageLoader.drivers.get(0).resetNum.get());       // the second load quits instead of reset
+        pageLoader.close();
+    }
+
+    /**
+     * 池满时借出等待归还，会话数不超过池大小
+     */
+    @Test
+    public void exhaustTest() throws InterruptedException {
+        final FakePageLoader pageLoader = new FakePageLoader(1, 100);
+        pageLoader.loadLatch = new CountDownLatch(1);
+
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pageLoader.load(request(null));
+            }
+        });
+        first.start();
+        Assert.assertTrue(pageLoader.loadingLatch.await(10, TimeUnit.SECONDS));
+
+        final AtomicInteger secondNum = new AtomicInteger(0);
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (pageLoader.load(request(null)) != null) {
+                    secondNum.incrementAndGet();
+                }
+            }
+        });
+        second.start();
+        second.join(300);
+        Assert.assertTrue(second.isAlive());        // waiting for the borrowed session
+        Assert.assertEquals(0, secondNum.get());
+
+        pageLoader.loadLatch.countDown();
+        first.join(10000);
+        second.join(10000);
+        Assert.assertEquals(1, secondNum.get());
+        Assert.assertEquals(1, pageLoader.drivers.size());
+        pageLoader.close();
+    }
+
+    /**
+     * 默认构造不限制池大小，与采集线程数一致
+     */
+    @Test
+    public void unboundedTest() throws InterruptedException {
+        int threadNum = Runtime.getRuntime().availableProcessors() + 2;
+        final FakePageLoader pageLoader = new FakePageLoader();
+        pageLoader.arriveLatch = new CountDownLatch(threadNum);
+
+        final AtomicInteger successNum = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadNum; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (pageLoader.load(request(null)) != null) {
+                        successNum.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread: threads) {
+            thread.join(30000);
+        }
+        Assert.assertEquals(threadNum, successNum.get());
+        Assert.assertEquals(threadNum, pageLoader.drivers.size());      // all borrowed at once
+        pageLoader.close();
+    }
+
+    private static PageRequest request(Proxy proxy) {
+        PageRequest pageRequest = LocalHttpServer.request("http://127.0.0.1/page");
+        pageRequest.setProxy(proxy);
+        return pageRequest;
+    }
+
+    // ---------------------- fake driver ----------------------
+
+    private static class FakePageLoader extends SeleniumPhantomjsPageLoader {
+        private final List<FakeDriver> drivers = Collections.synchronizedList(new ArrayList<FakeDriver>());
+        private final List<Proxy> appliedProxies = Collections.synchronizedList(new ArrayList<Proxy>());
+        private volatile CountDownLatch loadLatch;
+        private final CountDownLatch loadingLatch = new CountDownLatch(1);
+        private volatile CountDownLatch arriveLatch;
+
+        FakePageLoader() {
+            super(null);
+        }
+
+        FakePageLoader(int poolSize, int recyclePageNum) {
+            super(null, poolSize, recyclePageNum);
+        }
+
+        @Override
+        protected WebDriver createDriver(PageRequest pageRequest) {
+            FakeDriver fakeDriver = new FakeDriver(this);
+            drivers.add(fakeDriver);
+            return fakeDriver.webDriver;
+        }
+
+        @Override
+        protected void applyProxy(WebDriver webDriver, Proxy proxy) {
+            appliedProxies.add(proxy);
+        }
+    }
+
+    /**
+     * WebDriver and its nested interfaces, by dynamic proxy
+     */
+    private static class FakeDriver implements InvocationHandler {
+        private final FakePageLoader pageLoader;
+        private final WebDriver webDriver;
+        private volatile boolean broken = false;
+        private volatile boolean quit = false;
+        private final AtomicInteger resetNum = new AtomicInteger(0);
+
+        FakeDriver(FakePageLoader pageLoader) {
+            this.pageLoader = pageLoader;
+            this.webDriver = (WebDriver) java.lang.reflect.Proxy.newProxyInstance(WebDriver.class.getClassLoader(), new Class<?>[]{WebDriver.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("quit".equals(name)) {
+                quit = true;
+                return null;
+            }
+            if (broken || quit) {
+                throw new IllegalStateException("session closed");
+            }
+            if ("getWindowHandles".equals(name)) {
+                return Collections.singleton("window-1");
+            }
+            if ("get".equals(name) && args.length==1) {
+                if ("about:blank".equals(args[0])) {
+                    resetNum.incrementAndGet();
+                } else if (pageLoader.arriveLatch != null) {
+                    pageLoader.arriveLatch.countDown();
+                    pageLoader.arriveLatch.await(10, TimeUnit.SECONDS);     // wait for others to arrive, if allowed
+                } else if (pageLoader.loadLatch != null) {
+                    pageLoader.loadingLatch.countDown();
+                    pageLoader.loadLatch.await(10, TimeUnit.SECONDS);
+                }
+                return null;
+            }
+            if ("getPageSource".equals(name)) {
+                return "<html><body>fake</body></html>";
+            }
+            if ("toString".equals(name)) {
+                return "FakeDriver";
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if (method.getReturnType().isInterface()) {
+                return java.lang.reflect.Proxy.newProxyInstance(WebDriver.class.getClassLoader(), new Class<?>[]{method.getReturnType()}, this);     // manage(), timeouts() ...
+            }
+            return null;
+        }
+    }
+
+}
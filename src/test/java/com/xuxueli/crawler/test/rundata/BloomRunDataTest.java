@@ -0,0 +1,48 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.BloomRunData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * bloom run data test
+ */
+public class BloomRunDataTest {
+
+    /**
+     * 去重
+     */
+    @Test
+    public void addUrlTest(){
+        BloomRunData runData = new BloomRunData(10000, 0.001);
+
+        Assert.assertTrue(runData.addUrl("http://www.baidu.com/"));
+        Assert.assertFalse(runData.addUrl("http://www.baidu.com/"));
+        Assert.assertEquals(1, runData.getUrlNum());
+
+        runData.getUrl();
+        Assert.assertFalse(runData.addUrl("http://www.baidu.com/"));
+    }
+
+    /**
+     * 误判率
+     */
+    @Test
+    public void falsePositiveRateTest(){
+        BloomRunData runData = new BloomRunData(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            runData.addUrl("http://www.baidu.com/s?page=" + i);
+        }
+
+        int falsePositiveNum = 0;
+        for (int i = 10000; i < 11000; i++) {
+            if (!runData.addUrl("http://www.baidu.com/s?page=" + i)) {
+                falsePositiveNum++;
+            }
+        }
+        Assert.assertTrue(falsePositiveNum < 1000 * 0.03);
+        Assert.assertTrue(runData.getEstimatedFalsePositiveRate() < 0.2);
+        Assert.assertTrue(runData.getFillRatio() > 0 && runData.getFillRatio() < 1);
+    }
+
+}
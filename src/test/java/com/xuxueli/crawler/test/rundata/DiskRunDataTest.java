@@ -0,0 +1,184 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.XxlCrawler;
+import com.xuxueli.crawler.parser.PageParser;
+import com.xuxueli.crawler.rundata.strategy.DiskRunData;
+import com.xuxueli.crawler.rundata.strategy.RunDataCheckpoint;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * disk run data test
+ */
+public class DiskRunDataTest {
+
+    /**
+     * 溢写磁盘，并保持FIFO顺序
+     */
+    @Test
+    public void spillTest(){
+        String segmentDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata").getPath();
+        DiskRunData runData = new DiskRunData(segmentDir, 100);
+
+        for (int i = 0; i < 1050; i++) {
+            Assert.assertTrue(runData.addUrl("http://www.baidu.com/s?page=" + i));
+        }
+        Assert.assertFalse(runData.addUrl("http://www.baidu.com/s?page=0"));
+        Assert.assertEquals(1050, runData.getUrlNum());
+        Assert.assertTrue(new File(segmentDir).list().length > 0);
+
+        for (int i = 0; i < 1050; i++) {
+            Assert.assertEquals("http://www.baidu.com/s?page=" + i, runData.getUrl());
+        }
+        Assert.assertEquals(0, runData.getUrlNum());
+        Assert.assertEquals(0, new File(segmentDir).list().length);
+    }
+
+    /**
+     * 并发新增、领取，同时生成快照：URL不丢失、不重复，Segment文件全部清理
+     */
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        final String segmentDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata-concurrent").getPath();
+        String checkpointDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata-checkpoint").getPath();
+        final DiskRunData runData = new DiskRunData(segmentDir, 50);
+        RunDataCheckpoint checkpoint = new RunDataCheckpoint(runData, checkpointDir, 1, 1);
+        checkpoint.init(false);
+
+        final int producerNum = 4;
+        final int linkNum = 2000;
+        final Set<String> takenSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final CountDownLatch doneLatch = new CountDownLatch(producerNum * 2);
+        for (int i = 0; i < producerNum; i++) {
+            final int producer = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < linkNum; j++) {
+                        runData.addUrl("http://www.baidu.com/s?p=" + producer + "&page=" + j);
+                    }
+                    doneLatch.countDown();
+                }
+            }).start();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < linkNum; j++) {
+                        String link = runData.getUrl();
+                        Assert.assertTrue(link, takenSet.add(link));
+                        runData.finishUrl(link);
+                    }
+                    doneLatch.countDown();
+                }
+            }).start();
+        }
+        long deadline = System.currentTimeMillis() + 30 * 1000;
+        while (!doneLatch.await(5, TimeUnit.MILLISECONDS) && System.currentTimeMillis()<deadline) {
+            checkpoint.checkpoint();            // snapshot while segments are written and read
+        }
+        checkpoint.checkpoint();
+        Assert.assertEquals(0, doneLatch.getCount());
+
+        Assert.assertEquals(producerNum * linkNum, takenSet.size());
+        Assert.assertEquals(0, runData.getUrlNum());
+        Assert.assertEquals(0, segmentFileNum(segmentDir));
+    }
+
+    /**
+     * 溢写后的快照包含队头、Segment文件及队尾，恢复后保持FIFO顺序
+     */
+    @Test
+    public void snapshotTest(){
+        String segmentDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata-snapshot").getPath();
+        String checkpointDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata-checkpoint").getPath();
+        DiskRunData runData = new DiskRunData(segmentDir, 100);
+        RunDataCheckpoint checkpoint = new RunDataCheckpoint(runData, checkpointDir, 1, 1);
+        checkpoint.init(false);
+        for (int i = 0; i < 1050; i++) {
+            runData.addUrl("http://www.baidu.com/s?page=" + i);
+        }
+        for (int i = 0; i < 150; i++) {
+            runData.finishUrl(runData.getUrl());        // head and first segment
+        }
+        checkpoint.checkpoint();                        // full snapshot
+        Assert.assertTrue(segmentFileNum(segmentDir) > 0);
+
+        DiskRunData resumeRunData = new DiskRunData(new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata-resume").getPath(), 100);
+        new RunDataCheckpoint(resumeRunData, checkpointDir, 1, 1).init(true);
+        Assert.assertEquals(900, resumeRunData.getUrlNum());
+        for (int i = 150; i < 1050; i++) {
+            Assert.assertEquals("http://www.baidu.com/s?page=" + i, resumeRunData.getUrl());
+        }
+    }
+
+    private static int segmentFileNum(String segmentDir) {
+        return new File(segmentDir).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".seg");
+            }
+        }).length;
+    }
+
+    /**
+     * 超长URL入队前被拒绝，不计入待完成URL数量，采集正常结束
+     */
+    @Test
+    public void crawlTest() throws Exception {
+        StringBuilder longPath = new StringBuilder("/long?q=");
+        for (int i = 0; i < 20 * 1024; i++) {
+            longPath.append('a');
+        }
+        final String longLink = longPath.toString();
+        LocalHttpServer server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if ("/".equals(exchange.getRequestURI().getPath())) {
+                    LocalHttpServer.write(exchange, 200, "<html><body>index"
+                            + "<a href='/page/1'>1</a><a href='/page/2'>2</a><a href='" + longLink + "'>long</a></body></html>");
+                } else {
+                    LocalHttpServer.write(exchange, 200, "<html><body>page</body></html>");
+                }
+            }
+        });
+        String segmentDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-disk-rundata-crawl").getPath();
+        final AtomicInteger pageNum = new AtomicInteger(0);
+        try {
+            XxlCrawler crawler = new XxlCrawler.Builder()
+                    .setRunData(new DiskRunData(segmentDir, 100))
+                    .setUrls(server.url("/"))
+                    .setAllowSpread(true)
+                    .setThreadCount(2)
+                    .setPageParser(new PageParser<Object>() {
+                        @Override
+                        public void parse(Document html, Element pageVoElement, Object pageVo) {
+                            pageNum.incrementAndGet();
+                        }
+                    })
+                    .build();
+            crawler.start(false);
+            crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+
+            Assert.assertEquals(3, pageNum.get());
+            Assert.assertEquals(0, crawler.getRunData().getUrlNum());
+        } finally {
+            server.stop();
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.FileLeaseRunData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * file lease run data test
+ */
+public class FileLeaseRunDataTest {
+
+    private static String storeDir(String name) {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-lease-" + name + "-" + System.nanoTime());
+        return dir.getPath();
+    }
+
+    /**
+     * 多实例共享存储：去重、领取互斥
+     */
+    @Test
+    public void shareTest(){
+        String storeDir = storeDir("share");
+        FileLeaseRunData node1 = new FileLeaseRunData(storeDir);
+        FileLeaseRunData node2 = new FileLeaseRunData(storeDir);
+
+        Assert.assertEquals(2, node1.addUrls(Arrays.asList("http://www.baidu.com/1", "http://www.baidu.com/2")));
+        Assert.assertFalse(node2.addUrl("http://www.baidu.com/1"));
+        Assert.assertEquals(2, node2.getUrlNum());
+
+        Assert.assertEquals("http://www.baidu.com/1", node2.getUrl());
+        Assert.assertEquals("http://www.baidu.com/2", node1.getUrl());
+        Assert.assertEquals(2, node1.getUrlNum());      // leased, not acked
+
+        node2.finishUrl("http://www.baidu.com/1");
+        node1.finishUrl("http://www.baidu.com/2");
+        Assert.assertEquals(0, node1.getUrlNum());
+        Assert.assertNull(node2.getUrl());              // all done
+    }
+
+    /**
+     * 租约过期重新入队，过期确认被忽略；日志压缩后状态不变
+     */
+    @Test
+    public void leaseExpireTest() throws InterruptedException {
+        String storeDir = storeDir("expire");
+        FileLeaseRunData node1 = new FileLeaseRunData(storeDir, 200).setCompactBytes(1);
+        FileLeaseRunData node2 = new FileLeaseRunData(storeDir, 200).setCompactBytes(1);
+
+        node1.addUrls(Arrays.asList("http://www.baidu.com/1", "http://www.baidu.com/2"));
+        Assert.assertEquals("http://www.baidu.com/1", node1.getUrl());     // node1 crashed, never ack
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        Assert.assertEquals("http://www.baidu.com/1", node2.getUrl());     // expired, requeued first
+        node1.finishUrl("http://www.baidu.com/1");                         // stale ack
+        Assert.assertEquals(2, node2.getUrlNum());
+
+        node2.finishUrl("http://www.baidu.com/1");
+        Assert.assertEquals(1, new FileLeaseRunData(storeDir).getUrlNum());
+        Assert.assertFalse(node1.addUrl("http://www.baidu.com/1"));
+    }
+
+    /**
+     * 本实例持有的过期租约不会被本实例重新领取，确认不会错配至新租约
+     */
+    @Test
+    public void slowHolderTest() throws InterruptedException {
+        String storeDir = storeDir("slow");
+        FileLeaseRunData node1 = new FileLeaseRunData(storeDir, 200);
+
+        node1.addUrls(Arrays.asList("http://www.baidu.com/1", "http://www.baidu.com/2"));
+        Assert.assertEquals("http://www.baidu.com/1", node1.getUrl());     // slow holder
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        Assert.assertEquals("http://www.baidu.com/2", node1.getUrl());     // expired, but still held by this instance
+        node1.finishUrl("http://www.baidu.com/1");                         // acks its own lease
+        Assert.assertEquals(1, node1.getUrlNum());
+
+        TimeUnit.MILLISECONDS.sleep(300);
+        FileLeaseRunData node2 = new FileLeaseRunData(storeDir, 200);
+        Assert.assertEquals("http://www.baidu.com/2", node2.getUrl());     // expired, taken over by other instance
+        node1.finishUrl("http://www.baidu.com/2");                         // stale ack, ignored
+        Assert.assertEquals(1, node2.getUrlNum());
+        node2.finishUrl("http://www.baidu.com/2");
+        Assert.assertNull(node1.getUrl());
+    }
+
+}
@@ -0,0 +1,32 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.FingerprintRunData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * fingerprint run data test
+ */
+public class FingerprintRunDataTest {
+
+    /**
+     * 去重，含扩容
+     */
+    @Test
+    public void addUrlTest(){
+        FingerprintRunData runData = new FingerprintRunData(16);
+
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(runData.addUrl("http://www.baidu.com/s?page=" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertFalse(runData.addUrl("http://www.baidu.com/s?page=" + i));
+        }
+        Assert.assertEquals(10000, runData.getSeenUrlNum());
+        Assert.assertEquals(10000, runData.getUrlNum());
+
+        runData.getUrl();
+        Assert.assertFalse(runData.addUrl("http://www.baidu.com/s?page=0"));
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.HostRunData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+
+/**
+ * host run data test
+ */
+public class HostRunDataTest {
+
+    /**
+     * 同一主机按间隔分发，其他就绪主机优先
+     */
+    @Test
+    public void politenessTest(){
+        HostRunData runData = new HostRunData(300);
+        runData.addUrl("http://www.baidu.com/1");
+        runData.addUrl("http://www.baidu.com/2");
+        runData.addUrl("http://www.qq.com/1");
+        Assert.assertEquals(2, runData.getHostNum());
+
+        long start = System.currentTimeMillis();
+        Assert.assertEquals("http://www.baidu.com/1", runData.getUrl());
+        Assert.assertEquals("http://www.qq.com/1", runData.getUrl());
+        Assert.assertTrue(System.currentTimeMillis() - start < 300);
+
+        Assert.assertEquals("http://www.baidu.com/2", runData.getUrl());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 290);
+        Assert.assertEquals(0, runData.getUrlNum());
+    }
+
+    /**
+     * 已取空的主机队列在访问间隔过后移出，再次入队时按需重建；间隔内再次入队仍需等待
+     */
+    @Test
+    public void evictTest() throws Exception {
+        HostRunData runData = new HostRunData(0).setHostDelay("www.qq.com", 300);
+        for (int i = 0; i < 100; i++) {
+            runData.addUrl("http://host" + i + ".baidu.com/");
+        }
+        runData.addUrl("http://www.qq.com/1");
+        for (int i = 0; i < 101; i++) {
+            Assert.assertNotNull(runData.getUrl());
+        }
+
+        // drained, within delay
+        long start = System.currentTimeMillis();
+        runData.addUrl("http://www.qq.com/2");
+        Assert.assertEquals("http://www.qq.com/2", runData.getUrl());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 250);
+        Assert.assertTrue(hostQueueNum(runData) <= 1);
+
+        // drained, delay passed
+        Thread.sleep(350);
+        runData.addUrl("http://host0.baidu.com/1");
+        Assert.assertEquals("http://host0.baidu.com/1", runData.getUrl());
+        Assert.assertEquals(0, runData.getUrlNum());
+        Assert.assertTrue(hostQueueNum(runData) <= 1);
+    }
+
+    private static int hostQueueNum(HostRunData runData) throws Exception {
+        Field field = HostRunData.class.getDeclaredField("hostQueueMap");
+        field.setAccessible(true);
+        return ((Map<?, ?>) field.get(runData)).size();
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * local run data test
+ */
+public class LocalRunDataTest {
+
+    /**
+     * 最大深度
+     */
+    @Test
+    public void maxDepthTest(){
+        LocalRunData runData = new LocalRunData().setMaxDepth(1);
+
+        Assert.assertTrue(runData.addUrl("http://www.baidu.com/"));
+        String link = runData.getUrl();
+        Assert.assertEquals(0, runData.getDepth(link));
+
+        Assert.assertTrue(runData.addUrl("http://www.baidu.com/1", link));
+        Assert.assertEquals(1, runData.getDepth("http://www.baidu.com/1"));
+        Assert.assertEquals(link, runData.getParentUrl("http://www.baidu.com/1"));
+        runData.finishUrl(link);
+
+        String child = runData.getUrl();
+        Assert.assertFalse(runData.addUrl("http://www.baidu.com/2", child));      // depth 2
+        runData.finishUrl(child);
+        Assert.assertEquals(-1, runData.getDepth(child));
+    }
+
+    /**
+     * 全局及单主机页面预算
+     */
+    @Test
+    public void pageBudgetTest(){
+        LocalRunData runData = new LocalRunData().setMaxPageNum(3).setMaxHostPageNum(2);
+
+        Assert.assertTrue(runData.addUrl("http://www.baidu.com/1"));
+        Assert.assertTrue(runData.addUrl("http://www.baidu.com/2"));
+        Assert.assertFalse(runData.addUrl("http://www.baidu.com/3"));     // host budget
+        Assert.assertTrue(runData.addUrl("http://www.qq.com/1"));
+        Assert.assertFalse(runData.addUrl("http://www.qq.com/2"));        // global budget
+        Assert.assertEquals(3, runData.getUrlNum());
+    }
+
+    /**
+     * 批量新增
+     */
+    @Test
+    public void addUrlsTest(){
+        LocalRunData runData = new LocalRunData().setMaxDepth(1);
+
+        Assert.assertEquals(2, runData.addUrls(Arrays.asList("http://www.baidu.com/", "www.baidu.com", "http://www.qq.com/", "http://www.baidu.com/")));
+        String link = runData.getUrl();
+        Assert.assertEquals("http://www.baidu.com/", link);
+
+        Assert.assertEquals(1, runData.addUrls(Arrays.asList("http://www.baidu.com/1", "http://www.qq.com/"), link));
+        Assert.assertEquals(1, runData.getDepth("http://www.baidu.com/1"));
+        Assert.assertEquals(2, runData.getUrlNum());
+        Assert.assertEquals(0, runData.addUrls(null));
+    }
+
+}
@@ -0,0 +1,283 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.xuxueli.crawler.XxlCrawler;
+import com.xuxueli.crawler.exception.XxlCrawlerException;
+import com.xuxueli.crawler.parser.PageParser;
+import com.xuxueli.crawler.rundata.strategy.ConsistentHashRouter;
+import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+import com.xuxueli.crawler.rundata.strategy.PartitionRunData;
+import com.xuxueli.crawler.test.support.LocalHttpServer;
+import com.xuxueli.crawler.util.UrlUtil;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * partition run data test
+ */
+public class PartitionRunDataTest {
+
+    /**
+     * 一致性Hash：分布均匀，节点下线仅迁移其自身的key
+     */
+    @Test
+    public void routerTest(){
+        ConsistentHashRouter router3 = new ConsistentHashRouter(Arrays.asList("node1", "node2", "node3"));
+        ConsistentHashRouter router2 = new ConsistentHashRouter(Arrays.asList("node1", "node2"));
+
+        Map<String, Integer> countMap = new HashMap<String, Integer>();
+        for (int i = 0; i < 30000; i++) {
+            String host = "www.host" + i + ".com";
+            String node = router3.route(host);
+            countMap.put(node, countMap.containsKey(node) ? countMap.get(node) + 1 : 1);
+            if (!"node3".equals(node)) {
+                Assert.assertEquals(node, router2.route(host));
+            }
+        }
+        for (int count: countMap.values()) {
+            Assert.assertTrue(count>7000 && count<13000);
+        }
+    }
+
+    /**
+     * 两个节点：按主机划分采集、转发，全部完成后均终止
+     */
+    @Test
+    public void crawlTest() throws Exception {
+        List<String> nodes = Arrays.asList("127.0.0.1:" + freePort(), "127.0.0.1:" + freePort());
+        final ConsistentHashRouter router = new ConsistentHashRouter(nodes);
+        final Set<String> crawled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        List<PartitionRunData> runDatas = new ArrayList<PartitionRunData>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final String node: nodes) {
+            final PartitionRunData runData = new PartitionRunData(new LocalRunData(), node, nodes).setPollMillis(20).start();
+            runDatas.add(runData);
+            for (int i = 0; i < 2; i++) {
+                threads.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String link;
+                        while ((link = runData.getUrl()) != null) {
+                            if (!router.route(UrlUtil.getHost(link)).equals(node) || !crawled.add(link)) {
+                                errors.add(link);
+                            }
+                            int page = Integer.parseInt(link.substring(link.lastIndexOf('/') + 1));
+                            List<String> children = new ArrayList<String>();
+                            for (int j = 1; j <= 5 && page*5+j < 500; j++) {
+                                children.add("http://www.host" + (page*5+j) % 7 + ".com/" + (page*5+j));
+                            }
+                            runData.addUrls(children, link);
+                            runData.finishUrl(link);
+                        }
+                    }
+                }));
+            }
+        }
+
+        runDatas.get(0).addUrl("http://www.host0.com/0");
+        for (Thread thread: threads) {
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join(30000);
+            Assert.assertFalse(thread.isAlive());
+        }
+        for (PartitionRunData runData: runDatas) {
+            Assert.assertEquals(0, runData.getUrlNum());
+        }
+        for (PartitionRunData runData: runDatas) {
+            runData.close();
+        }
+        Assert.assertEquals(500, crawled.size());
+        Assert.assertTrue(errors.isEmpty());
+    }
+
+    /**
+     * 转发至其他节点的URL不计入本节点新增数量
+     */
+    @Test
+    public void forwardTest() throws Exception {
+        List<String> nodes = Arrays.asList("127.0.0.1:" + freePort(), "127.0.0.1:" + freePort());
+        ConsistentHashRouter router = new ConsistentHashRouter(nodes);
+        PartitionRunData runData0 = new PartitionRunData(new LocalRunData(), nodes.get(0), nodes).start();
+        PartitionRunData runData1 = new PartitionRunData(new LocalRunData(), nodes.get(1), nodes).start();
+        try {
+            String localLink = null;
+            String remoteLink = null;
+            for (int i = 0; localLink==null || remoteLink==null; i++) {
+                String link = "http://www.host" + i + ".com/";
+                if (router.route(UrlUtil.getHost(link)).equals(nodes.get(0))) {
+                    localLink = link;
+                } else {
+                    remoteLink = link;
+                }
+            }
+
+            Assert.assertEquals(1, runData0.addUrls(Arrays.asList(localLink, remoteLink), null));
+            Assert.assertEquals(1, runData0.getLocalRunData().getUrlNum());
+            Assert.assertEquals(1, runData1.getLocalRunData().getUrlNum());
+        } finally {
+            runData0.close();
+            runData1.close();
+        }
+    }
+
+    /**
+     * 不可达节点（如尚未启动）视为繁忙，超时后视为已下线
+     */
+    @Test
+    public void unreachableTest() throws Exception {
+        List<String> nodes = Arrays.asList("127.0.0.1:" + freePort(), "127.0.0.1:" + freePort());
+        PartitionRunData runData = new PartitionRunData(new LocalRunData(), nodes.get(0), nodes)
+                .setPollMillis(20)
+                .setPeerTimeoutMillis(500);
+        try {
+            Assert.assertTrue(runData.getUrlNum() > 0);      // peer not started, busy
+
+            long start = System.currentTimeMillis();
+            Assert.assertNull(runData.getUrl());
+            Assert.assertTrue(System.currentTimeMillis() - start >= 400);
+            Assert.assertEquals(0, runData.getUrlNum());
+        } finally {
+            runData.close();
+        }
+    }
+
+    /**
+     * 构造时不启动服务，首次使用时启动；关闭后释放端口，不可再启动
+     */
+    @Test
+    public void lifecycleTest() throws Exception {
+        int port = freePort();
+        List<String> nodes = Arrays.asList("127.0.0.1:" + port);
+        PartitionRunData runData = new PartitionRunData(new LocalRunData(), nodes.get(0), nodes);
+        try {
+            Assert.assertTrue(isPortFree(port));
+            Assert.assertTrue(runData.addUrl("http://www.host0.com/"));
+            Assert.assertFalse(isPortFree(port));
+        } finally {
+            runData.close();
+        }
+        Assert.assertTrue(awaitPortFree(port));
+
+        try {
+            runData.start();
+            Assert.fail("closed run data can not start");
+        } catch (XxlCrawlerException e) {
+            Assert.assertTrue(isPortFree(port));
+        }
+    }
+
+    /**
+     * 上次扫描空闲的节点完成后关闭，不再阻止其他节点终止
+     */
+    @Test
+    public void peerClosedTest() throws Exception {
+        List<String> nodes = Arrays.asList("127.0.0.1:" + freePort(), "127.0.0.1:" + freePort());
+        PartitionRunData runData0 = new PartitionRunData(new LocalRunData(), nodes.get(0), nodes)
+                .setPollMillis(20)
+                .setPeerTimeoutMillis(60000)
+                .start();
+        PartitionRunData runData1 = new PartitionRunData(new LocalRunData(), nodes.get(1), nodes).start();
+        try {
+            Assert.assertEquals(0, runData0.getUrlNum());        // peer idle
+            runData1.close();
+
+            long start = System.currentTimeMillis();
+            Assert.assertNull(runData0.getUrl());
+            Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+        } finally {
+            runData0.close();
+            runData1.close();
+        }
+    }
+
+    /**
+     * 爬虫终止时关闭 PartitionRunData 服务
+     */
+    @Test
+    public void crawlerStopTest() throws Exception {
+        final CountDownLatch pageLatch = new CountDownLatch(1);
+        LocalHttpServer server = LocalHttpServer.start(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    pageLatch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                LocalHttpServer.write(exchange, 200, "<html><body>page</body></html>");
+            }
+        });
+        int port = freePort();
+        List<String> nodes = Arrays.asList("127.0.0.1:" + port);
+        try {
+            PartitionRunData runData = new PartitionRunData(new LocalRunData(), nodes.get(0), nodes).setPollMillis(20);
+            XxlCrawler crawler = new XxlCrawler.Builder()
+                    .setRunData(runData)
+                    .setUrls(server.url("/page"))
+                    .setThreadCount(1)
+                    .setPageParser(new PageParser<Object>() {
+                        @Override
+                        public void parse(Document html, Element pageVoElement, Object pageVo) {
+                        }
+                    })
+                    .build();
+            crawler.start(false);
+            Assert.assertFalse(isPortFree(port));       // page loading
+
+            pageLatch.countDown();
+            crawler.getFinishFuture().get(30, TimeUnit.SECONDS);
+            Assert.assertTrue(awaitPortFree(port));
+        } finally {
+            pageLatch.countDown();
+            server.stop();
+        }
+    }
+
+    /**
+     * closing a listening socket, blocked in accept by another thread, may release the port a little later
+     */
+    private static boolean awaitPortFree(int port) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (isPortFree(port)) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        return false;
+    }
+
+    private static boolean isPortFree(int port) {
+        try {
+            ServerSocket socket = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+            socket.close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.PriorityRunData;
+import com.xuxueli.crawler.scorer.UrlScoreContext;
+import com.xuxueli.crawler.scorer.UrlScorer;
+import com.xuxueli.crawler.scorer.strategy.PathDepthUrlScorer;
+import com.xuxueli.crawler.scorer.strategy.RegexUrlScorer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * priority run data test
+ */
+public class PriorityRunDataTest {
+
+    /**
+     * 按得分出队，同分FIFO
+     */
+    @Test
+    public void regexScoreTest(){
+        PriorityRunData runData = new PriorityRunData(new RegexUrlScorer()
+                .addRule("https://my\\.oschina\\.net/xuxueli/blog/\\d+", 10));
+
+        runData.addUrl("https://my.oschina.net/xuxueli/blog?page=1");
+        runData.addUrl("https://my.oschina.net/xuxueli/blog?page=2");
+        runData.addUrl("https://my.oschina.net/xuxueli/blog/690978");
+
+        Assert.assertEquals(3, runData.getUrlNum());
+        Assert.assertEquals("https://my.oschina.net/xuxueli/blog/690978", runData.getUrl());
+        Assert.assertEquals("https://my.oschina.net/xuxueli/blog?page=1", runData.getUrl());
+        Assert.assertEquals("https://my.oschina.net/xuxueli/blog?page=2", runData.getUrl());
+    }
+
+    /**
+     * 路径层级浅者优先
+     */
+    @Test
+    public void pathDepthScoreTest(){
+        PriorityRunData runData = new PriorityRunData(new PathDepthUrlScorer());
+
+        runData.addUrl("http://www.baidu.com/a/b/c");
+        runData.addUrl("http://www.baidu.com/a");
+        runData.addUrl("http://www.baidu.com/a/b");
+
+        Assert.assertEquals("http://www.baidu.com/a", runData.getUrl());
+        Assert.assertEquals("http://www.baidu.com/a/b", runData.getUrl());
+        Assert.assertEquals("http://www.baidu.com/a/b/c", runData.getUrl());
+    }
+
+    /**
+     * 按父页面及深度打分：深度浅者优先，同深度时列表页的子页面优先
+     */
+    @Test
+    public void contextScoreTest(){
+        PriorityRunData runData = new PriorityRunData(new UrlScorer() {
+            @Override
+            public double score(UrlScoreContext context) {
+                double score = -context.getDepth();
+                if (context.getParentLink()!=null && context.getParentLink().contains("/list")) {
+                    score += 0.5;
+                }
+                return score;
+            }
+        });
+
+        runData.addUrl("http://www.baidu.com/");
+        Assert.assertEquals("http://www.baidu.com/", runData.getUrl());
+        runData.addUrls(Arrays.asList("http://www.baidu.com/about", "http://www.baidu.com/list"), "http://www.baidu.com/");
+        runData.addUrl("http://www.baidu.com/seed");
+        Assert.assertEquals("http://www.baidu.com/seed", runData.getUrl());
+        Assert.assertEquals(1, runData.getDepth("http://www.baidu.com/about"));
+
+        Assert.assertEquals("http://www.baidu.com/about", runData.getUrl());
+        runData.addUrl("http://www.baidu.com/about/1", "http://www.baidu.com/about");
+        Assert.assertEquals("http://www.baidu.com/list", runData.getUrl());
+        runData.addUrl("http://www.baidu.com/list/1", "http://www.baidu.com/list");
+
+        Assert.assertEquals("http://www.baidu.com/list/1", runData.getUrl());
+        Assert.assertEquals("http://www.baidu.com/about/1", runData.getUrl());
+        Assert.assertEquals(2, runData.getDepth("http://www.baidu.com/about/1"));
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+import com.xuxueli.crawler.rundata.strategy.RemoteRunData;
+import com.xuxueli.crawler.rundata.strategy.RunDataServer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * remote run data test
+ */
+public class RemoteRunDataTest {
+
+    /**
+     * 多节点共享：批量新增、去重、批量领取、确认
+     */
+    @Test
+    public void shareTest(){
+        RunDataServer server = new RunDataServer(new LocalRunData(), "127.0.0.1", 0);
+        server.start();
+        RemoteRunData node1 = new RemoteRunData("127.0.0.1", server.getPort(), 2);
+        RemoteRunData node2 = new RemoteRunData("127.0.0.1", server.getPort(), 2);
+        try {
+            Assert.assertEquals(3, node1.addUrls(Arrays.asList("http://www.baidu.com/1", "http://www.baidu.com/2", "http://www.baidu.com/3")));
+            Assert.assertFalse(node2.addUrl("http://www.baidu.com/1"));
+
+            Assert.assertEquals("http://www.baidu.com/1", node1.getUrl());
+            Assert.assertEquals("http://www.baidu.com/3", node2.getUrl());
+            Assert.assertEquals("http://www.baidu.com/2", node1.getUrl());     // prefetched
+            Assert.assertEquals(3, node1.getUrlNum());                          // inflight
+
+            node1.finishUrl("http://www.baidu.com/1");
+            node1.finishUrl("http://www.baidu.com/2");
+            node2.finishUrl("http://www.baidu.com/3");
+            Assert.assertNull(node2.getUrl());                                  // all done
+            Assert.assertEquals(0, node1.getUrlNum());
+        } finally {
+            node1.close();
+            node2.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 节点断开，已领取未确认的URL重新入队
+     */
+    @Test
+    public void requeueTest() throws InterruptedException {
+        RunDataServer server = new RunDataServer(new LocalRunData(), "127.0.0.1", 0);
+        server.start();
+        RemoteRunData node1 = new RemoteRunData("127.0.0.1", server.getPort(), 1);
+        RemoteRunData node2 = new RemoteRunData("127.0.0.1", server.getPort(), 1).setWaitMillis(2000);
+        try {
+            node1.addUrl("http://www.baidu.com/1");
+            Assert.assertEquals("http://www.baidu.com/1", node1.getUrl());
+            node1.close();      // crashed, never ack
+
+            Assert.assertEquals("http://www.baidu.com/1", node2.getUrl());
+        } finally {
+            node2.close();
+            server.stop();
+        }
+    }
+
+    /**
+     * 多节点并发领取、新增、确认：每个URL仅被领取一次，全部完成后各节点均收到完成通知
+     */
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        RunDataServer server = new RunDataServer(new LocalRunData(), "127.0.0.1", 0);
+        server.start();
+        final Set<String> takenSet = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final List<String> repeatList = Collections.synchronizedList(new ArrayList<String>());
+        final List<RemoteRunData> nodes = new ArrayList<RemoteRunData>();
+        try {
+            RemoteRunData seedNode = new RemoteRunData("127.0.0.1", server.getPort(), 1);
+            nodes.add(seedNode);
+            for (int i = 0; i < 1000; i++) {
+                seedNode.addUrl("http://www.baidu.com/" + i);
+            }
+
+            final CountDownLatch doneLatch = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                final RemoteRunData node = new RemoteRunData("127.0.0.1", server.getPort(), 8).setWaitMillis(200);
+                nodes.add(node);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        String link;
+                        while ((link = node.getUrl()) != null) {
+                            if (!takenSet.add(link)) {
+                                repeatList.add(link);
+                            }
+                            int index = Integer.parseInt(link.substring(link.lastIndexOf('/') + 1));
+                            if (index < 500) {
+                                node.addUrl("http://www.baidu.com/" + (index + 1000), link);
+                            }
+                            node.finishUrl(link);
+                        }
+                        doneLatch.countDown();
+                    }
+                }).start();
+            }
+
+            Assert.assertTrue(doneLatch.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(1500, takenSet.size());
+            Assert.assertTrue(repeatList.isEmpty());
+            Assert.assertEquals(0, server.getUrlNum());
+        } finally {
+            for (RemoteRunData node: nodes) {
+                node.close();
+            }
+            server.stop();
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.RunData;
+import com.xuxueli.crawler.rundata.strategy.BloomRunData;
+import com.xuxueli.crawler.rundata.strategy.FingerprintRunData;
+import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * run data benchmark：多线程 "addUrl" 及 "getUrl" 吞吐，以及已记录URL池内存占用
+ *
+ * 建议运行参数：-Xmx4g -Dlog4j.rootLogger=WARN
+ */
+public class RunDataBenchmark {
+
+    private static final int URL_NUM = 2 * 1000 * 1000;
+    private static final int THREAD_NUM = 8;
+
+    public static void main(String[] args) throws Exception {
+        bench("LocalRunData", new Callable<RunData>() {
+            @Override
+            public RunData call() {
+                return new LocalRunData();
+            }
+        });
+        bench("FingerprintRunData", new Callable<RunData>() {
+            @Override
+            public RunData call() {
+                return new FingerprintRunData(URL_NUM);
+            }
+        });
+        bench("BloomRunData", new Callable<RunData>() {
+            @Override
+            public RunData call() {
+                return new BloomRunData(URL_NUM, 0.0001);
+            }
+        });
+    }
+
+    private static void bench(String name, Callable<RunData> runDataFactory) throws Exception {
+        long memoryStart = usedMemory();
+        final RunData runData = runDataFactory.call();
+
+        final CountDownLatch latch = new CountDownLatch(THREAD_NUM);
+        final AtomicLong addNum = new AtomicLong();
+        long start = System.nanoTime();
+        for (int t = 0; t < THREAD_NUM; t++) {
+            final int threadIndex = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = threadIndex; i < URL_NUM; i += THREAD_NUM) {
+                        // each url discovered twice, simulate repeated links
+                        if (runData.addUrl("http://www.example.com/item/" + i + "?from=list")) {
+                            addNum.incrementAndGet();
+                        }
+                        runData.addUrl("http://www.example.com/item/" + i + "?from=list");
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        for (long i = 0; i < addNum.get(); i++) {
+            runData.getUrl();       // drain queue, only seen-index remains
+        }
+        long costMillis = (System.nanoTime() - start) / 1000000;
+
+        long memoryUsed = usedMemory() - memoryStart;
+        runData.getUrlNum();    // keep reachable until measured
+        System.out.println(String.format("%-20s added=%d, cost=%dms, ops/s=%d, seen-index memory~%dMB (%.1f bytes/url)",
+                name, addNum.get(), costMillis, ((URL_NUM * 2L + addNum.get()) * 1000) / Math.max(1, costMillis),
+                memoryUsed / 1024 / 1024, (double) memoryUsed / URL_NUM));
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+}
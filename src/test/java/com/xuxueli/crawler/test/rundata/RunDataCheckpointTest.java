@@ -0,0 +1,167 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.FingerprintRunData;
+import com.xuxueli.crawler.rundata.strategy.LocalRunData;
+import com.xuxueli.crawler.rundata.strategy.RunDataCheckpoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * run data checkpoint test
+ */
+public class RunDataCheckpointTest {
+
+    /**
+     * 快照 + 增量日志，恢复
+     */
+    @Test
+    public void resumeTest(){
+        String checkpointDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-checkpoint").getPath();
+
+        // run
+        FingerprintRunData runData = new FingerprintRunData();
+        RunDataCheckpoint checkpoint = new RunDataCheckpoint(runData, checkpointDir, 1, 2);
+        checkpoint.init(false);
+        for (int i = 0; i < 100; i++) {
+            runData.addUrl("http://www.baidu.com/s?page=" + i);
+        }
+        checkpoint.checkpoint();
+        checkpoint.checkpoint();        // full snapshot
+        for (int i = 0; i < 30; i++) {
+            String link = runData.getUrl();
+            if (i < 20) {
+                runData.finishUrl(link);
+            }
+        }
+        runData.addUrl("http://www.baidu.com/s?page=100");
+        checkpoint.checkpoint();        // journal only
+
+        // resume
+        FingerprintRunData resumeRunData = new FingerprintRunData();
+        new RunDataCheckpoint(resumeRunData, checkpointDir, 1, 2).init(true);
+
+        Assert.assertEquals(81, resumeRunData.getUrlNum());
+        Assert.assertFalse(resumeRunData.addUrl("http://www.baidu.com/s?page=0"));     // visited
+        Assert.assertFalse(resumeRunData.addUrl("http://www.baidu.com/s?page=50"));    // queued
+        Assert.assertEquals("http://www.baidu.com/s?page=20", resumeRunData.getUrl());    // taken but not finished, re-queued
+    }
+
+    /**
+     * 采集中URL（已领取、未完成）写入全量快照，恢复后重新入队
+     */
+    @Test
+    public void inflightTest(){
+        String checkpointDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-checkpoint-inflight").getPath();
+
+        // run
+        FingerprintRunData runData = new FingerprintRunData();
+        RunDataCheckpoint checkpoint = new RunDataCheckpoint(runData, checkpointDir, 1, 1);
+        checkpoint.init(false);
+        for (int i = 0; i < 10; i++) {
+            runData.addUrl("http://www.baidu.com/s?page=" + i);
+        }
+        String finished = runData.getUrl();
+        String inflight = runData.getUrl();
+        runData.finishUrl(finished);
+        checkpoint.checkpoint();        // full snapshot, journal rotated
+
+        // resume
+        FingerprintRunData resumeRunData = new FingerprintRunData();
+        new RunDataCheckpoint(resumeRunData, checkpointDir, 1, 1).init(true);
+
+        Assert.assertEquals(9, resumeRunData.getUrlNum());
+        Assert.assertEquals(inflight, resumeRunData.getUrl());
+        Assert.assertFalse(resumeRunData.addUrl(finished));
+    }
+
+    /**
+     * 快照发生在URL记录为已访问之后、写入增量日志之前：快照中已访问但未入队，恢复时由增量日志重新入队
+     */
+    @Test
+    public void admitRaceTest(){
+        String checkpointDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-checkpoint-race").getPath();
+        final String raceLink = "http://www.baidu.com/s?page=race";
+
+        // run
+        RaceRunData runData = new RaceRunData(raceLink);
+        RunDataCheckpoint checkpoint = new RunDataCheckpoint(runData, checkpointDir, 1, 2);
+        checkpoint.init(false);
+        runData.checkpoint = checkpoint;
+        runData.addUrl("http://www.baidu.com/s?page=0");
+        checkpoint.checkpoint();            // journal only
+        runData.addUrl(raceLink);           // full snapshot between markSeen and journal
+        checkpoint.checkpoint();            // journal only, after the snapshot
+
+        // resume
+        RaceRunData resumeRunData = new RaceRunData(raceLink);
+        new RunDataCheckpoint(resumeRunData, checkpointDir, 1, 2).init(true);
+
+        Assert.assertEquals(2, resumeRunData.getUrlNum());
+        Assert.assertEquals("http://www.baidu.com/s?page=0", resumeRunData.getUrl());
+        Assert.assertEquals(raceLink, resumeRunData.getUrl());
+    }
+
+    /**
+     * 已消耗的页面预算、URL深度随快照及增量日志恢复
+     */
+    @Test
+    public void limitTest(){
+        String checkpointDir = new File(System.getProperty("java.io.tmpdir"), "xxl-crawler-checkpoint-limit").getPath();
+
+        // run
+        LocalRunData runData = new LocalRunData().setMaxDepth(1).setMaxPageNum(10).setMaxHostPageNum(6);
+        RunDataCheckpoint checkpoint = new RunDataCheckpoint(runData, checkpointDir, 1, 2);
+        checkpoint.init(false);
+        String seed = "http://www.baidu.com/";
+        runData.addUrl(seed);
+        Assert.assertEquals(seed, runData.getUrl());
+        for (int i = 0; i < 3; i++) {
+            runData.addUrl("http://www.baidu.com/child/" + i, seed);
+        }
+        checkpoint.checkpoint();
+        checkpoint.checkpoint();        // full snapshot
+        runData.addUrl("http://www.baidu.com/child/3", seed);
+        checkpoint.checkpoint();        // journal only
+
+        // resume
+        LocalRunData resumeRunData = new LocalRunData().setMaxDepth(1).setMaxPageNum(10).setMaxHostPageNum(6);
+        new RunDataCheckpoint(resumeRunData, checkpointDir, 1, 2).init(true);
+
+        Assert.assertEquals(5, resumeRunData.getUrlNum());
+        Assert.assertEquals(1, resumeRunData.getDepth("http://www.baidu.com/child/0"));     // by snapshot
+        Assert.assertEquals(1, resumeRunData.getDepth("http://www.baidu.com/child/3"));     // by journal
+        Assert.assertEquals(seed, resumeRunData.getParentUrl("http://www.baidu.com/child/3"));
+        Assert.assertFalse(resumeRunData.addUrl("http://www.baidu.com/grandchild", "http://www.baidu.com/child/0"));    // over max depth
+
+        Assert.assertTrue(resumeRunData.addUrl("http://www.baidu.com/other/0"));
+        Assert.assertFalse(resumeRunData.addUrl("http://www.baidu.com/other/1"));       // host budget 6 consumed
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(resumeRunData.addUrl("http://www.qq.com/" + i));
+        }
+        Assert.assertFalse(resumeRunData.addUrl("http://www.qq.com/4"));                 // page budget 10 consumed
+    }
+
+    /**
+     * take a full snapshot while the race link is marked seen but not yet journaled
+     */
+    public static class RaceRunData extends FingerprintRunData {
+        private final String raceLink;
+        private RunDataCheckpoint checkpoint;
+
+        public RaceRunData(String raceLink) {
+            this.raceLink = raceLink;
+        }
+
+        @Override
+        protected boolean markSeen(String link) {
+            boolean unseen = super.markSeen(link);
+            if (raceLink.equals(link) && checkpoint!=null) {
+                checkpoint.checkpoint();
+            }
+            return unseen;
+        }
+    }
+
+}
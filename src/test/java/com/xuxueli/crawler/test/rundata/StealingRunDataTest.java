@@ -0,0 +1,100 @@
+package com.xuxueli.crawler.test.rundata;
+
+import com.xuxueli.crawler.rundata.strategy.StealingRunData;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * stealing run data test
+ */
+public class StealingRunDataTest {
+
+    /**
+     * 本线程FIFO获取，空闲线程窃取其他线程的URL，全部为空时阻塞等待
+     */
+    @Test
+    public void stealTest() throws InterruptedException {
+        final StealingRunData runData = new StealingRunData();
+        runData.addUrl("http://www.baidu.com/1");
+        runData.addUrl("http://www.baidu.com/2");
+        Assert.assertEquals("http://www.baidu.com/1", runData.getUrl());
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    runData.addUrl("http://www.qq.com/" + i);
+                }
+            }
+        });
+        producer.start();
+        producer.join();
+        Assert.assertEquals(101, runData.getUrlNum());
+
+        Set<String> links = new HashSet<String>();
+        for (int i = 0; i < 101; i++) {
+            links.add(runData.getUrl());      // own first, then steal from producer
+        }
+        Assert.assertEquals(101, links.size());
+        Assert.assertEquals(0, runData.getUrlNum());
+
+        final AtomicReference<String> taken = new AtomicReference<String>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken.set(runData.getUrl());
+            }
+        });
+        consumer.start();
+        Thread.sleep(100);
+        runData.addUrl("http://www.qq.com/last");
+        consumer.join(3000);
+        Assert.assertEquals("http://www.qq.com/last", taken.get());
+    }
+
+    /**
+     * 生产与消费线程不同（流水线模式）：新增URL进入共享队列，不为生产线程创建队列；线程结束后其队列取空即移除
+     */
+    @Test
+    public void pipelineTest() throws InterruptedException {
+        final StealingRunData runData = new StealingRunData();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    runData.addUrl("http://www.qq.com/" + i);
+                }
+            }
+        });
+        producer.start();
+        producer.join();
+
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String link = runData.getUrl();
+                runData.addUrl(link + "/child");        // into its own deque
+            }
+        });
+        worker.start();
+        worker.join();
+        Assert.assertEquals(1, runData.getDequeNum());
+        Assert.assertEquals(10, runData.getUrlNum());
+
+        Set<String> links = new HashSet<String>();
+        for (int i = 0; i < 10; i++) {
+            links.add(runData.getUrl());
+        }
+        Assert.assertEquals(10, links.size());
+        Assert.assertTrue(links.contains("http://www.qq.com/0/child"));
+
+        runData.addUrl("http://www.qq.com/last");
+        Assert.assertEquals("http://www.qq.com/last", runData.getUrl());
+        Assert.assertEquals(1, runData.getDequeNum());      // dead worker's deque dropped, main thread's kept
+    }
+
+}
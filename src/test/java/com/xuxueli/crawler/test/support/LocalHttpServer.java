@@ -0,0 +1,173 @@
+package com.xuxueli.crawler.test.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import com.xuxueli.crawler.model.PageRequest;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * local http server, shared fixture of loader and crawler tests
+ */
+public class LocalHttpServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String scheme;
+
+    private LocalHttpServer(HttpServer server, ExecutorService executor, String scheme) {
+        this.server = server;
+        this.executor = executor;
+        this.scheme = scheme;
+    }
+
+    /**
+     * start on a random local port
+     *
+     * @param threadNum     handler threads
+     * @param handler       handle all paths
+     * @return LocalHttpServer
+     */
+    public static LocalHttpServer start(int threadNum, HttpHandler handler) throws IOException {
+        return start(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1000), threadNum, handler, "http");
+    }
+
+    /**
+     * start https on a random local port, with a self-signed certificate of "127.0.0.1"
+     */
+    public static LocalHttpServer startHttps(HttpHandler handler) throws IOException {
+        HttpsServer server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 1000);
+        server.setHttpsConfigurator(new HttpsConfigurator(selfSignedContext()));
+        return start(server, 8, handler, "https");
+    }
+
+    private static LocalHttpServer start(HttpServer server, int threadNum, HttpHandler handler, String scheme) {
+        ExecutorService executor = Executors.newFixedThreadPool(threadNum);
+        server.setExecutor(executor);
+        server.createContext("/", handler);
+        server.start();
+        return new LocalHttpServer(server, executor, scheme);
+    }
+
+    private static SSLContext sslContext;
+
+    /**
+     * key pair generated by keytool of the running jdk, once
+     */
+    private static synchronized SSLContext selfSignedContext() throws IOException {
+        if (sslContext != null) {
+            return sslContext;
+        }
+        File keyStoreFile = File.createTempFile("xxl-crawler-test", ".p12");
+        keyStoreFile.delete();
+        keyStoreFile.deleteOnExit();
+        char[] password = "changeit".toCharArray();
+        try {
+            Process process = new ProcessBuilder(System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool",
+                    "-genkeypair", "-alias", "local", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                    "-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1",
+                    "-keystore", keyStoreFile.getAbsolutePath(), "-storetype", "PKCS12",
+                    "-storepass", new String(password), "-keypass", new String(password))
+                    .redirectErrorStream(true)
+                    .start();
+            String output = read(process.getInputStream());
+            if (process.waitFor() != 0) {
+                throw new IOException("keytool fail : " + output);
+            }
+
+            KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            InputStream in = new FileInputStream(keyStoreFile);
+            try {
+                keyStore.load(in, password);
+            } finally {
+                in.close();
+            }
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keyStore, password);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagerFactory.getKeyManagers(), null, null);
+            sslContext = context;
+            return sslContext;
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static LocalHttpServer start(HttpHandler handler) throws IOException {
+        return start(8, handler);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param path  start with "/"
+     * @return String, absolute url
+     */
+    public String url(String path) {
+        return scheme + "://127.0.0.1:" + getPort() + path;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    // ---------------------- exchange ----------------------
+
+    /**
+     * write html, "text/html; charset=UTF-8"
+     */
+    public static void write(HttpExchange exchange, int status, String html) throws IOException {
+        write(exchange, status, html.getBytes("UTF-8"), false);
+    }
+
+    /**
+     * write body, "text/html; charset=UTF-8" if content type absent; empty body without Content-Length
+     *
+     * @param chunked   chunked transfer encoding
+     */
+    public static void write(HttpExchange exchange, int status, byte[] body, boolean chunked) throws IOException {
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().add("Content-Type", "text/html; charset=UTF-8");
+        }
+        exchange.sendResponseHeaders(status, chunked ? 0 : (body.length>0 ? body.length : -1));
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    public static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int len;
+        while ((len = in.read(buffer)) > 0) {
+            out.write(buffer, 0, len);
+        }
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * page request, 10s timeout
+     */
+    public static PageRequest request(String url) {
+        PageRequest pageRequest = new PageRequest();
+        pageRequest.setUrl(url);
+        pageRequest.setTimeoutMillis(10000);
+        return pageRequest;
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.xuxueli.crawler.test.support;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * local tunnel proxy, shared fixture of loader tests: "CONNECT" of http proxy, and SOCKS5 without authentication
+ */
+public class LocalProxyServer {
+
+    private final ServerSocket serverSocket;
+    private final List<String> targets = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private volatile boolean toStop = false;
+
+    private LocalProxyServer(ServerSocket serverSocket) {
+        this.serverSocket = serverSocket;
+    }
+
+    /**
+     * start on a random local port, protocol detected by the first byte of each connection
+     */
+    public static LocalProxyServer start() throws IOException {
+        final LocalProxyServer server = new LocalProxyServer(new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.toStop) {
+                    try {
+                        final Socket socket = server.serverSocket.accept();
+                        server.sockets.add(socket);
+                        daemon(new Runnable() {
+                            @Override
+                            public void run() {
+                                server.serve(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        // stopped
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return server;
+    }
+
+    public Proxy proxy(Proxy.Type type) {
+        return new Proxy(type, new InetSocketAddress("127.0.0.1", serverSocket.getLocalPort()));
+    }
+
+    /**
+     * @return List, "host:port" requested by clients
+     */
+    public List<String> getTargets() {
+        return targets;
+    }
+
+    public void stop() {
+        toStop = true;
+        closeQuietly(serverSocket);
+        synchronized (sockets) {
+            for (Socket socket: sockets) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    // ---------------------- serve ----------------------
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String host;
+            int port;
+            int first = in.read();
+            if (first == 5) {
+                // SOCKS5: methods, then connect by domain name
+                byte[] methods = new byte[in.read()];
+                in.readFully(methods);
+                out.write(new byte[]{5, 0});
+                byte[] head = new byte[4];
+                in.readFully(head);
+                if (head[3] != 3) {
+                    throw new IOException("address type not supported : " + head[3]);
+                }
+                byte[] name = new byte[in.read()];
+                in.readFully(name);
+                host = new String(name, "ISO-8859-1");
+                port = in.readUnsignedShort();
+                out.write(new byte[]{5, 0, 0, 1, 127, 0, 0, 1, 0, 0});
+            } else {
+                // CONNECT host:port HTTP/1.1
+                StringBuilder head = new StringBuilder().append((char) first);
+                while (!head.toString().endsWith("\r\n\r\n")) {
+                    int b = in.read();
+                    if (b < 0) {
+                        throw new EOFException();
+                    }
+                    head.append((char) b);
+                }
+                String authority = head.toString().split(" ")[1];
+                host = authority.substring(0, authority.lastIndexOf(':'));
+                port = Integer.parseInt(authority.substring(authority.lastIndexOf(':') + 1));
+                out.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes("ISO-8859-1"));
+            }
+            out.flush();
+            targets.add(host + ":" + port);
+
+            final Socket upstream = new Socket(host, port);
+            sockets.add(upstream);
+            final Socket client = socket;
+            daemon(new Runnable() {
+                @Override
+                public void run() {
+                    relay(upstream, client);
+                }
+            });
+            relay(client, upstream);
+        } catch (IOException e) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void relay(Socket from, Socket to) {
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) > 0) {
+                out.write(buffer, 0, len);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // closed
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    private static void daemon(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.xuxueli.crawler.test.util;
+
+import com.xuxueli.crawler.util.ResourceFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * resource filter test
+ */
+public class ResourceFilterTest {
+
+    /**
+     * 默认规则：图片、字体、样式、统计脚本拦截；页面、脚本放行
+     */
+    @Test
+    public void defaultTest(){
+        ResourceFilter filter = new ResourceFilter().addDefaultDenyRules();
+
+        Assert.assertFalse(filter.accept("http://a.com/img/logo.PNG?v=1"));
+        Assert.assertFalse(filter.accept("http://a.com/font/x.woff2#f"));
+        Assert.assertFalse(filter.accept("http://a.com/style.css"));
+        Assert.assertFalse(filter.accept("https://www.google-analytics.com/analytics.js"));
+        Assert.assertTrue(filter.accept("http://a.com/app.js"));
+        Assert.assertTrue(filter.accept("http://a.com/list.png/page"));
+        Assert.assertTrue(filter.accept("http://a.com"));
+
+        // by actual content type
+        Assert.assertFalse(filter.accept("http://a.com/img?id=1", "image/jpeg"));
+        Assert.assertTrue(filter.accept("http://a.com/api?id=1", "application/json; charset=UTF-8"));
+        Assert.assertTrue(filter.accept("http://a.com/api?id=1", null));
+    }
+
+    /**
+     * 允许规则优先
+     */
+    @Test
+    public void allowTest(){
+        ResourceFilter filter = new ResourceFilter()
+                .addDenyContentTypes("image/*", "application/javascript")
+                .addDenyUrlRegexes("cdn\\.a\\.com")
+                .addAllowContentTypes("image/svg+xml")
+                .addAllowUrlRegexes("cdn\\.a\\.com/lib/");
+
+        Assert.assertFalse(filter.accept("http://cdn.a.com/x.html"));
+        Assert.assertTrue(filter.accept("http://cdn.a.com/lib/jquery.js"));
+        Assert.assertTrue(filter.accept("http://a.com/icon.svg"));
+        Assert.assertFalse(filter.accept("http://a.com/app.js"));
+
+        Assert.assertEquals(Arrays.asList("cdn\\.a\\.com"), filter.getDenyUrlRegexes());
+        Assert.assertEquals(Arrays.asList("bmp", "gif", "ico", "jpeg", "jpg", "js", "png", "webp"), filter.getDenySuffixes());
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.xuxueli.crawler.test.util;
+
+import com.xuxueli.crawler.util.UrlCanonicalizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * url canonicalizer test
+ */
+public class UrlCanonicalizerTest {
+
+    /**
+     * 默认规则：小写、默认端口、片段
+     */
+    @Test
+    public void defaultTest(){
+        UrlCanonicalizer canonicalizer = new UrlCanonicalizer();
+
+        Assert.assertEquals("http://a.com/x", canonicalizer.canonicalize("HTTP://A.com:80/x#frag"));
+        Assert.assertEquals("https://a.com/X?b=2&a=1", canonicalizer.canonicalize("https://a.com:443/X?b=2&a=1#top"));
+        Assert.assertEquals("http://a.com:8080/", canonicalizer.canonicalize("http://a.com:8080"));
+        Assert.assertEquals("http://User@[::1]/", canonicalizer.canonicalize("http://User@[::1]:80/"));
+
+        String url = "http://a.com/x?b=2";
+        Assert.assertSame(url, canonicalizer.canonicalize(url));
+    }
+
+    /**
+     * 查询参数排序、跟踪参数移除
+     */
+    @Test
+    public void queryTest(){
+        UrlCanonicalizer canonicalizer = new UrlCanonicalizer().setSortQuery(true).addTrackingParams();
+
+        Assert.assertEquals("http://a.com/x?a=1&b=2", canonicalizer.canonicalize("http://a.com/x?b=2&a=1"));
+        Assert.assertEquals("http://a.com/x?id=1", canonicalizer.canonicalize("http://a.com/x?utm_source=t&id=1&spm=a.b#c"));
+        Assert.assertEquals("http://a.com/x", canonicalizer.canonicalize("http://a.com/x?utm_medium=1&gclid=2"));
+        Assert.assertEquals("http://a.com/x?from=list", canonicalizer.canonicalize("http://a.com/x?from=list"));     // business param, kept
+    }
+
+    /**
+     * 空查询移除 "?"，与是否移除参数无关
+     */
+    @Test
+    public void emptyQueryTest(){
+        UrlCanonicalizer canonicalizer = new UrlCanonicalizer();
+        UrlCanonicalizer removeCanonicalizer = new UrlCanonicalizer().addTrackingParams();
+
+        Assert.assertEquals("http://a.com/x", canonicalizer.canonicalize("http://a.com/x?"));
+        Assert.assertEquals("http://a.com/x", removeCanonicalizer.canonicalize("http://a.com/x?"));
+        Assert.assertEquals("http://a.com/x", removeCanonicalizer.canonicalize("http://a.com/x?utm_source=t"));
+        Assert.assertEquals("http://a.com/x", canonicalizer.canonicalize("http://a.com/x?#top"));
+    }
+
+}